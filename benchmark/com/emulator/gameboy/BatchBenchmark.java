@@ -0,0 +1,65 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.memory.RomImage;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures aggregate frame throughput of many machines running the instruction mix, so that the
+ * scores for different worker counts show how the batch runner scales.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BatchBenchmark {
+  private static final int INSTANCES = 32;
+  private static final int FRAMES = 4;
+
+  @Param({"1", "2", "4"})
+  public int workers;
+
+  private BatchRunner runner;
+
+  /**
+   * Submits the machines.
+   */
+  @Setup
+  public void setUp() {
+    runner = new BatchRunner(workers);
+    RomImage rom = RomImage.of(SyntheticRoms.instructionMix());
+    for (int i = 0; i < INSTANCES; i++) {
+      runner.submit(rom, BatchRunner.Input.NONE, true, false);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    runner.close();
+  }
+
+  /**
+   * Steps every machine; the score is frames per second across all machines.
+   */
+  @Benchmark
+  @OperationsPerInvocation(INSTANCES * FRAMES)
+  public void step() {
+    runner.step(FRAMES);
+  }
+}
@@ -0,0 +1,57 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.memory.RomImage;
+
+/**
+ * Measures the heap taken by each machine in a batch, by submitting many machines running one
+ * shared ROM image and comparing the live heap before and after. Run it directly rather than
+ * through JMH:
+ *
+ * <pre>
+ * java -cp target/classes com.emulator.gameboy.InstanceFootprint [instances] [--recompile]
+ * </pre>
+ */
+public final class InstanceFootprint {
+  private InstanceFootprint() {
+  }
+
+  /**
+   * The main method.
+   *
+   * @param args the number of machines, 1000 by default, and {@code --recompile} to measure the
+   *     recompiling core
+   * @throws InterruptedException if interrupted while waiting for the collector
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int instances = 1000;
+    boolean recompile = false;
+    for (String arg : args) {
+      if (arg.equals("--recompile")) {
+        recompile = true;
+      } else {
+        instances = Integer.parseInt(arg);
+      }
+    }
+
+    RomImage rom = RomImage.of(SyntheticRoms.instructionMix());
+    long before = liveHeap();
+    try (BatchRunner runner = new BatchRunner()) {
+      for (int i = 0; i < instances; i++) {
+        runner.submit(rom, BatchRunner.Input.NONE, false, recompile);
+      }
+      // let every table a running machine allocates be allocated
+      runner.step(2);
+      long after = liveHeap();
+      System.out.printf("%d instances, %d bytes each%n", instances, (after - before) / instances);
+    }
+  }
+
+  private static long liveHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
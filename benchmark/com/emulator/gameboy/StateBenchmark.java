@@ -0,0 +1,70 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.memory.Memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to save and to load a whole-machine state into a reused buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StateBenchmark {
+  private GameBoy gameBoy;
+  private ByteBuffer buffer;
+
+  /**
+   * Runs the instruction mix for a few frames and saves a first state.
+   */
+  @Setup
+  public void setUp() {
+    Memory memory = new Memory();
+    memory.loadRom(SyntheticRoms.instructionMix());
+    gameBoy = new GameBoy(memory, null);
+    for (int i = 0; i < 10; i++) {
+      gameBoy.runFrame();
+    }
+    buffer = ByteBuffer.allocate(gameBoy.getStateSize());
+    gameBoy.saveState(buffer);
+  }
+
+  /**
+   * Saves the state; the score is microseconds per state.
+   *
+   * @return the buffer, so the work is not eliminated
+   */
+  @Benchmark
+  public ByteBuffer save() {
+    buffer.clear();
+    gameBoy.saveState(buffer);
+    return buffer;
+  }
+
+  /**
+   * Loads the state; the score is microseconds per state.
+   *
+   * @return the cycle count, so the work is not eliminated
+   */
+  @Benchmark
+  public long load() {
+    buffer.clear();
+    gameBoy.loadState(buffer);
+    return gameBoy.getCpu().getCycleCount();
+  }
+}
@@ -0,0 +1,79 @@
+package com.emulator.gameboy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds small generated ROMs for the benchmarks, so that no commercial ROM is needed to measure
+ * the emulator.
+ */
+public final class SyntheticRoms {
+  public static final int ROM_SIZE = 0x8000;
+
+  private SyntheticRoms() {
+  }
+
+  /**
+   * A ROM that loops forever over a mix of loads, ALU operations, memory accesses, stack
+   * operations, calls and CB-prefixed instructions.
+   *
+   * @return the ROM image
+   */
+  public static byte[] instructionMix() {
+    byte[] rom = new byte[ROM_SIZE];
+    put(rom, 0x0000, 0xC3, 0x50, 0x01); // JP 0x0150
+    put(rom, 0x0150,
+        0x31, 0xF0, 0xDF, // LD SP,0xDFF0
+        0x21, 0x00, 0xC0, // LD HL,0xC000
+        0x06, 0x10,       // 0x0156: LD B,0x10
+        0x7E,             // 0x0158: LD A,(HL)
+        0x80,             // ADD A,B
+        0xEE, 0x5A,       // XOR 0x5A
+        0x22,             // LD (HL+),A
+        0xCB, 0x37,       // SWAP A
+        0xC5,             // PUSH BC
+        0xCD, 0x70, 0x01, // CALL 0x0170
+        0xC1,             // POP BC
+        0x05,             // DEC B
+        0x20, 0xF1,       // JR NZ,0x0158
+        0x21, 0x00, 0xC0, // LD HL,0xC000
+        0xC3, 0x56, 0x01); // JP 0x0156
+    put(rom, 0x0170,
+        0x13,             // INC DE
+        0xBB,             // CP E
+        0xC9);            // RET
+    return rom;
+  }
+
+  /**
+   * A ROM that spins on a single relative jump, so that devices other than the CPU dominate.
+   *
+   * @return the ROM image
+   */
+  public static byte[] idleLoop() {
+    byte[] rom = new byte[ROM_SIZE];
+    put(rom, 0x0000, 0x18, 0xFE); // JR -2
+    return rom;
+  }
+
+  /**
+   * Writes a ROM image to a temporary file which is deleted when the JVM exits.
+   *
+   * @param rom the ROM image
+   * @return the path of the file, as accepted by {@code Memory.loadRom}
+   * @throws IOException if the file cannot be written
+   */
+  public static String write(byte[] rom) throws IOException {
+    Path path = Files.createTempFile("synthetic", ".gb");
+    path.toFile().deleteOnExit();
+    Files.write(path, rom);
+    return path.toString();
+  }
+
+  private static void put(byte[] rom, int address, int... bytes) {
+    for (int i = 0; i < bytes.length; i++) {
+      rom[address + i] = (byte) bytes[i];
+    }
+  }
+}
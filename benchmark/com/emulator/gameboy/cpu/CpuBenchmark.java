@@ -0,0 +1,115 @@
+package com.emulator.gameboy.cpu;
+
+import com.emulator.gameboy.SyntheticRoms;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures instruction dispatch throughput over a synthetic instruction mix, and compares the
+ * interpreter with the recompiling core running the same mix up to scheduled events.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CpuBenchmark {
+  private static final int INSTRUCTIONS = 1024;
+  // machine cycles between events, a little under one scanline
+  private static final int SLICE_CYCLES = 100;
+  private static final int SLICES = 64;
+
+  private Cpu cpu;
+  private Cpu interpreter;
+  private Cpu recompilerState;
+  private RecompilingCpu recompiler;
+  private Scheduler scheduler;
+  private int event;
+
+  /**
+   * Loads the instruction mix ROM for each core.
+   *
+   * @throws IOException if the ROM cannot be written
+   */
+  @Setup
+  public void setUp() throws IOException {
+    String rom = SyntheticRoms.write(SyntheticRoms.instructionMix());
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    cpu = new Cpu(memory);
+
+    Memory interpreterMemory = new Memory();
+    interpreterMemory.loadRom(rom);
+    interpreter = new Cpu(interpreterMemory);
+
+    Memory recompilerMemory = new Memory();
+    recompilerMemory.loadRom(rom);
+    recompilerState = new Cpu(recompilerMemory);
+    recompiler = new RecompilingCpu(recompilerState, recompilerMemory);
+
+    scheduler = new Scheduler();
+    event = scheduler.register(time -> { });
+  }
+
+  /**
+   * Executes a batch of instructions; the score is instructions per microsecond.
+   *
+   * @return the cycle count, so the work is not eliminated
+   */
+  @Benchmark
+  @OperationsPerInvocation(INSTRUCTIONS)
+  public long dispatch() {
+    for (int i = 0; i < INSTRUCTIONS; i++) {
+      cpu.step();
+    }
+    return cpu.getCycleCount();
+  }
+
+  /**
+   * Runs the interpreter through a series of event slices; the score is machine cycles per
+   * microsecond.
+   *
+   * @return the cycle count, so the work is not eliminated
+   */
+  @Benchmark
+  @OperationsPerInvocation(SLICE_CYCLES * SLICES)
+  public long interpreted() {
+    return runSlices(interpreter, interpreter);
+  }
+
+  /**
+   * Runs the recompiling core through a series of event slices; the score is machine cycles per
+   * microsecond.
+   *
+   * @return the cycle count, so the work is not eliminated
+   */
+  @Benchmark
+  @OperationsPerInvocation(SLICE_CYCLES * SLICES)
+  public long recompiled() {
+    return runSlices(recompiler, recompilerState);
+  }
+
+  private long runSlices(AbstractCpu core, Cpu state) {
+    for (int i = 0; i < SLICES; i++) {
+      scheduler.schedule(event, state.getCycleCount() + SLICE_CYCLES);
+      core.runUntil(scheduler);
+    }
+    return state.getCycleCount();
+  }
+}
@@ -0,0 +1,83 @@
+package com.emulator.gameboy.gpu;
+
+import com.emulator.gameboy.SyntheticRoms;
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the GPU mode events and background scanline rendering, without a screen.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GpuBenchmark {
+  // a frame is 144 visible lines of three modes each plus 10 vblank lines
+  private static final int EVENTS = 144 * 3 + 10;
+
+  private Scheduler scheduler;
+  private Gpu gpu;
+
+  /**
+   * Loads the idle loop ROM and fills the tile data and background map with a pattern.
+   *
+   * @throws IOException if the ROM cannot be written
+   */
+  @Setup
+  public void setUp() throws IOException {
+    Memory memory = new Memory();
+    memory.loadRom(SyntheticRoms.write(SyntheticRoms.idleLoop()));
+    for (int address = 0x8000; address < 0x9800; address++) {
+      memory.setByte(address, (byte) (address * 37));
+    }
+    for (int address = 0x9800; address < 0xA000; address++) {
+      memory.setByte(address, (byte) address);
+    }
+    memory.setByte(0xFF40, (byte) 0x91); // LCD and background on, unsigned tile data
+    memory.setByte(0xFF42, (byte) 3); // SCY
+    memory.setByte(0xFF43, (byte) 5); // SCX
+    scheduler = new Scheduler();
+    gpu = new Gpu(memory, scheduler, new InterruptController(memory), null);
+  }
+
+  /**
+   * Dispatches one frame of GPU mode changes, rendering included; the score is events per
+   * microsecond.
+   *
+   * @return the frame count, so the work is not eliminated
+   */
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public long modeEvents() {
+    for (int i = 0; i < EVENTS; i++) {
+      scheduler.dispatch(scheduler.getNextEventTime());
+    }
+    return gpu.getFrameCount();
+  }
+
+  /**
+   * Renders one full background scanline.
+   */
+  @Benchmark
+  public void renderScanline() {
+    gpu.renderScanline();
+  }
+}
@@ -0,0 +1,116 @@
+package com.emulator.gameboy.memory;
+
+import com.emulator.gameboy.SyntheticRoms;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the memory accessors over a fixed spread of ROM and RAM addresses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MemoryBenchmark {
+  private static final int ACCESSES = 1024;
+
+  private Memory memory;
+  private int[] readAddresses = new int[ACCESSES];
+  private int[] writeAddresses = new int[ACCESSES];
+
+  /**
+   * Loads a synthetic ROM and picks the addresses: reads cover ROM, work RAM and high RAM, and
+   * writes cover work RAM.
+   *
+   * @throws IOException if the ROM cannot be written
+   */
+  @Setup
+  public void setUp() throws IOException {
+    memory = new Memory();
+    memory.loadRom(SyntheticRoms.write(SyntheticRoms.instructionMix()));
+    Random random = new Random(0x4742);
+    for (int i = 0; i < ACCESSES; i++) {
+      switch (i % 4) {
+        case 0:
+        case 1:
+          readAddresses[i] = random.nextInt(0x7FFF);
+          break;
+        case 2:
+          readAddresses[i] = 0xC000 + random.nextInt(0x1FFF);
+          break;
+        default:
+          readAddresses[i] = 0xFF80 + random.nextInt(0x7E);
+          break;
+      }
+      writeAddresses[i] = 0xC000 + random.nextInt(0x1FFF);
+    }
+  }
+
+  /**
+   * Reads bytes.
+   *
+   * @return the sum of the bytes read
+   */
+  @Benchmark
+  @OperationsPerInvocation(ACCESSES)
+  public int getByteAt() {
+    int sum = 0;
+    for (int address : readAddresses) {
+      sum += memory.getByteAt(address);
+    }
+    return sum;
+  }
+
+  /**
+   * Reads words.
+   *
+   * @return the sum of the words read
+   */
+  @Benchmark
+  @OperationsPerInvocation(ACCESSES)
+  public int getWordAt() {
+    int sum = 0;
+    for (int address : readAddresses) {
+      sum += memory.getWordAt(address);
+    }
+    return sum;
+  }
+
+  /**
+   * Writes bytes.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ACCESSES)
+  public void setByte() {
+    for (int i = 0; i < ACCESSES; i++) {
+      memory.setByte(writeAddresses[i], (byte) i);
+    }
+  }
+
+  /**
+   * Writes words.
+   */
+  @Benchmark
+  @OperationsPerInvocation(ACCESSES)
+  public void setWord() {
+    for (int i = 0; i < ACCESSES; i++) {
+      memory.setWord(writeAddresses[i], (short) i);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.RomImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs many independent headless machines in one JVM, spread over a work-stealing pool.
+ *
+ * <p>Each submitted ROM gets its own machine, and the machines share nothing mutable, so they run
+ * in parallel without locks and throughput grows with the number of cores. {@link #step(int)}
+ * advances every machine by a number of frames as one task per machine; idle workers steal the
+ * remaining machines, so a batch stays balanced even when some ROMs are slower than others.
+ *
+ * <p>A machine is stepped one frame at a time: its input is applied before the frame and, if
+ * requested, a hash of the finished frame is recorded after it.
+ */
+public final class BatchRunner implements AutoCloseable {
+  private final ForkJoinPool pool;
+  private final List<Instance> instances = new ArrayList<>();
+
+  /**
+   * Supplies a machine's input for each frame, for example by setting joypad state or memory.
+   */
+  @FunctionalInterface
+  public interface Input {
+    /**
+     * No input.
+     */
+    Input NONE = (gameBoy, frame) -> { };
+
+    /**
+     * Called on the machine's worker thread before each frame runs.
+     *
+     * @param gameBoy the machine
+     * @param frame the number of frames the machine has completed
+     */
+    void apply(GameBoy gameBoy, long frame);
+  }
+
+  /**
+   * A machine in the batch.
+   */
+  public static final class Instance {
+    private final GameBoy gameBoy;
+    private final Input input;
+    private final boolean hashFrames;
+    private long[] hashes = new long[0];
+    private int hashCount;
+
+    Instance(GameBoy gameBoy, Input input, boolean hashFrames) {
+      this.gameBoy = gameBoy;
+      this.input = input;
+      this.hashFrames = hashFrames;
+    }
+
+    /**
+     * Runs frames on the calling thread.
+     *
+     * @param frames the number of frames to run
+     */
+    public void step(int frames) {
+      for (int i = 0; i < frames; i++) {
+        input.apply(gameBoy, gameBoy.getGpu().getFrameCount());
+        gameBoy.runFrame();
+        if (hashFrames) {
+          if (hashCount == hashes.length) {
+            hashes = Arrays.copyOf(hashes, Math.max(64, hashCount * 2));
+          }
+          hashes[hashCount++] = hash(gameBoy.getGpu().getPixels());
+        }
+      }
+    }
+
+    /**
+     * The hashes of the frames run so far, oldest first, if hashing was requested.
+     *
+     * @return the frame hashes
+     */
+    public long[] getFrameHashes() {
+      return Arrays.copyOf(hashes, hashCount);
+    }
+
+    /**
+     * A copy of work RAM, $C000-$DFFF.
+     *
+     * @return the RAM contents
+     */
+    public byte[] getWorkRam() {
+      byte[] ram = new byte[0x2000];
+      for (int i = 0; i < ram.length; i++) {
+        ram[i] = gameBoy.getMemory().getByteAt(0xC000 + i);
+      }
+      return ram;
+    }
+
+    /**
+     * The machine, for anything else; it must not be used while the batch is stepping.
+     *
+     * @return the machine
+     */
+    public GameBoy getGameBoy() {
+      return gameBoy;
+    }
+  }
+
+  /**
+   * Creates a runner with one worker per available processor.
+   */
+  public BatchRunner() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a runner with a given number of workers.
+   *
+   * @param parallelism the number of worker threads
+   */
+  public BatchRunner(int parallelism) {
+    pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Adds a machine running a ROM. The image is shared, not copied, so many machines can run one
+   * game for the cost of a single ROM.
+   *
+   * @param rom the ROM image
+   * @param input the input for each frame
+   * @param hashFrames whether to record a hash of every frame
+   * @param recompile whether to run the CPU on the recompiling core
+   * @return the instance
+   */
+  public Instance submit(RomImage rom, Input input, boolean hashFrames, boolean recompile) {
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    Instance instance = new Instance(new GameBoy(memory, null, recompile), input, hashFrames);
+    instances.add(instance);
+    return instance;
+  }
+
+  /**
+   * Advances every machine by a number of frames, in parallel, and waits for them all.
+   *
+   * @param frames the number of frames to run
+   */
+  public void step(int frames) {
+    List<RecursiveAction> tasks = new ArrayList<>(instances.size());
+    for (Instance instance : instances) {
+      tasks.add(new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+          instance.step(frames);
+        }
+      });
+    }
+    pool.invoke(new RecursiveAction() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected void compute() {
+        ForkJoinTask.invokeAll(tasks);
+      }
+    });
+  }
+
+  /**
+   * The machines, in the order they were submitted.
+   *
+   * @return the instances
+   */
+  public List<Instance> getInstances() {
+    return List.copyOf(instances);
+  }
+
+  /**
+   * Stops the worker threads.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * A 64-bit FNV-1a hash of a frame, taken a whole pixel at a time.
+   *
+   * @param pixels the pixels
+   * @return the hash
+   */
+  public static long hash(int[] pixels) {
+    long hash = 0xCBF29CE484222325L;
+    for (int pixel : pixels) {
+      hash = (hash ^ pixel) * 0x100000001B3L;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,388 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.cpu.AbstractCpu;
+import com.emulator.gameboy.cpu.Cpu;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.ReadListener;
+import com.emulator.gameboy.memory.WriteListener;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+/**
+ * Breakpoints on the program counter, and read and write watchpoints on memory addresses.
+ *
+ * <p>Armed addresses are bits in a 64k-bit map per kind, and each page keeps a count of the
+ * addresses armed in it. Only pages with a watchpoint get a memory listener, which takes just those
+ * pages off memory's fast path. While anything is armed the machine runs on an interpreting core
+ * which checks the breakpoint map before each instruction, so hits are exact even where the
+ * recompiler would run a block. With nothing armed the machine's usual core runs and the debugger
+ * costs nothing.
+ *
+ * <p>A hit pauses the machine at the end of the instruction and calls the {@link HitListener} with
+ * the machine's state as it stands. The listener, or anything else on the emulation thread, can
+ * inspect the machine and call {@link #resume()}. Only accesses made by CPU instructions count, not
+ * those devices make.
+ *
+ * <p>Work RAM and echo RAM are one store, so a watchpoint on either address hits on accesses
+ * through both.
+ *
+ * <p>The debugger and the {@link Profiler} cannot instrument the machine at once, so arming a
+ * breakpoint or watchpoint while a profiler is started throws.
+ */
+public final class Debugger {
+  private static final int PAGES = 256;
+
+  private final GameBoy gameBoy;
+  private final Cpu cpu;
+  private final Memory memory;
+  private final ReadListener readListener = this::readFrom;
+  private final WriteListener writeListener = this::writtenTo;
+  private final AbstractCpu debugCore = new DebugCore();
+  private HitListener listener = hit -> { };
+
+  // one bit per address, and the number of armed addresses in each page
+  private final long[] breakpoints = new long[0x10000 / 64];
+  private final long[] readWatches = new long[0x10000 / 64];
+  private final long[] writeWatches = new long[0x10000 / 64];
+  private final int[] readPages = new int[PAGES];
+  private final int[] writePages = new int[PAGES];
+
+  private boolean executing; // whether the CPU is running an instruction
+  private int instructionStart;
+  private Hit pending; // a watchpoint hit, reported once its instruction ends
+  private Hit lastHit; // the hit the machine was last paused at
+  private int resumeAddress = -1; // a breakpoint to step over after resuming
+
+  /**
+   * What was hit.
+   */
+  public enum Kind {
+    BREAKPOINT, READ, WRITE
+  }
+
+  /**
+   * Is told about breakpoint and watchpoint hits, on the emulation thread, while the machine is
+   * paused.
+   */
+  @FunctionalInterface
+  public interface HitListener {
+    /**
+     * Called when a breakpoint or watchpoint is hit.
+     *
+     * @param hit the hit
+     */
+    void hit(Hit hit);
+  }
+
+  /**
+   * A breakpoint or watchpoint hit.
+   */
+  public static final class Hit {
+    private final Kind kind;
+    private final int address;
+    private final int value;
+    private final int programCounter;
+    private final GameBoy gameBoy;
+
+    Hit(Kind kind, int address, int value, int programCounter, GameBoy gameBoy) {
+      this.kind = kind;
+      this.address = address;
+      this.value = value;
+      this.programCounter = programCounter;
+      this.gameBoy = gameBoy;
+    }
+
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * The breakpoint's address, or the memory address accessed.
+     *
+     * @return the address
+     */
+    public int getAddress() {
+      return address;
+    }
+
+    /**
+     * The byte read or written, or the opcode at a breakpoint.
+     *
+     * @return the value
+     */
+    public int getValue() {
+      return value;
+    }
+
+    /**
+     * The address of the instruction which hit.
+     *
+     * @return the instruction's address
+     */
+    public int getProgramCounter() {
+      return programCounter;
+    }
+
+    /**
+     * The paused machine, for its registers and memory.
+     *
+     * @return the machine
+     */
+    public GameBoy getGameBoy() {
+      return gameBoy;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s at %04X value %02X pc %04X", kind, address, value, programCounter);
+    }
+  }
+
+  /**
+   * Creates a debugger with nothing armed.
+   *
+   * @param gameBoy the machine to debug
+   */
+  public Debugger(GameBoy gameBoy) {
+    this.gameBoy = gameBoy;
+    cpu = gameBoy.getCpu();
+    memory = gameBoy.getMemory();
+  }
+
+  public void setHitListener(HitListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Breaks before the instruction at an address runs.
+   *
+   * @param address the instruction address
+   * @throws IllegalStateException if a profiler is started
+   */
+  public void addBreakpoint(int address) {
+    gameBoy.installCore(debugCore);
+    set(breakpoints, address, true);
+    selectCore();
+  }
+
+  /**
+   * Removes a breakpoint.
+   *
+   * @param address the instruction address
+   */
+  public void removeBreakpoint(int address) {
+    set(breakpoints, address, false);
+    selectCore();
+  }
+
+  /**
+   * Breaks after an instruction reads any address in a range.
+   *
+   * @param address the first address
+   * @param length the number of addresses
+   * @throws IllegalStateException if a profiler is started
+   */
+  public void watchReads(int address, int length) {
+    gameBoy.installCore(debugCore);
+    for (int i = address; i < address + length; i++) {
+      int page = canonical(i) >> 8;
+      if (set(readWatches, canonical(i), true) && readPages[page]++ == 0) {
+        memory.addReadListener(page, readListener);
+        if (echoPage(page) >= 0) {
+          memory.addReadListener(echoPage(page), readListener);
+        }
+      }
+    }
+    selectCore();
+  }
+
+  /**
+   * Stops watching reads of a range.
+   *
+   * @param address the first address
+   * @param length the number of addresses
+   */
+  public void unwatchReads(int address, int length) {
+    for (int i = address; i < address + length; i++) {
+      int page = canonical(i) >> 8;
+      if (set(readWatches, canonical(i), false) && --readPages[page] == 0) {
+        memory.removeReadListener(page, readListener);
+        if (echoPage(page) >= 0) {
+          memory.removeReadListener(echoPage(page), readListener);
+        }
+      }
+    }
+    selectCore();
+  }
+
+  /**
+   * Breaks after an instruction writes any address in a range.
+   *
+   * @param address the first address
+   * @param length the number of addresses
+   * @throws IllegalStateException if a profiler is started
+   */
+  public void watchWrites(int address, int length) {
+    gameBoy.installCore(debugCore);
+    for (int i = address; i < address + length; i++) {
+      int page = canonical(i) >> 8;
+      if (set(writeWatches, canonical(i), true) && writePages[page]++ == 0) {
+        memory.addWriteListener(page, writeListener);
+        if (echoPage(page) >= 0) {
+          memory.addWriteListener(echoPage(page), writeListener);
+        }
+      }
+    }
+    selectCore();
+  }
+
+  /**
+   * Stops watching writes to a range.
+   *
+   * @param address the first address
+   * @param length the number of addresses
+   */
+  public void unwatchWrites(int address, int length) {
+    for (int i = address; i < address + length; i++) {
+      int page = canonical(i) >> 8;
+      if (set(writeWatches, canonical(i), false) && --writePages[page] == 0) {
+        memory.removeWriteListener(page, writeListener);
+        if (echoPage(page) >= 0) {
+          memory.removeWriteListener(echoPage(page), writeListener);
+        }
+      }
+    }
+    selectCore();
+  }
+
+  /**
+   * Lets the machine run on after a hit. If the machine paused at a breakpoint, that breakpoint is
+   * stepped over; a breakpoint on the instruction after a watchpoint hit still breaks.
+   */
+  public void resume() {
+    int address = cpu.getProgramCounter();
+    boolean atBreakpoint = lastHit != null && lastHit.getKind() == Kind.BREAKPOINT
+        && lastHit.getAddress() == address;
+    resumeAddress = atBreakpoint ? address : -1;
+    lastHit = null;
+    gameBoy.resume();
+  }
+
+  // set or clear an address's bit, returning whether it changed
+  private static boolean set(long[] bits, int address, boolean value) {
+    long mask = 1L << address;
+    boolean wasSet = (bits[address >> 6] & mask) != 0;
+    if (value) {
+      bits[address >> 6] |= mask;
+    } else {
+      bits[address >> 6] &= ~mask;
+    }
+    return wasSet != value;
+  }
+
+  private static boolean isSet(long[] bits, int address) {
+    return (bits[address >> 6] & (1L << address)) != 0;
+  }
+
+  // watches are kept on work RAM addresses, so echo RAM accesses hit them too
+  private static int canonical(int address) {
+    return address >= 0xE000 && address < 0xFE00 ? address - 0x2000 : address;
+  }
+
+  // the echo RAM page mirroring a work RAM page, or -1
+  private static int echoPage(int page) {
+    return page >= 0xC0 && page < 0xDE ? page + 0x20 : -1;
+  }
+
+  // run on the debug core only while something is armed
+  private void selectCore() {
+    boolean armed = false;
+    for (int page = 0; page < PAGES; page++) {
+      armed |= readPages[page] + writePages[page] > 0;
+    }
+    for (long bits : breakpoints) {
+      armed |= bits != 0;
+    }
+    if (armed) {
+      gameBoy.installCore(debugCore);
+    } else {
+      gameBoy.removeCore(debugCore);
+    }
+  }
+
+  private void readFrom(int address, byte value) {
+    if (executing && pending == null && isSet(readWatches, canonical(address))) {
+      pending = new Hit(Kind.READ, address, value & 0xFF, instructionStart, gameBoy);
+    }
+  }
+
+  private void writtenTo(int address, byte value) {
+    if (executing && pending == null && isSet(writeWatches, canonical(address))) {
+      pending = new Hit(Kind.WRITE, address, value & 0xFF, instructionStart, gameBoy);
+    }
+  }
+
+  private void report(Hit hit) {
+    lastHit = hit;
+    gameBoy.pause();
+    listener.hit(hit);
+  }
+
+  /**
+   * Interprets one instruction at a time, checking for a breakpoint before each and reporting
+   * watchpoint hits after each.
+   */
+  private final class DebugCore implements AbstractCpu {
+    private final Scheduler noEvents = new Scheduler();
+
+    /**
+     * Runs until a breakpoint or watchpoint is hit.
+     */
+    @Override
+    public void run() {
+      runUntil(noEvents);
+    }
+
+    @Override
+    public void step() {
+      execute();
+    }
+
+    @Override
+    public void runUntil(Scheduler scheduler) {
+      while (cpu.getCycleCount() < scheduler.getNextEventTime()) {
+        // while halted the program counter already points at the next instruction, which does not
+        // run until an interrupt wakes the CPU
+        int address = cpu.getProgramCounter();
+        if (isSet(breakpoints, address) && address != resumeAddress && !cpu.isHalted()) {
+          report(new Hit(Kind.BREAKPOINT, address, memory.getByteAt(address) & 0xFF, address,
+              gameBoy));
+          return;
+        }
+        resumeAddress = -1;
+        if (execute()) {
+          return;
+        }
+      }
+    }
+
+    // run one instruction, returning whether it hit a watchpoint
+    private boolean execute() {
+      instructionStart = cpu.getProgramCounter();
+      executing = true;
+      cpu.step();
+      executing = false;
+      if (pending == null) {
+        return false;
+      }
+      Hit hit = pending;
+      pending = null;
+      report(hit);
+      return true;
+    }
+
+    @Override
+    public long getCycleCount() {
+      return cpu.getCycleCount();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.emulator.gameboy;
+
+/**
+ * The fast-forward switch and its frame skip. The GUI flips it on the event thread and the
+ * emulation loop reads it before every frame, so a change applies from the next frame.
+ *
+ * <p>While fast-forwarding the loop runs unthrottled and only every nth frame is drawn. n is
+ * either fixed or {@link #ADAPTIVE}, in which case it is picked from the measured time per frame
+ * so that about {@link #DISPLAY_RATE} frames per second still reach the screen, however fast the
+ * host is.
+ */
+public final class FastForward {
+  /**
+   * A frame skip chosen from the host's speed.
+   */
+  public static final int ADAPTIVE = 0;
+
+  /**
+   * Frames per second shown while fast-forwarding with an adaptive skip.
+   */
+  public static final int DISPLAY_RATE = 60;
+
+  private static final int MAX_FRAME_SKIP = 60;
+  private static final double SMOOTHING = 0.05;
+
+  private volatile boolean enabled;
+  private volatile int frameSkip;
+  private double frameNanos; // moving average, on the emulation thread
+
+  /**
+   * Creates a switch which is off, with an adaptive frame skip.
+   */
+  public FastForward() {
+    this(ADAPTIVE);
+  }
+
+  /**
+   * Creates a switch which is off.
+   *
+   * @param frameSkip draw every nth frame while fast-forwarding, or {@link #ADAPTIVE}
+   */
+  public FastForward(int frameSkip) {
+    this.frameSkip = frameSkip;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * Sets the frame skip used while fast-forwarding.
+   *
+   * @param frameSkip draw every nth frame, or {@link #ADAPTIVE}
+   */
+  public void setFrameSkip(int frameSkip) {
+    this.frameSkip = frameSkip;
+  }
+
+  /**
+   * Records how long the last frame took to emulate. Called by the emulation loop after each
+   * frame.
+   *
+   * @param nanos the wall time of the frame
+   */
+  public void frameDone(long nanos) {
+    frameNanos = frameNanos == 0 ? nanos : frameNanos + (nanos - frameNanos) * SMOOTHING;
+  }
+
+  /**
+   * The frame skip for the next frame: 1 when not fast-forwarding, otherwise the fixed skip or
+   * one matched to the host's speed.
+   *
+   * @return draw every nth frame
+   */
+  public int getFrameSkip() {
+    if (!enabled) {
+      return 1;
+    }
+    int skip = frameSkip;
+    if (skip != ADAPTIVE) {
+      return skip;
+    }
+    if (frameNanos == 0) {
+      return 1;
+    }
+    double framesPerSecond = 1e9 / frameNanos;
+    return (int) Math.max(1, Math.min(MAX_FRAME_SKIP, Math.ceil(framesPerSecond / DISPLAY_RATE)));
+  }
+}
@@ -0,0 +1,142 @@
+package com.emulator.gameboy;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds the emulation loop to the DMG's frame rate, 4194304 / 70224 = 59.73 Hz.
+ *
+ * <p>Deadlines are measured from a fixed start, not from the previous frame, so sleep overshoot
+ * never accumulates into drift. The pacer parks until {@link #SPIN_NANOS} before a deadline, which
+ * leaves the core idle for most of the frame, and then spins the rest of the way, because a park
+ * can wake late by tens of microseconds. If the loop falls more than {@link #MAX_LAG_FRAMES}
+ * frames behind, as after a pause or fast-forward, the schedule restarts from now rather than
+ * racing to catch up.
+ *
+ * <p>Jitter is the difference between each frame's interval and the ideal period.
+ */
+public final class FramePacer {
+  /**
+   * The ideal frame period: 70224 clock cycles of 4194304 Hz.
+   */
+  public static final double FRAME_NANOS = 70224 * 1e9 / 4194304;
+
+  /**
+   * The ideal frame rate, about 59.73 frames per second.
+   */
+  public static final double FRAMES_PER_SECOND = 4194304 / 70224.0;
+
+  // how early to stop parking and start spinning
+  static final long SPIN_NANOS = 200_000;
+  static final int MAX_LAG_FRAMES = 4;
+
+  private long start;
+  private long frames;
+  private long lastFrameTime;
+
+  // jitter statistics
+  private long count;
+  private double meanJitter;
+  private double jitterSquares; // sum of squared differences from the mean
+  private long maxJitter;
+
+  /**
+   * Creates a pacer whose first frame is due one period from now.
+   */
+  public FramePacer() {
+    reset();
+  }
+
+  /**
+   * Restarts the schedule from now, keeping the jitter statistics.
+   */
+  public void reset() {
+    start = System.nanoTime();
+    lastFrameTime = start;
+    frames = 0;
+  }
+
+  /**
+   * Waits until the next frame is due. Called by the emulation loop once per frame.
+   */
+  public void awaitNextFrame() {
+    frames++;
+    long deadline = start + (long) (frames * FRAME_NANOS);
+    long remaining = deadline - System.nanoTime();
+    if (remaining < -MAX_LAG_FRAMES * FRAME_NANOS) {
+      reset();
+      return;
+    }
+    while (remaining > SPIN_NANOS) {
+      LockSupport.parkNanos(remaining - SPIN_NANOS);
+      remaining = deadline - System.nanoTime();
+    }
+    long now = System.nanoTime();
+    while (now < deadline) {
+      Thread.onSpinWait();
+      now = System.nanoTime();
+    }
+    record(Math.abs(now - lastFrameTime - (long) FRAME_NANOS));
+    lastFrameTime = now;
+  }
+
+  // Welford's running mean and variance
+  private void record(long jitter) {
+    count++;
+    double delta = jitter - meanJitter;
+    meanJitter += delta / count;
+    jitterSquares += delta * (jitter - meanJitter);
+    maxJitter = Math.max(maxJitter, jitter);
+  }
+
+  /**
+   * The number of frames paced since the statistics were last cleared.
+   *
+   * @return the frame count
+   */
+  public long getFrameCount() {
+    return count;
+  }
+
+  /**
+   * The mean absolute difference between a frame interval and the ideal period.
+   *
+   * @return the mean jitter in nanoseconds
+   */
+  public double getMeanJitterNanos() {
+    return meanJitter;
+  }
+
+  /**
+   * The standard deviation of the jitter.
+   *
+   * @return the deviation in nanoseconds
+   */
+  public double getJitterDeviationNanos() {
+    return count > 1 ? Math.sqrt(jitterSquares / (count - 1)) : 0;
+  }
+
+  /**
+   * The largest jitter seen.
+   *
+   * @return the jitter in nanoseconds
+   */
+  public long getMaxJitterNanos() {
+    return maxJitter;
+  }
+
+  /**
+   * Clears the jitter statistics.
+   */
+  public void clearStatistics() {
+    count = 0;
+    meanJitter = 0;
+    jitterSquares = 0;
+    maxJitter = 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("frames=%d jitter mean=%.1fus sd=%.1fus max=%.1fus", count,
+        meanJitter / 1e3, getJitterDeviationNanos() / 1e3, maxJitter / 1e3);
+  }
+}
@@ -0,0 +1,317 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.apu.Apu;
+import com.emulator.gameboy.cpu.AbstractCpu;
+import com.emulator.gameboy.cpu.Cpu;
+import com.emulator.gameboy.cpu.RecompilingCpu;
+import com.emulator.gameboy.gpu.Gpu;
+import com.emulator.gameboy.gpu.Screen;
+import com.emulator.gameboy.joypad.Joypad;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.OamDma;
+import com.emulator.gameboy.metrics.EmulatorMetrics;
+import com.emulator.gameboy.scheduler.Scheduler;
+import com.emulator.gameboy.timer.Timer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The whole machine: memory, CPU, GPU, APU, timer, OAM DMA and joypad, with the CPU and the
+ * devices sharing one event scheduler.
+ *
+ * <p>The CPU runs uninterrupted until the next device event is due, then the scheduler hands the
+ * due events to their devices. Nothing else runs between events.
+ *
+ * <p>A save state is the {@link #STATE_MAGIC} number and {@link #STATE_VERSION}, followed by the
+ * CPU, memory, GPU, timer and OAM DMA states in that order. Memory's arrays are written with bulk
+ * copies, so a state is a few tens of kilobytes and takes microseconds to save or load. The ROM is
+ * not part of the state; it must be loaded first.
+ */
+public final class GameBoy {
+  public static final int STATE_MAGIC = 0x47425353; // "GBSS"
+  public static final short STATE_VERSION = 3;
+
+  // time the CPU and devices separately on one frame in 16, as a clock read per slice is not free
+  private static final int SPLIT_SAMPLE_MASK = 15;
+
+  private final Memory memory;
+  private final Scheduler scheduler;
+  private final Cpu cpu;
+  private final AbstractCpu core;
+  private final Gpu gpu;
+  private final Joypad joypad;
+  private final Apu apu;
+  private final Timer timer;
+  private final OamDma oamDma;
+  private final int stopEvent;
+  private boolean stopped;
+  private final int pauseEvent;
+  private boolean paused;
+  private AbstractCpu instrumentedCore; // replaces the core while debugging or profiling
+  private EmulatorMetrics metrics;
+  private long measuredFrames;
+
+  /**
+   * Creates a machine around an existing memory, so that a GUI built on the memory first can be
+   * given to the GPU. The CPU is interpreted.
+   *
+   * @param memory the instance of memory
+   * @param screen the screen to draw on, or null when running headless
+   */
+  public GameBoy(Memory memory, Screen screen) {
+    this(memory, screen, false);
+  }
+
+  /**
+   * Creates a machine around an existing memory.
+   *
+   * @param memory the instance of memory
+   * @param screen the screen to draw on, or null when running headless
+   * @param recompile whether to run the CPU on the recompiling core rather than the interpreter
+   */
+  public GameBoy(Memory memory, Screen screen, boolean recompile) {
+    this.memory = memory;
+    scheduler = new Scheduler();
+    cpu = new Cpu(memory);
+    core = recompile ? new RecompilingCpu(cpu, memory) : cpu;
+    gpu = new Gpu(memory, scheduler, cpu.getInterrupts(), screen);
+    joypad = new Joypad(memory, cpu.getInterrupts());
+    apu = new Apu(memory, scheduler, cpu::getCycleCount);
+    timer = new Timer(memory, scheduler, cpu.getInterrupts(), cpu::getCycleCount);
+    oamDma = new OamDma(memory, scheduler, cpu::getCycleCount);
+    stopEvent = scheduler.register(time -> stopped = true);
+    pauseEvent = scheduler.register(time -> { });
+  }
+
+  /**
+   * Runs until the GPU enters the next vblank, until a stop requested with
+   * {@link #stopAfter(long)} is reached, or until the machine is paused. A paused machine does not
+   * run.
+   */
+  public void runFrame() {
+    if (metrics != null) {
+      runMeasuredFrame();
+      return;
+    }
+    long frame = gpu.getFrameCount();
+    while (gpu.getFrameCount() == frame && !stopped && !paused) {
+      (instrumentedCore != null ? instrumentedCore : core).runUntil(scheduler);
+      scheduler.dispatch(cpu.getCycleCount());
+    }
+  }
+
+  // runFrame, timing it, and on a sample of frames timing the CPU and the devices separately
+  private void runMeasuredFrame() {
+    long frame = gpu.getFrameCount();
+    long startCycles = cpu.getCycleCount();
+    long startInstructions = cpu.getInstructionCount();
+    long startPresent = gpu.getPresentNanos();
+    boolean split = (measuredFrames++ & SPLIT_SAMPLE_MASK) == 0;
+    long cpuNanos = 0;
+    long deviceNanos = 0;
+    long start = System.nanoTime();
+    while (gpu.getFrameCount() == frame && !stopped && !paused) {
+      if (split) {
+        long sliceStart = System.nanoTime();
+        (instrumentedCore != null ? instrumentedCore : core).runUntil(scheduler);
+        long ran = System.nanoTime();
+        scheduler.dispatch(cpu.getCycleCount());
+        cpuNanos += ran - sliceStart;
+        deviceNanos += System.nanoTime() - ran;
+      } else {
+        (instrumentedCore != null ? instrumentedCore : core).runUntil(scheduler);
+        scheduler.dispatch(cpu.getCycleCount());
+      }
+    }
+    metrics.recordFrame(cpu.getCycleCount() - startCycles,
+        cpu.getInstructionCount() - startInstructions, System.nanoTime() - start,
+        gpu.getFrameCount() != frame);
+    if (split) {
+      long presentNanos = gpu.getPresentNanos() - startPresent;
+      metrics.recordSplit(cpuNanos, deviceNanos - presentNanos, presentNanos);
+    }
+  }
+
+  /**
+   * Records what every frame run from now on does into metrics, or stops recording when null.
+   * Every frame is counted and timed as a whole; the split between CPU, rendering and presenting
+   * is measured on a sample of frames. Without metrics nothing is timed or counted beyond the
+   * CPU's own instruction count.
+   *
+   * @param metrics the metrics, which may be shared with other machines
+   */
+  public void setMetrics(EmulatorMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Requests that running stops once a number of machine cycles have passed, rounded up to the
+   * end of an instruction.
+   *
+   * @param cycles the number of machine cycles from now
+   */
+  public void stopAfter(long cycles) {
+    stopped = false;
+    scheduler.schedule(stopEvent, cpu.getCycleCount() + cycles);
+  }
+
+  /**
+   * Whether a stop requested with {@link #stopAfter(long)} has been reached.
+   *
+   * @return true if stopped
+   */
+  public boolean isStopped() {
+    return stopped;
+  }
+
+  /**
+   * The number of bytes a save state of this machine takes, which depends on the cartridge RAM.
+   *
+   * @return the state size
+   */
+  public int getStateSize() {
+    return 6 + Cpu.STATE_SIZE + memory.getStateSize() + Gpu.STATE_SIZE + Timer.STATE_SIZE
+        + OamDma.STATE_SIZE;
+  }
+
+  /**
+   * Writes a save state into a buffer, which can be reused between states to avoid allocation.
+   *
+   * @param buffer the buffer to write to, with at least {@link #getStateSize()} bytes remaining
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.putInt(STATE_MAGIC);
+    buffer.putShort(STATE_VERSION);
+    cpu.saveState(buffer);
+    memory.saveState(buffer);
+    gpu.saveState(buffer);
+    timer.saveState(buffer);
+    oamDma.saveState(buffer);
+  }
+
+  /**
+   * Saves the machine's state.
+   *
+   * @return the state
+   */
+  public byte[] saveState() {
+    byte[] state = new byte[getStateSize()];
+    saveState(ByteBuffer.wrap(state));
+    return state;
+  }
+
+  /**
+   * Restores a save state from a buffer. A stop requested with {@link #stopAfter(long)} stays at
+   * the same machine cycle.
+   *
+   * @param buffer the buffer to read from
+   * @throws IllegalArgumentException if the buffer does not hold a state of this version, or the
+   *     state is for a cartridge with different RAM
+   */
+  public void loadState(ByteBuffer buffer) {
+    if (buffer.getInt() != STATE_MAGIC) {
+      throw new IllegalArgumentException("Not a save state");
+    }
+    short version = buffer.getShort();
+    if (version != STATE_VERSION) {
+      throw new IllegalArgumentException("Unsupported save state version: " + version);
+    }
+    cpu.loadState(buffer);
+    memory.loadState(buffer);
+    gpu.loadState(buffer);
+    timer.loadState(buffer);
+    oamDma.loadState(buffer);
+    cpu.getInterrupts().resynchronize();
+    apu.resynchronize();
+  }
+
+  /**
+   * Restores a state returned by {@link #saveState()}.
+   *
+   * @param state the state
+   * @throws IllegalArgumentException if the state is not valid for this machine
+   */
+  public void loadState(byte[] state) {
+    loadState(ByteBuffer.wrap(state));
+  }
+
+  /**
+   * Pauses the machine at the end of the current instruction. Called while running, for example
+   * by a debugger, it makes {@link #runFrame()} return early.
+   */
+  public void pause() {
+    paused = true;
+    scheduler.schedule(pauseEvent, cpu.getCycleCount());
+  }
+
+  /**
+   * Lets a paused machine run again.
+   */
+  public void resume() {
+    paused = false;
+    scheduler.cancel(pauseEvent);
+  }
+
+  public boolean isPaused() {
+    return paused;
+  }
+
+  // run the CPU on an instrumented core; only one debugger or profiler can instrument the machine
+  // at a time, so installing a second one throws IllegalStateException
+  void installCore(AbstractCpu core) {
+    if (instrumentedCore != null && instrumentedCore != core) {
+      throw new IllegalStateException("The machine is already being debugged or profiled");
+    }
+    instrumentedCore = core;
+  }
+
+  // run the CPU on the usual core again, if the given core is the one installed
+  void removeCore(AbstractCpu core) {
+    if (instrumentedCore == core) {
+      instrumentedCore = null;
+    }
+  }
+
+  AbstractCpu getInstrumentedCore() {
+    return instrumentedCore;
+  }
+
+  public Memory getMemory() {
+    return memory;
+  }
+
+  public Scheduler getScheduler() {
+    return scheduler;
+  }
+
+  /**
+   * The CPU's state, whichever core runs it.
+   *
+   * @return the CPU
+   */
+  public Cpu getCpu() {
+    return cpu;
+  }
+
+  public Gpu getGpu() {
+    return gpu;
+  }
+
+  /**
+   * The joypad, whose buttons the emulation loop sets between frames.
+   *
+   * @return the joypad
+   */
+  public Joypad getJoypad() {
+    return joypad;
+  }
+
+  /**
+   * The APU, which renders nothing until it is given a sink.
+   *
+   * @return the APU
+   */
+  public Apu getApu() {
+    return apu;
+  }
+}
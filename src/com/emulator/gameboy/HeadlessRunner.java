@@ -0,0 +1,121 @@
+package com.emulator.gameboy;
+
+/**
+ * Runs the emulator without a display for a fixed number of frames or machine cycles and measures
+ * its throughput. Nothing here touches AWT, so it works on headless build machines.
+ */
+public final class HeadlessRunner {
+  // the DMG clock is 4194304 Hz, which is 1048576 machine cycles per second
+  public static final double MACHINE_CYCLES_PER_SECOND = 1048576.0;
+
+  private final GameBoy gameBoy;
+  private BatchRunner.Input input = BatchRunner.Input.NONE;
+
+  /**
+   * This is the headless runner constructor.
+   *
+   * @param gameBoy the machine to run, created without a screen
+   */
+  public HeadlessRunner(GameBoy gameBoy) {
+    this.gameBoy = gameBoy;
+  }
+
+  /**
+   * Sets the input applied before each frame, such as a {@link
+   * com.emulator.gameboy.joypad.Movie#player()} replaying recorded play.
+   *
+   * @param input the input
+   */
+  public void setInput(BatchRunner.Input input) {
+    this.input = input;
+  }
+
+  /**
+   * Runs until either limit is reached.
+   *
+   * @param frameLimit the number of frames to run, or 0 for no limit
+   * @param cycleLimit the number of machine cycles to run, or 0 for no limit
+   * @return the throughput report
+   */
+  public Report run(long frameLimit, long cycleLimit) {
+    long frames = frameLimit > 0 ? frameLimit : Long.MAX_VALUE;
+    long startFrame = gameBoy.getGpu().getFrameCount();
+    long startCycle = gameBoy.getCpu().getCycleCount();
+    long startTime = System.nanoTime();
+    if (cycleLimit > 0) {
+      gameBoy.stopAfter(cycleLimit);
+    }
+
+    for (long frame = 0; frame < frames && !gameBoy.isStopped(); frame++) {
+      input.apply(gameBoy, gameBoy.getGpu().getFrameCount());
+      gameBoy.runFrame();
+    }
+
+    return new Report(gameBoy.getGpu().getFrameCount() - startFrame,
+        gameBoy.getCpu().getCycleCount() - startCycle, System.nanoTime() - startTime);
+  }
+
+  /**
+   * The result of a headless run.
+   */
+  public static final class Report {
+    private final long frames;
+    private final long cycles;
+    private final long wallNanos;
+
+    Report(long frames, long cycles, long wallNanos) {
+      this.frames = frames;
+      this.cycles = cycles;
+      this.wallNanos = wallNanos;
+    }
+
+    public long getFrames() {
+      return frames;
+    }
+
+    public long getCycles() {
+      return cycles;
+    }
+
+    public long getWallNanos() {
+      return wallNanos;
+    }
+
+    /**
+     * Emulated machine cycles per second of wall time.
+     *
+     * @return the cycle rate
+     */
+    public double getCyclesPerSecond() {
+      return cycles / seconds();
+    }
+
+    /**
+     * Emulated frames per second of wall time.
+     *
+     * @return the frame rate
+     */
+    public double getFramesPerSecond() {
+      return frames / seconds();
+    }
+
+    /**
+     * Emulation speed relative to the real hardware, where 1.0 is real time.
+     *
+     * @return the speed multiple
+     */
+    public double getSpeed() {
+      return getCyclesPerSecond() / MACHINE_CYCLES_PER_SECOND;
+    }
+
+    private double seconds() {
+      return Math.max(wallNanos, 1) / 1e9;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("frames=%d cycles=%d wall=%.3fs cycles/s=%.0f fps=%.2f speed=%.2fx",
+          frames, cycles, seconds(), getCyclesPerSecond(), getFramesPerSecond(), getSpeed());
+    }
+  }
+}
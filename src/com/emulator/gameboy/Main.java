@@ -1,49 +1,331 @@
 package com.emulator.gameboy;
 
-import com.emulator.gameboy.cpu.Cpu;
-import com.emulator.gameboy.cpu.CpuTests;
-import com.emulator.gameboy.gpu.Gpu;
+import com.emulator.gameboy.apu.Apu;
+import com.emulator.gameboy.apu.AudioOutput;
+import com.emulator.gameboy.apu.AudioSync;
+import com.emulator.gameboy.apu.SampleRing;
+import com.emulator.gameboy.joypad.Movie;
+import com.emulator.gameboy.joypad.MovieRecorder;
 import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.metrics.EmulatorMetrics;
+import com.emulator.gameboy.metrics.MetricsPublisher;
+import com.emulator.gameboy.rewind.RewindBuffer;
+import com.emulator.gameboy.trace.TraceLog;
 import com.emulator.gui.Gui;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
 
-import org.junit.runner.JUnitCore;
-import org.junit.runner.Result;
-import org.junit.runner.notification.Failure;
+import javax.management.JMException;
+import javax.sound.sampled.LineUnavailableException;
 
 public final class Main {
   /**
    * The main method.
    * 
+   * <p>Options:
+   * <ul>
+   * <li>{@code --headless} runs without a window and reports throughput when done
+   * <li>{@code --frames=<n>} stops a headless run after n frames (600 by default)
+   * <li>{@code --cycles=<n>} stops a headless run after n machine cycles
+   * <li>{@code --recompile} runs the CPU on the recompiling core instead of the interpreter
+   * <li>{@code --frame-skip=<n>} draws every nth frame while fast-forwarding, or 0 to pick n from
+   * the host's speed (the default); a headless run always draws every nth frame
+   * <li>{@code --mute} runs a window without sound
+   * <li>{@code --audio-sync} paces a windowed run by the sound card instead of the frame rate,
+   * which never drops or repeats sound but lets the display drift
+   * <li>{@code --report-pacing} prints the window's frame-time jitter on exit
+   * <li>{@code --trace=<file>} records every executed instruction into a binary trace, which can
+   * be read back with {@link com.emulator.gameboy.trace.TraceDecoder}
+   * <li>{@code --metrics} publishes clock rate, frame rate and frame-time metrics every second,
+   * as the JMX MBean {@code com.emulator.gameboy:type=Metrics,name="main"} and on standard error
+   * <li>{@code --record=<file>} records the joypad input of a windowed run into a movie
+   * <li>{@code --replay=<file>} plays a recorded movie instead of taking input from the keyboard,
+   * which repeats the recorded run exactly, with or without a window
+   * <li>{@code --profile=<file>} profiles the CPU, printing the hottest opcodes and addresses on
+   * exit and writing the call stacks to the file in the collapsed format flame graphs are drawn
+   * from
+   * <li>{@code --rewind=<s>} keeps s seconds of history in a window, 10 by default, which holding
+   * R plays back; 0 turns rewinding off. Rewinding is off while a movie is recorded or replayed,
+   * since the movie would no longer match the run
+   * </ul>
+   * Any other argument is taken as the path of the ROM to run.
+   * 
    * @param args command-line arguments
    */
   public static void main(String[] args) {
-    // Instantiate objects
-    Memory memory = new Memory();
-    Cpu cpu = new Cpu(memory);
-    Gui gui = new Gui(memory);
-    Gpu gpu = new Gpu(memory, cpu, gui.getScreen());
+    Options options = new Options();
+    for (String arg : args) {
+      if (arg.equals("--headless")) {
+        options.headless = true;
+      } else if (arg.equals("--recompile")) {
+        options.recompile = true;
+      } else if (arg.equals("--report-pacing")) {
+        options.reportPacing = true;
+      } else if (arg.equals("--mute")) {
+        options.mute = true;
+      } else if (arg.equals("--audio-sync")) {
+        options.audioSync = true;
+      } else if (arg.equals("--metrics")) {
+        options.publishMetrics = true;
+      } else if (arg.startsWith("--frames=")) {
+        options.frames = Long.parseLong(arg.substring("--frames=".length()));
+      } else if (arg.startsWith("--cycles=")) {
+        options.cycles = Long.parseLong(arg.substring("--cycles=".length()));
+      } else if (arg.startsWith("--frame-skip=")) {
+        options.frameSkip = Integer.parseInt(arg.substring("--frame-skip=".length()));
+      } else if (arg.startsWith("--trace=")) {
+        options.trace = arg.substring("--trace=".length());
+      } else if (arg.startsWith("--profile=")) {
+        options.profile = arg.substring("--profile=".length());
+      } else if (arg.startsWith("--record=")) {
+        options.record = arg.substring("--record=".length());
+      } else if (arg.startsWith("--replay=")) {
+        options.replay = arg.substring("--replay=".length());
+      } else if (arg.startsWith("--rewind=")) {
+        options.rewindSeconds = Integer.parseInt(arg.substring("--rewind=".length()));
+      } else if (arg.startsWith("--")) {
+        System.err.println("Unknown option: " + arg);
+        System.exit(1);
+      } else {
+        options.rom = arg;
+      }
+    }
 
     // Load resources
-    ResourceBundle bundle = ResourceBundle.getBundle("resources");
-    String tetris = bundle.getString("Tetris");     
-    memory.loadRom(tetris);
-
-    // Run tests
-    Result result = JUnitCore.runClasses(CpuTests.class);
-    if (result.wasSuccessful()) {
-      System.out.println("All tests passed.");
-    } else {
-      for (Failure failure : result.getFailures()) {
-        System.out.println(failure.toString());
+    if (options.rom == null) {
+      ResourceBundle bundle = ResourceBundle.getBundle("resources");
+      options.rom = bundle.getString("Tetris");
+    }
+
+    if (options.headless) {
+      if (options.frames == 0 && options.cycles == 0) {
+        options.frames = 600;
       }
+      runHeadless(options);
+    } else {
+      runWindowed(options);
     }
-    
-    // Run CPU and GPU
+  }
+
+  /**
+   * The parsed command line.
+   */
+  private static final class Options {
+    boolean headless;
+    boolean recompile;
+    boolean reportPacing;
+    boolean publishMetrics;
+    boolean mute;
+    boolean audioSync;
+    long frames;
+    long cycles;
+    int frameSkip = FastForward.ADAPTIVE;
+    int rewindSeconds = 10;
+    String trace;
+    String profile;
+    String record;
+    String replay;
+    String rom;
+  }
+
+  private static void runHeadless(Options options) {
+    GameBoy gameBoy = new GameBoy(new Memory(), null, options.recompile);
+    gameBoy.getMemory().loadRom(options.rom);
+    gameBoy.getGpu().setFrameSkip(options.frameSkip);
+    attachTools(gameBoy, options);
+
+    HeadlessRunner runner = new HeadlessRunner(gameBoy);
+    if (options.replay != null) {
+      runner.setInput(openMovie(options.replay, gameBoy).player());
+    }
+    HeadlessRunner.Report report = runner.run(options.frames, options.cycles);
+    System.out.println(report);
+  }
+
+  private static void runWindowed(Options options) {
+    // Instantiate objects
+    Memory memory = new Memory();
+    FastForward fastForward = new FastForward(options.frameSkip);
+    Gui gui = new Gui(fastForward);
+    GameBoy gameBoy = new GameBoy(memory, gui.getScreen(), options.recompile);
+    memory.loadRom(options.rom);
+    attachTools(gameBoy, options);
+
+    AudioSync audio = options.mute ? null : openAudio(gameBoy.getApu());
+    boolean audioPaced = audio != null && options.audioSync;
+    FramePacer pacer = new FramePacer();
+    if (options.reportPacing) {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(pacer)));
+    }
+
+    // Take input from a movie or the keyboard, recording it if asked
+    Movie movie = options.replay != null ? openMovie(options.replay, gameBoy) : null;
+    MovieRecorder recorder = null;
+    if (options.record != null) {
+      recorder = new MovieRecorder(Movie.romChecksum(memory));
+      saveMovieOnExit(recorder, options.record);
+    }
+
+    // Keep a history to rewind through
+    RewindBuffer rewind = null;
+    if (options.rewindSeconds > 0 && movie == null && recorder == null) {
+      rewind = new RewindBuffer(gameBoy,
+          (int) Math.round(options.rewindSeconds * FramePacer.FRAMES_PER_SECOND));
+    }
+
+    // Run the machine at the hardware's frame rate, or flat out while fast-forwarding
+    boolean wasFastForward = false;
     while (true) {
-      cpu.decodeAndExecute(cpu.fetch());
-      gpu.step();
+      // a ROM chosen from the menu is loaded here, between frames, and ends the old history
+      String rom = gui.takeRomToLoad();
+      if (rom != null) {
+        memory.loadRom(rom);
+        if (rewind != null) {
+          rewind.clear();
+        }
+      }
+      if (rewind != null && gui.isRewinding()) {
+        // step back two kept frames and run one to draw it, one frame back each time round
+        if (rewind.rewind(2)) {
+          gameBoy.runFrame();
+        }
+        pacer.awaitNextFrame();
+        continue;
+      }
+
+      long frame = gameBoy.getGpu().getFrameCount();
+      int buttons = movie != null ? movie.getButtons(frame) : gui.getButtons();
+      gameBoy.getJoypad().setButtons(buttons);
+      if (recorder != null) {
+        synchronized (recorder) {
+          recorder.record(frame, buttons);
+        }
+      }
+
+      boolean isFastForward = fastForward.isEnabled();
+      if (wasFastForward && !isFastForward) {
+        pacer.reset();
+      }
+      wasFastForward = isFastForward;
+      gameBoy.getGpu().setFrameSkip(fastForward.getFrameSkip());
+      long start = System.nanoTime();
+      gameBoy.runFrame();
+      fastForward.frameDone(System.nanoTime() - start);
+      if (rewind != null) {
+        rewind.capture();
+      }
+      if (isFastForward) {
+        continue;
+      }
+      if (audioPaced) {
+        audio.awaitSpace();
+      } else {
+        pacer.awaitNextFrame();
+        if (audio != null) {
+          audio.adjustRate();
+        }
+      }
+    }
+  }
+
+  // play sound through a ring of a tenth of a second, or carry on silently without a device
+  private static AudioSync openAudio(Apu apu) {
+    SampleRing ring = new SampleRing(Apu.SAMPLE_RATE / 10 * 2);
+    try {
+      new AudioOutput(ring, Apu.SAMPLE_RATE, 1024);
+    } catch (LineUnavailableException | IllegalArgumentException ex) {
+      System.err.println("No sound: " + ex.getMessage());
+      return null;
+    }
+    apu.setSink(ring);
+    return new AudioSync(apu, ring);
+  }
+
+  // the trace, profiler and metrics asked for on the command line
+  private static void attachTools(GameBoy gameBoy, Options options) {
+    if (options.trace != null) {
+      gameBoy.getCpu().setTraceLog(openTraceLog(options.trace));
+    }
+    if (options.profile != null) {
+      startProfiler(gameBoy, options.profile);
+    }
+    if (options.publishMetrics) {
+      publishMetrics(gameBoy);
+    }
+  }
+
+  private static Movie openMovie(String path, GameBoy gameBoy) {
+    try {
+      Movie movie = Movie.read(Paths.get(path));
+      if (movie.getRomChecksum() != Movie.romChecksum(gameBoy.getMemory())) {
+        System.err.println("The movie was recorded on a different ROM and may not replay");
+      }
+      return movie;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static void saveMovieOnExit(MovieRecorder recorder, String path) {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        Movie movie;
+        synchronized (recorder) {
+          movie = recorder.toMovie();
+        }
+        movie.write(Paths.get(path));
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }));
+  }
+
+  private static void publishMetrics(GameBoy gameBoy) {
+    EmulatorMetrics metrics = new EmulatorMetrics();
+    gameBoy.setMetrics(metrics);
+    MetricsPublisher publisher = new MetricsPublisher(metrics);
+    publisher.addSink(System.err::println);
+    try {
+      publisher.register("main");
+    } catch (JMException ex) {
+      ex.printStackTrace();
+    }
+    publisher.start(1, TimeUnit.SECONDS);
+  }
+
+  private static void startProfiler(GameBoy gameBoy, String path) {
+    Profiler profiler = new Profiler(gameBoy);
+    profiler.start();
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try (Writer stacks = Files.newBufferedWriter(Paths.get(path))) {
+        profiler.writeReport(new PrintWriter(System.out), 20);
+        profiler.writeCollapsedStacks(stacks);
+      } catch (IOException ex) {
+        ex.printStackTrace();
+      }
+    }));
+  }
+
+  private static TraceLog openTraceLog(String path) {
+    try {
+      TraceLog traceLog = new TraceLog(Paths.get(path));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          traceLog.close();
+        } catch (IOException ex) {
+          ex.printStackTrace();
+        }
+      }));
+      return traceLog;
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
     }
   }
 }
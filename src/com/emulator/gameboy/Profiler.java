@@ -0,0 +1,424 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.cpu.AbstractCpu;
+import com.emulator.gameboy.cpu.Cpu;
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Cartridge;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Counts where the CPU spends its time: executions and cycles per opcode, per CB opcode and per
+ * instruction address, dispatches and cycles per interrupt, and cycles per call stack.
+ *
+ * <p>Addresses in ROM are told apart by bank, so $4000 in bank 2 and $4000 in bank 3 are counted
+ * separately. Every counter is a slot in a fixed {@code long[]}, and call stacks are nodes of a
+ * tree held in primitive arrays, so profiling allocates nothing while the machine runs.
+ *
+ * <p>Calls are followed by watching the stack pointer: a CALL, RST or interrupt which pushes a
+ * return address enters a function, and a RET or RETI which pops it leaves every function entered
+ * below that stack pointer, so code which drops or rewrites return addresses does not unbalance the
+ * tree. An interrupt dispatch runs no instruction, so it is counted under its interrupt rather
+ * than under the opcode it came before.
+ *
+ * <p>While started the machine runs on an interpreting core, as it does under the
+ * {@link Debugger}; only one of them can be active at a time, and starting the profiler while the
+ * debugger has anything armed throws.
+ */
+public final class Profiler {
+  // the most call stacks and the deepest nesting followed; deeper calls count towards their caller
+  static final int MAX_NODES = 1 << 16;
+  static final int MAX_DEPTH = 256;
+
+  private static final int ROOT = 0;
+  private static final String[] INTERRUPT_NAMES = {"VBlank", "LCD STAT", "Timer", "Serial",
+      "Joypad"};
+
+  private final GameBoy gameBoy;
+  private final Cpu cpu;
+  private final Memory memory;
+  private final AbstractCpu profilingCore = new ProfilingCore();
+
+  private final long[] opcodeCounts = new long[256];
+  private final long[] opcodeCycles = new long[256];
+  private final long[] cbOpcodeCounts = new long[256];
+  private final long[] cbOpcodeCycles = new long[256];
+  private final long[] interruptCounts = new long[INTERRUPT_NAMES.length];
+  private final long[] interruptCycles = new long[INTERRUPT_NAMES.length];
+  private Cartridge cartridge;
+  private int romSpan; // the bank-aware addresses of ROM, after which come $8000-$FFFF
+  private long[] addressCounts;
+  private long[] addressCycles;
+
+  // the call tree: each node is a function entered from its parent node
+  private final int[] nodeParents = new int[MAX_NODES];
+  private final int[] nodeFunctions = new int[MAX_NODES];
+  private final long[] nodeCycles = new long[MAX_NODES];
+  private final int[] nodeIndex = new int[MAX_NODES * 2]; // open addressing, node + 1 or 0
+  private int nodeCount;
+
+  // the calls in progress, and the stack pointer just after each pushed its return address
+  private final int[] callNodes = new int[MAX_DEPTH];
+  private final int[] callStackPointers = new int[MAX_DEPTH];
+  private int depth;
+  private int node;
+
+  /**
+   * Creates a stopped profiler with empty counters.
+   *
+   * @param gameBoy the machine to profile
+   */
+  public Profiler(GameBoy gameBoy) {
+    this.gameBoy = gameBoy;
+    cpu = gameBoy.getCpu();
+    memory = gameBoy.getMemory();
+    reset();
+  }
+
+  /**
+   * Starts counting, from the next slice the machine runs.
+   *
+   * @throws IllegalStateException if a debugger has breakpoints or watchpoints armed
+   */
+  public void start() {
+    gameBoy.installCore(profilingCore);
+  }
+
+  /**
+   * Stops counting and lets the machine run on its usual core. The counters are kept.
+   */
+  public void stop() {
+    gameBoy.removeCore(profilingCore);
+  }
+
+  /**
+   * Clears every counter and the call tree.
+   */
+  public void reset() {
+    cartridge = memory.getCartridge();
+    romSpan = (cartridge != null ? cartridge.getRomBankCount() : 2) * 0x4000;
+    addressCounts = new long[romSpan + 0x8000];
+    addressCycles = new long[romSpan + 0x8000];
+    Arrays.fill(opcodeCounts, 0);
+    Arrays.fill(opcodeCycles, 0);
+    Arrays.fill(cbOpcodeCounts, 0);
+    Arrays.fill(cbOpcodeCycles, 0);
+    Arrays.fill(interruptCounts, 0);
+    Arrays.fill(interruptCycles, 0);
+    Arrays.fill(nodeCycles, 0);
+    Arrays.fill(nodeIndex, 0);
+    nodeParents[ROOT] = -1;
+    nodeFunctions[ROOT] = -1;
+    nodeCount = 1;
+    depth = 0;
+    node = ROOT;
+  }
+
+  /**
+   * The number of times an opcode ran. CB-prefixed instructions count under 0xCB too.
+   *
+   * @param opcode the opcode
+   * @return the execution count
+   */
+  public long getOpcodeCount(int opcode) {
+    return opcodeCounts[opcode];
+  }
+
+  /**
+   * The machine cycles spent in an opcode, including branches taken.
+   *
+   * @param opcode the opcode
+   * @return the cycle count
+   */
+  public long getOpcodeCycles(int opcode) {
+    return opcodeCycles[opcode];
+  }
+
+  /**
+   * The number of times a CB-prefixed opcode ran.
+   *
+   * @param opcode the opcode after the prefix
+   * @return the execution count
+   */
+  public long getCbOpcodeCount(int opcode) {
+    return cbOpcodeCounts[opcode];
+  }
+
+  /**
+   * The machine cycles spent in a CB-prefixed opcode.
+   *
+   * @param opcode the opcode after the prefix
+   * @return the cycle count
+   */
+  public long getCbOpcodeCycles(int opcode) {
+    return cbOpcodeCycles[opcode];
+  }
+
+  /**
+   * The number of times an interrupt was dispatched.
+   *
+   * @param interrupt one of the {@link InterruptController} interrupt constants
+   * @return the dispatch count
+   */
+  public long getInterruptCount(int interrupt) {
+    return interruptCounts[Integer.numberOfTrailingZeros(interrupt)];
+  }
+
+  /**
+   * The machine cycles spent dispatching an interrupt, not counting its handler.
+   *
+   * @param interrupt one of the {@link InterruptController} interrupt constants
+   * @return the cycle count
+   */
+  public long getInterruptCycles(int interrupt) {
+    return interruptCycles[Integer.numberOfTrailingZeros(interrupt)];
+  }
+
+  /**
+   * The number of times the instruction at an address ran.
+   *
+   * @param bank the ROM bank, ignored for addresses from $8000
+   * @param address the address as the CPU sees it
+   * @return the execution count
+   */
+  public long getAddressCount(int bank, int address) {
+    return addressCounts[index(bank, address)];
+  }
+
+  /**
+   * The machine cycles spent in the instruction at an address.
+   *
+   * @param bank the ROM bank, ignored for addresses from $8000
+   * @param address the address as the CPU sees it
+   * @return the cycle count
+   */
+  public long getAddressCycles(int bank, int address) {
+    return addressCycles[index(bank, address)];
+  }
+
+  /**
+   * Writes the opcodes, CB opcodes and addresses which took the most cycles, most first, and the
+   * cycles spent dispatching each interrupt.
+   *
+   * @param out where to write the report
+   * @param limit the most rows in each table
+   * @throws IOException if writing fails
+   */
+  public void writeReport(Writer out, int limit) throws IOException {
+    long total = 0;
+    for (long cycles : opcodeCycles) {
+      total += cycles;
+    }
+    for (long cycles : interruptCycles) {
+      total += cycles;
+    }
+    out.write(String.format("%d cycles profiled%n", total));
+    out.write(String.format("%nOpcode        count        cycles      %%%n"));
+    for (int opcode : top(opcodeCounts, opcodeCycles, limit)) {
+      out.write(String.format("    %02X %12d %13d %6.2f%n", opcode, opcodeCounts[opcode],
+          opcodeCycles[opcode], percent(opcodeCycles[opcode], total)));
+    }
+    out.write(String.format("%nCB opcode     count        cycles      %%%n"));
+    for (int opcode : top(cbOpcodeCounts, cbOpcodeCycles, limit)) {
+      out.write(String.format("    %02X %12d %13d %6.2f%n", opcode, cbOpcodeCounts[opcode],
+          cbOpcodeCycles[opcode], percent(cbOpcodeCycles[opcode], total)));
+    }
+    out.write(String.format("%nInterrupt     count        cycles      %%%n"));
+    for (int i = 0; i < INTERRUPT_NAMES.length; i++) {
+      if (interruptCounts[i] > 0) {
+        out.write(String.format("%-9s %9d %13d %6.2f%n", INTERRUPT_NAMES[i], interruptCounts[i],
+            interruptCycles[i], percent(interruptCycles[i], total)));
+      }
+    }
+    out.write(String.format("%nAddress       count        cycles      %%%n"));
+    for (int index : top(addressCounts, addressCycles, limit)) {
+      out.write(String.format("%7s %11d %13d %6.2f%n", name(index), addressCounts[index],
+          addressCycles[index], percent(addressCycles[index], total)));
+    }
+    out.flush();
+  }
+
+  /**
+   * Writes the cycles spent in each call stack in the collapsed format flame graph tools read:
+   * one line per stack, the functions from the outermost separated by semicolons, then a space and
+   * the cycles spent in the innermost function itself. Functions are named by their bank-aware
+   * entry address, and the outermost frame is whatever ran before the first call seen.
+   *
+   * @param out where to write the stacks
+   * @throws IOException if writing fails
+   */
+  public void writeCollapsedStacks(Writer out) throws IOException {
+    StringBuilder line = new StringBuilder();
+    List<String> frames = new ArrayList<>();
+    for (int i = 0; i < nodeCount; i++) {
+      if (nodeCycles[i] == 0) {
+        continue;
+      }
+      frames.clear();
+      for (int n = i; n != ROOT; n = nodeParents[n]) {
+        frames.add(name(nodeFunctions[n]));
+      }
+      line.setLength(0);
+      line.append("top");
+      for (int f = frames.size() - 1; f >= 0; f--) {
+        line.append(';').append(frames.get(f));
+      }
+      line.append(' ').append(nodeCycles[i]).append('\n');
+      out.write(line.toString());
+    }
+    out.flush();
+  }
+
+  // the slot of a bank-aware address: ROM banks one after another, then $8000-$FFFF
+  private int index(int bank, int address) {
+    if (address >= 0x8000) {
+      return romSpan + address - 0x8000;
+    }
+    return bank * 0x4000 + (address & 0x3FFF);
+  }
+
+  // the slot of an address in the banks mapped now
+  private int currentIndex(int address) {
+    if (address >= 0x8000 || cartridge == null) {
+      return index(address >> 14, address);
+    }
+    return index(address < 0x4000 ? cartridge.getLowRomBank() : cartridge.getRomBank(), address);
+  }
+
+  private String name(int index) {
+    if (index >= romSpan) {
+      return String.format("%04X", index - romSpan + 0x8000);
+    }
+    int bank = index / 0x4000;
+    return String.format("%02X:%04X", bank, (bank == 0 ? 0 : 0x4000) + index % 0x4000);
+  }
+
+  private static double percent(long part, long total) {
+    return total == 0 ? 0 : 100.0 * part / total;
+  }
+
+  // the slots with any executions, by cycles, most first
+  private static int[] top(long[] counts, long[] cycles, int limit) {
+    return IntStream.range(0, counts.length).filter(i -> counts[i] > 0).boxed()
+        .sorted((a, b) -> Long.compare(cycles[b], cycles[a])).limit(limit)
+        .mapToInt(Integer::intValue).toArray();
+  }
+
+  // the node for a function called from the current one, added if it is new
+  private int child(int function) {
+    int mask = nodeIndex.length - 1;
+    int slot = (node * 31 + function) * 0x9E3779B9 >>> 15 & mask;
+    while (nodeIndex[slot] != 0) {
+      int candidate = nodeIndex[slot] - 1;
+      if (nodeParents[candidate] == node && nodeFunctions[candidate] == function) {
+        return candidate;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (nodeCount == MAX_NODES) {
+      return node;
+    }
+    nodeParents[nodeCount] = node;
+    nodeFunctions[nodeCount] = function;
+    nodeIndex[slot] = nodeCount + 1;
+    return nodeCount++;
+  }
+
+  private static boolean isReturn(int opcode) {
+    return opcode == 0xC9 || opcode == 0xD9 || (opcode & 0xE7) == 0xC0; // RET, RETI, RET cc
+  }
+
+  // PUSH, LD SP,nn, LD SP,HL and ADD SP,e can move the stack pointer as a call does
+  private static boolean setsStackPointer(int opcode) {
+    return (opcode & 0xCF) == 0xC5 || opcode == 0x31 || opcode == 0xF9 || opcode == 0xE8;
+  }
+
+  /**
+   * Interprets one instruction at a time, counting each.
+   */
+  private final class ProfilingCore implements AbstractCpu {
+    private final Scheduler noEvents = new Scheduler();
+
+    /**
+     * Runs the CPU indefinitely, counting every instruction.
+     */
+    @Override
+    public void run() {
+      runUntil(noEvents);
+    }
+
+    @Override
+    public void step() {
+      int address = cpu.getProgramCounter();
+      int stackPointer = cpu.getStackPointer();
+      int index = currentIndex(address);
+      // peeked, so the profiler adds no bus accesses of its own
+      int opcode = memory.peekByte(address) & 0xFF;
+      int cbOpcode = opcode == 0xCB ? memory.peekByte((address + 1) & 0xFFFF) & 0xFF : 0;
+      long instructions = cpu.getInstructionCount();
+      long start = cpu.getCycleCount();
+      cpu.step();
+      long cycles = cpu.getCycleCount() - start;
+      nodeCycles[node] += cycles;
+
+      if (cpu.getInstructionCount() == instructions) {
+        // no instruction ran: the CPU idled while halted, or dispatched an interrupt
+        if (cpu.getStackPointer() != stackPointer) {
+          int interrupt = (cpu.getProgramCounter() - 0x40) >> 3;
+          interruptCounts[interrupt]++;
+          interruptCycles[interrupt] += cycles;
+          enter();
+        }
+        return;
+      }
+      opcodeCounts[opcode]++;
+      opcodeCycles[opcode] += cycles;
+      if (opcode == 0xCB) {
+        cbOpcodeCounts[cbOpcode]++;
+        cbOpcodeCycles[cbOpcode] += cycles;
+      }
+      addressCounts[index]++;
+      addressCycles[index] += cycles;
+
+      int newStackPointer = cpu.getStackPointer();
+      if (newStackPointer == (stackPointer - 2 & 0xFFFF) && !setsStackPointer(opcode)) {
+        enter();
+      } else if (newStackPointer == (stackPointer + 2 & 0xFFFF) && isReturn(opcode)) {
+        while (depth > 0 && callStackPointers[depth - 1] < newStackPointer) {
+          node = callNodes[--depth];
+        }
+      }
+    }
+
+    // enter the function the CPU has just called, its return address on top of the stack
+    private void enter() {
+      if (depth < MAX_DEPTH) {
+        callNodes[depth] = node;
+        callStackPointers[depth++] = cpu.getStackPointer();
+        node = child(currentIndex(cpu.getProgramCounter()));
+      }
+    }
+
+    @Override
+    public void runUntil(Scheduler scheduler) {
+      if (memory.getCartridge() != cartridge) {
+        reset(); // the addresses no longer mean the same code
+      }
+      while (cpu.getCycleCount() < scheduler.getNextEventTime()) {
+        step();
+      }
+    }
+
+    @Override
+    public long getCycleCount() {
+      return cpu.getCycleCount();
+    }
+  }
+}
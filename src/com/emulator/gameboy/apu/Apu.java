@@ -0,0 +1,344 @@
+package com.emulator.gameboy.apu;
+
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.MemoryHandler;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.util.function.LongSupplier;
+
+/**
+ * The audio processing unit: two square channels, a wave channel and a noise channel, mixed into
+ * stereo by NR50 and NR51.
+ *
+ * <p>The APU does no work per instruction. It renders lazily from the CPU's cycle count, catching
+ * up whenever a sound register is read or written and at every step of its 512 Hz frame sequencer,
+ * which is a scheduled event like the GPU's mode changes. Each catch-up renders into a batch which
+ * goes to the {@link SampleSink} in one call, so a sink such as a {@link SampleRing} sees a few
+ * hundred calls a second rather than one per sample. With the {@link SampleSink#NULL} sink nothing
+ * is rendered at all; only the frame sequencer runs, so the channel status in NR52 stays right.
+ *
+ * <p>The register values live in the I/O page, so they are part of a save state, but the
+ * channels' timers and counters are not; after a state is loaded the APU carries on from it with
+ * whatever sound was playing.
+ */
+public final class Apu {
+  /**
+   * The nominal output rate in stereo samples per second.
+   */
+  public static final int SAMPLE_RATE = 48000;
+
+  // clock cycles per second, and machine cycles per frame sequencer step
+  static final int CLOCK = 4194304;
+  static final int SEQUENCER_CYCLES = 2048;
+
+  private static final int BATCH_SAMPLES = 512;
+  // the loudest mix is 4 * 15 * 8, which can swing twice that through the high-pass filter
+  private static final int VOLUME_SCALE = 32;
+
+  private static final int NR10 = 0xFF10;
+  private static final int NR50 = 0xFF24;
+  private static final int NR51 = 0xFF25;
+  private static final int NR52 = 0xFF26;
+  private static final int WAVE_RAM = 0xFF30;
+
+  // bits which always read back as 1, for $FF10-$FF2F
+  private static final int[] READ_MASKS = {
+      0x80, 0x3F, 0x00, 0xFF, 0xBF, 0xFF, 0x3F, 0x00,
+      0xFF, 0xBF, 0x7F, 0xFF, 0x9F, 0xFF, 0xBF, 0xFF,
+      0xFF, 0x00, 0x00, 0xBF, 0x00, 0x00, 0x70, 0xFF,
+      0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF, 0xFF
+  };
+
+  private final Memory memory;
+  private final Scheduler scheduler;
+  private final LongSupplier clock;
+  private final int sequencerEvent;
+  private final SquareChannel channel1 = new SquareChannel(true);
+  private final SquareChannel channel2 = new SquareChannel(false);
+  private final WaveChannel channel3;
+  private final NoiseChannel channel4 = new NoiseChannel();
+  private final Channel[] channels;
+  private SampleSink sink = SampleSink.NULL;
+  private boolean powered = true;
+  private long renderedTo; // the machine cycle sound has been rendered up to
+  private int sequencerStep;
+
+  // the time to the next sample and between samples, in clock cycles as 32.32 fixed point
+  private long untilSample;
+  private long sampleInterval;
+  private double charge; // the high-pass filter's capacitor charge factor per sample
+  private double capacitorLeft;
+  private double capacitorRight;
+  private final short[] batch = new short[BATCH_SAMPLES * 2];
+  private int batchLength;
+
+  /**
+   * Creates the APU, powered on with every channel silent, and maps its registers.
+   *
+   * @param memory the memory holding the registers and wave RAM
+   * @param scheduler the scheduler which runs the frame sequencer
+   * @param clock the CPU's machine cycle count
+   */
+  public Apu(Memory memory, Scheduler scheduler, LongSupplier clock) {
+    this.memory = memory;
+    this.scheduler = scheduler;
+    this.clock = clock;
+    channel3 = new WaveChannel(memory);
+    channels = new Channel[] {channel1, channel2, channel3, channel4};
+    setSampleRate(SAMPLE_RATE);
+    untilSample = sampleInterval;
+
+    MemoryHandler registers = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        catchUp(clock.getAsLong());
+        if (address >= WAVE_RAM) {
+          return memory.getIoRegister(address);
+        }
+        int value = memory.getIoRegister(address) | READ_MASKS[address - NR10];
+        if (address == NR52) {
+          value = (powered ? 0x80 : 0) | 0x70 | status();
+        }
+        return (byte) value;
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        catchUp(clock.getAsLong());
+        if (!powered && address < NR52) {
+          return;
+        }
+        memory.setIoRegister(address, value);
+        writeRegister(address, value & 0xFF);
+      }
+    };
+    for (int address = NR10; address < WAVE_RAM + 0x10; address++) {
+      memory.mapIo(address, registers);
+    }
+
+    memory.setIoRegister(NR50, (byte) 0x77);
+    memory.setIoRegister(NR51, (byte) 0xF3);
+    sequencerEvent = scheduler.register(this::stepSequencer);
+    renderedTo = clock.getAsLong();
+    scheduler.schedule(sequencerEvent, renderedTo + SEQUENCER_CYCLES);
+  }
+
+  /**
+   * Sets where samples go. The sink is given everything rendered from now on.
+   *
+   * @param sink the sink, or {@link SampleSink#NULL} to render nothing
+   */
+  public void setSink(SampleSink sink) {
+    flush();
+    this.sink = sink;
+  }
+
+  /**
+   * Sets the output rate. Dynamic rate control nudges it a fraction of a percent either side of
+   * {@link #SAMPLE_RATE} to keep an audio buffer from running dry or overflowing.
+   *
+   * @param samplesPerSecond stereo samples per second of emulated time
+   */
+  public void setSampleRate(double samplesPerSecond) {
+    double cyclesPerSample = CLOCK / samplesPerSecond;
+    sampleInterval = (long) (cyclesPerSample * (1L << 32));
+    charge = Math.pow(0.999958, cyclesPerSample);
+  }
+
+  /**
+   * Starts again from the current cycle, after the clock has jumped as when a state is loaded.
+   */
+  public void resynchronize() {
+    renderedTo = clock.getAsLong();
+    scheduler.schedule(sequencerEvent, renderedTo + SEQUENCER_CYCLES);
+  }
+
+  // the frame sequencer: lengths at 256 Hz, the sweep at 128 Hz and envelopes at 64 Hz
+  private void stepSequencer(long time) {
+    catchUp(time);
+    if ((sequencerStep & 1) == 0) {
+      for (Channel channel : channels) {
+        channel.clockLength();
+      }
+    }
+    if ((sequencerStep & 3) == 2 && channel1.clockSweep()) {
+      int frequency = channel1.getFrequency();
+      memory.setIoRegister(0xFF13, (byte) frequency);
+      memory.setIoRegister(0xFF14,
+          (byte) ((memory.getIoRegister(0xFF14) & 0xF8) | (frequency >> 8)));
+    }
+    if (sequencerStep == 7) {
+      channel1.envelope.clock();
+      channel2.envelope.clock();
+      channel4.envelope.clock();
+    }
+    sequencerStep = (sequencerStep + 1) & 7;
+    flush();
+    scheduler.schedule(sequencerEvent, time + SEQUENCER_CYCLES);
+  }
+
+  private void writeRegister(int address, int value) {
+    switch (address) {
+      case 0xFF10:
+        channel1.writeSweep(value);
+        break;
+      case 0xFF11:
+        channel1.writeDutyAndLength(value);
+        break;
+      case 0xFF12:
+        channel1.setDacEnabled(channel1.envelope.write(value));
+        break;
+      case 0xFF13:
+      case 0xFF14:
+        writeFrequency(channel1, 0xFF13, address);
+        break;
+      case 0xFF16:
+        channel2.writeDutyAndLength(value);
+        break;
+      case 0xFF17:
+        channel2.setDacEnabled(channel2.envelope.write(value));
+        break;
+      case 0xFF18:
+      case 0xFF19:
+        writeFrequency(channel2, 0xFF18, address);
+        break;
+      case 0xFF1A:
+        channel3.setDacEnabled((value & 0x80) != 0);
+        break;
+      case 0xFF1B:
+        channel3.writeLength(value);
+        break;
+      case 0xFF1C:
+        channel3.writeVolume(value);
+        break;
+      case 0xFF1D:
+      case 0xFF1E:
+        channel3.setFrequency(frequency(0xFF1D));
+        control(channel3, 0xFF1E, address);
+        break;
+      case 0xFF20:
+        channel4.writeLength(value & 0x3F);
+        break;
+      case 0xFF21:
+        channel4.setDacEnabled(channel4.envelope.write(value));
+        break;
+      case 0xFF22:
+        channel4.writePolynomial(value);
+        break;
+      case 0xFF23:
+        control(channel4, 0xFF23, address);
+        break;
+      case NR52:
+        setPowered((value & 0x80) != 0);
+        break;
+      default:
+        break; // NR50, NR51 and wave RAM are read from the I/O page as needed
+    }
+  }
+
+  private void writeFrequency(SquareChannel channel, int low, int written) {
+    channel.setFrequency(frequency(low));
+    control(channel, low + 1, written);
+  }
+
+  // the 11-bit frequency in NRx3 and the low bits of NRx4
+  private int frequency(int low) {
+    return (memory.getIoRegister(low) & 0xFF) | (memory.getIoRegister(low + 1) & 0x07) << 8;
+  }
+
+  // NRx4: the length enable, and the trigger if this write set it
+  private void control(Channel channel, int register, int written) {
+    if (written != register) {
+      return;
+    }
+    int value = memory.getIoRegister(register);
+    channel.setLengthEnabled((value & 0x40) != 0);
+    if ((value & 0x80) != 0) {
+      channel.trigger();
+    }
+  }
+
+  // powering off clears every register and silences every channel
+  private void setPowered(boolean on) {
+    if (powered && !on) {
+      for (int address = NR10; address < NR52; address++) {
+        memory.setIoRegister(address, (byte) 0);
+      }
+      for (Channel channel : channels) {
+        channel.reset();
+      }
+    } else if (!powered && on) {
+      sequencerStep = 0;
+    }
+    powered = on;
+  }
+
+  private int status() {
+    int status = 0;
+    for (int i = 0; i < channels.length; i++) {
+      status |= channels[i].enabled ? 1 << i : 0;
+    }
+    return status;
+  }
+
+  // render sound up to a machine cycle
+  private void catchUp(long time) {
+    if (time <= renderedTo) {
+      return;
+    }
+    if (sink != SampleSink.NULL) {
+      render((int) (time - renderedTo) * 4);
+    }
+    renderedTo = time;
+  }
+
+  private void render(int cycles) {
+    while (cycles > 0) {
+      int step = (int) Math.min(cycles, (untilSample + 0xFFFFFFFFL) >>> 32);
+      if (powered) {
+        for (Channel channel : channels) {
+          channel.advance(step);
+        }
+      }
+      cycles -= step;
+      untilSample -= (long) step << 32;
+      if (untilSample <= 0) {
+        untilSample += sampleInterval;
+        mix();
+      }
+    }
+  }
+
+  // one stereo sample through NR51's panning, NR50's volumes and the high-pass filter
+  private void mix() {
+    int left = 0;
+    int right = 0;
+    if (powered) {
+      int panning = memory.getIoRegister(NR51);
+      for (int i = 0; i < channels.length; i++) {
+        int output = channels[i].output();
+        left += (panning >> (4 + i) & 1) * output;
+        right += (panning >> i & 1) * output;
+      }
+      int volumes = memory.getIoRegister(NR50);
+      left *= ((volumes >> 4) & 0x07) + 1;
+      right *= (volumes & 0x07) + 1;
+    }
+    double filteredLeft = left - capacitorLeft;
+    capacitorLeft = left - filteredLeft * charge;
+    double filteredRight = right - capacitorRight;
+    capacitorRight = right - filteredRight * charge;
+    batch[batchLength++] = (short) (filteredLeft * VOLUME_SCALE);
+    batch[batchLength++] = (short) (filteredRight * VOLUME_SCALE);
+    if (batchLength == batch.length) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    if (batchLength > 0) {
+      sink.write(batch, 0, batchLength);
+      batchLength = 0;
+    }
+  }
+}
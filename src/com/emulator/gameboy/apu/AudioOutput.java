@@ -0,0 +1,80 @@
+package com.emulator.gameboy.apu;
+
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays what the APU renders: a thread drains a {@link SampleRing} into a {@link SourceDataLine}.
+ *
+ * <p>The line's own buffer is kept small for low latency, and the thread blocks in the line's
+ * write while it is full, so the ring drains at exactly the sound card's rate. The ring's fill
+ * level therefore measures how far emulation is ahead of the audio clock, which
+ * {@link AudioSync} uses to pace emulation or adjust the sample rate.
+ */
+public final class AudioOutput implements AutoCloseable {
+  private static final int CHUNK_SAMPLES = 512;
+  private static final long IDLE_NANOS = 1_000_000;
+
+  private final SampleRing ring;
+  private final SourceDataLine line;
+  private final Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * Opens the default audio device and starts playing from the ring.
+   *
+   * @param ring the ring the APU writes into
+   * @param sampleRate stereo samples per second
+   * @param latencySamples the size of the line's buffer in stereo samples
+   * @throws LineUnavailableException if there is no audio device to play on
+   */
+  public AudioOutput(SampleRing ring, int sampleRate, int latencySamples)
+      throws LineUnavailableException {
+    this.ring = ring;
+    AudioFormat format = new AudioFormat(sampleRate, 16, 2, true, false);
+    line = AudioSystem.getSourceDataLine(format);
+    line.open(format, latencySamples * 4);
+    line.start();
+    thread = new Thread(this::drain, "audio output");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private void drain() {
+    short[] samples = new short[CHUNK_SAMPLES * 2];
+    byte[] bytes = new byte[samples.length * 2];
+    while (!closed) {
+      int count = ring.read(samples, 0, samples.length);
+      if (count == 0) {
+        LockSupport.parkNanos(IDLE_NANOS);
+        continue;
+      }
+      for (int i = 0; i < count; i++) {
+        bytes[i * 2] = (byte) samples[i];
+        bytes[i * 2 + 1] = (byte) (samples[i] >> 8);
+      }
+      line.write(bytes, 0, count * 2);
+    }
+  }
+
+  /**
+   * Stops playing and closes the device. If the calling thread is interrupted while the output
+   * thread stops, the device is closed anyway and the interrupt flag is kept set.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    line.stop();
+    line.flush();
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    line.close();
+  }
+}
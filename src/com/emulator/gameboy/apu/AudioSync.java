@@ -0,0 +1,65 @@
+package com.emulator.gameboy.apu;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Keeps emulation and audio playback together through the fill level of the {@link SampleRing}
+ * between them, in either of two ways.
+ *
+ * <p>With the display as the clock, {@link #adjustRate()} is dynamic rate control: once a frame it
+ * nudges the APU's sample rate up when the ring is below half full and down when it is above, by
+ * at most {@link #MAX_RATE_DELTA}, so small differences between the frame pacer and the sound card
+ * are absorbed without the ring running dry, which crackles, or overflowing, which drops sound.
+ * The change is far too small to hear as pitch.
+ *
+ * <p>With the sound card as the clock, {@link #awaitSpace()} holds the emulation loop until the
+ * ring is down to half full before each frame, so emulation runs at exactly the audio rate.
+ */
+public final class AudioSync {
+  /**
+   * The largest change to the sample rate, as a fraction of it.
+   */
+  public static final double MAX_RATE_DELTA = 0.005;
+
+  private static final long POLL_NANOS = 250_000;
+
+  private final Apu apu;
+  private final SampleRing ring;
+
+  /**
+   * Creates the synchronization between an APU and the ring it writes into.
+   *
+   * @param apu the APU
+   * @param ring its sink
+   */
+  public AudioSync(Apu apu, SampleRing ring) {
+    this.apu = apu;
+    this.ring = ring;
+  }
+
+  /**
+   * The ring's fill level.
+   *
+   * @return the fraction of the ring in use, from 0 to 1
+   */
+  public double getFill() {
+    return (double) ring.size() / ring.capacity();
+  }
+
+  /**
+   * Sets the APU's sample rate from the ring's fill level. Called once per frame.
+   */
+  public void adjustRate() {
+    apu.setSampleRate(Apu.SAMPLE_RATE * (1 + MAX_RATE_DELTA * (1 - 2 * getFill())));
+  }
+
+  /**
+   * Waits until the ring is no more than half full. Called before each frame when the sound card
+   * paces emulation.
+   */
+  public void awaitSpace() {
+    while (ring.size() > ring.capacity() / 2) {
+      LockSupport.parkNanos(POLL_NANOS);
+    }
+  }
+}
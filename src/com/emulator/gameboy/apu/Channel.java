@@ -0,0 +1,81 @@
+package com.emulator.gameboy.apu;
+
+/**
+ * What the four sound channels share: the DAC, the length counter and the on/off state which NR52
+ * reports.
+ */
+abstract class Channel {
+  boolean enabled;
+  boolean dacEnabled;
+  private final int maxLength;
+  private int length;
+  private boolean lengthEnabled;
+
+  Channel(int maxLength) {
+    this.maxLength = maxLength;
+  }
+
+  // NRx1's length field: the counter counts up from it to the maximum
+  final void writeLength(int value) {
+    length = maxLength - value;
+  }
+
+  final void setLengthEnabled(boolean lengthEnabled) {
+    this.lengthEnabled = lengthEnabled;
+  }
+
+  // 256 Hz, from the frame sequencer
+  final void clockLength() {
+    if (lengthEnabled && length > 0 && --length == 0) {
+      enabled = false;
+    }
+  }
+
+  // NRx4 bit 7: restart the channel, if its DAC is on
+  void trigger() {
+    enabled = dacEnabled;
+    if (length == 0) {
+      length = maxLength;
+    }
+  }
+
+  final void setDacEnabled(boolean dacEnabled) {
+    this.dacEnabled = dacEnabled;
+    if (!dacEnabled) {
+      enabled = false;
+    }
+  }
+
+  void reset() {
+    enabled = false;
+    dacEnabled = false;
+    length = 0;
+    lengthEnabled = false;
+  }
+
+  /**
+   * Runs the channel's timer on.
+   *
+   * @param cycles the clock cycles (T-cycles) to advance
+   */
+  abstract void advance(int cycles);
+
+  /**
+   * The channel's digital output, 0-15, while it is on.
+   *
+   * @return the output level
+   */
+  abstract int level();
+
+  /**
+   * The DAC's output: -15 to 15 while the DAC is on, and 0 when it is off.
+   *
+   * @return the analog output
+   */
+  final int output() {
+    if (!dacEnabled) {
+      return 0;
+    }
+    return (enabled ? level() : 0) * 2 - 15;
+  }
+}
@@ -0,0 +1,45 @@
+package com.emulator.gameboy.apu;
+
+/**
+ * The volume envelope of the square and noise channels, set by NRx2: a starting volume which
+ * steps up or down every n/64 seconds.
+ */
+final class Envelope {
+  int volume;
+  private int initialVolume;
+  private boolean increasing;
+  private int period;
+  private int timer;
+
+  // NRx2; returns whether the DAC is on
+  boolean write(int value) {
+    initialVolume = value >> 4;
+    increasing = (value & 0x08) != 0;
+    period = value & 0x07;
+    return (value & 0xF8) != 0;
+  }
+
+  void trigger() {
+    volume = initialVolume;
+    timer = period;
+  }
+
+  // 64 Hz, from the frame sequencer
+  void clock() {
+    if (period == 0 || --timer > 0) {
+      return;
+    }
+    timer = period;
+    if (increasing && volume < 15) {
+      volume++;
+    } else if (!increasing && volume > 0) {
+      volume--;
+    }
+  }
+
+  void reset() {
+    write(0);
+    volume = 0;
+    timer = 0;
+  }
+}
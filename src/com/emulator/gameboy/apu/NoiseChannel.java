@@ -0,0 +1,70 @@
+package com.emulator.gameboy.apu;
+
+/**
+ * Channel 4: noise from a 15-bit, or optionally 7-bit, linear feedback shift register, with a
+ * volume envelope.
+ */
+final class NoiseChannel extends Channel {
+  final Envelope envelope = new Envelope();
+  private int shift;
+  private boolean narrow;
+  private int divisor = 8;
+  private int timer;
+  private int lfsr = 0x7FFF;
+
+  NoiseChannel() {
+    super(64);
+  }
+
+  // NR43
+  void writePolynomial(int value) {
+    shift = value >> 4;
+    narrow = (value & 0x08) != 0;
+    divisor = (value & 0x07) == 0 ? 8 : (value & 0x07) * 16;
+  }
+
+  @Override
+  void trigger() {
+    super.trigger();
+    envelope.trigger();
+    timer = period();
+    lfsr = 0x7FFF;
+  }
+
+  // clock cycles per shift; shifts 14 and 15 stop the register on hardware
+  private int period() {
+    return divisor << shift;
+  }
+
+  @Override
+  void advance(int cycles) {
+    timer -= cycles;
+    if (shift >= 14) {
+      timer = Math.max(timer, 1);
+      return;
+    }
+    int period = period();
+    while (timer <= 0) {
+      timer += period;
+      int feedback = (lfsr ^ (lfsr >> 1)) & 1;
+      lfsr = (lfsr >> 1) | (feedback << 14);
+      if (narrow) {
+        lfsr = (lfsr & ~0x40) | (feedback << 6);
+      }
+    }
+  }
+
+  @Override
+  int level() {
+    return (~lfsr & 1) * envelope.volume;
+  }
+
+  @Override
+  void reset() {
+    super.reset();
+    envelope.reset();
+    shift = 0;
+    narrow = false;
+    divisor = 8;
+  }
+}
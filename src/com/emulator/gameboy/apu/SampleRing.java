@@ -0,0 +1,96 @@
+package com.emulator.gameboy.apu;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free ring of samples between one producer, the emulation thread, and one consumer, the
+ * audio output thread.
+ *
+ * <p>Each side owns one counter and publishes it with an ordered store, and keeps a cached copy of
+ * the other side's counter which it only refreshes when the ring looks full or empty, so a batch
+ * costs no lock and usually no contended read. The producer never waits: samples which do not fit
+ * are dropped and counted.
+ */
+public final class SampleRing implements SampleSink {
+  private final short[] buffer;
+  private final int mask;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong read = new AtomicLong();
+  private long cachedRead; // producer's view
+  private long cachedWritten; // consumer's view
+  private long dropped;
+
+  /**
+   * Creates an empty ring.
+   *
+   * @param capacity the capacity in samples, rounded up to a power of two
+   */
+  public SampleRing(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    buffer = new short[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Adds samples, dropping whatever does not fit. Called only by the producer.
+   */
+  @Override
+  public void write(short[] samples, int offset, int length) {
+    long head = written.get();
+    if (buffer.length - (head - cachedRead) < length) {
+      cachedRead = read.get();
+    }
+    int count = (int) Math.min(length, buffer.length - (head - cachedRead)) & ~1;
+    int start = (int) head & mask;
+    int first = Math.min(count, buffer.length - start);
+    System.arraycopy(samples, offset, buffer, start, first);
+    System.arraycopy(samples, offset + first, buffer, 0, count - first);
+    written.lazySet(head + count);
+    dropped += length - count;
+  }
+
+  /**
+   * Takes up to a number of samples. Called only by the consumer.
+   *
+   * @param samples where to copy the samples
+   * @param offset the index to copy the first sample to
+   * @param length the most samples to take
+   * @return the number of samples taken, 0 if the ring is empty
+   */
+  public int read(short[] samples, int offset, int length) {
+    long tail = read.get();
+    if (cachedWritten - tail < length) {
+      cachedWritten = written.get();
+    }
+    int count = (int) Math.min(length, cachedWritten - tail);
+    int start = (int) tail & mask;
+    int first = Math.min(count, buffer.length - start);
+    System.arraycopy(buffer, start, samples, offset, first);
+    System.arraycopy(buffer, 0, samples, offset + first, count - first);
+    read.lazySet(tail + count);
+    return count;
+  }
+
+  /**
+   * The number of samples waiting, from either thread.
+   *
+   * @return the fill level in samples
+   */
+  public int size() {
+    long tail = read.get(); // first, so that the difference is never negative
+    return (int) (written.get() - tail);
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  /**
+   * The number of samples dropped because the ring was full. Read by the producer.
+   *
+   * @return the dropped sample count
+   */
+  public long getDropped() {
+    return dropped;
+  }
+}
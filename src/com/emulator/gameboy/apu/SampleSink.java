@@ -0,0 +1,22 @@
+package com.emulator.gameboy.apu;
+
+/**
+ * Receives the APU's output: 16-bit signed stereo samples, left then right.
+ */
+@FunctionalInterface
+public interface SampleSink {
+  /**
+   * Discards everything, for running without sound. The APU renders nothing while this is its
+   * sink.
+   */
+  SampleSink NULL = (samples, offset, length) -> { };
+
+  /**
+   * Takes a batch of samples. Called on the emulation thread; must not block.
+   *
+   * @param samples the samples, left and right interleaved
+   * @param offset the index of the first sample
+   * @param length the number of samples, an even number
+   */
+  void write(short[] samples, int offset, int length);
+}
@@ -0,0 +1,130 @@
+package com.emulator.gameboy.apu;
+
+/**
+ * Channels 1 and 2: a square wave of one of four duty cycles, with a volume envelope and, on
+ * channel 1 only, a frequency sweep.
+ */
+final class SquareChannel extends Channel {
+  // the eight steps of each duty cycle, bit 7 first: 12.5%, 25%, 50% and 75%
+  private static final int[] DUTY = {0b00000001, 0b10000001, 0b10000111, 0b01111110};
+
+  final Envelope envelope = new Envelope();
+  private final boolean hasSweep;
+  private int duty;
+  private int frequency;
+  private int timer;
+  private int step;
+
+  // the sweep
+  private int sweepPeriod;
+  private boolean sweepDown;
+  private int sweepShift;
+  private int sweepTimer;
+  private boolean sweepEnabled;
+  private int shadowFrequency;
+
+  SquareChannel(boolean hasSweep) {
+    super(64);
+    this.hasSweep = hasSweep;
+  }
+
+  // NR10
+  void writeSweep(int value) {
+    sweepPeriod = (value >> 4) & 0x07;
+    sweepDown = (value & 0x08) != 0;
+    sweepShift = value & 0x07;
+  }
+
+  // NRx1
+  void writeDutyAndLength(int value) {
+    duty = value >> 6;
+    writeLength(value & 0x3F);
+  }
+
+  // NRx3 and the low bits of NRx4
+  void setFrequency(int frequency) {
+    this.frequency = frequency;
+  }
+
+  int getFrequency() {
+    return frequency;
+  }
+
+  @Override
+  void trigger() {
+    super.trigger();
+    timer = period();
+    envelope.trigger();
+    if (hasSweep) {
+      shadowFrequency = frequency;
+      sweepTimer = sweepPeriod != 0 ? sweepPeriod : 8;
+      sweepEnabled = sweepPeriod != 0 || sweepShift != 0;
+      if (sweepShift != 0 && sweep() > 2047) {
+        enabled = false;
+      }
+    }
+  }
+
+  // 128 Hz, from the frame sequencer; returns whether the frequency changed
+  boolean clockSweep() {
+    if (--sweepTimer > 0) {
+      return false;
+    }
+    sweepTimer = sweepPeriod != 0 ? sweepPeriod : 8;
+    if (!sweepEnabled || sweepPeriod == 0) {
+      return false;
+    }
+    int next = sweep();
+    if (next > 2047) {
+      enabled = false;
+      return false;
+    }
+    if (sweepShift == 0) {
+      return false;
+    }
+    shadowFrequency = next;
+    frequency = next;
+    if (sweep() > 2047) {
+      enabled = false;
+    }
+    return true;
+  }
+
+  private int sweep() {
+    int delta = shadowFrequency >> sweepShift;
+    return sweepDown ? shadowFrequency - delta : shadowFrequency + delta;
+  }
+
+  // clock cycles per duty step
+  private int period() {
+    return (2048 - frequency) * 4;
+  }
+
+  @Override
+  void advance(int cycles) {
+    timer -= cycles;
+    if (timer <= 0) {
+      int period = period();
+      int steps = -timer / period + 1;
+      timer += steps * period;
+      step = (step + steps) & 7;
+    }
+  }
+
+  @Override
+  int level() {
+    return (DUTY[duty] >> (7 - step) & 1) * envelope.volume;
+  }
+
+  @Override
+  void reset() {
+    super.reset();
+    envelope.reset();
+    duty = 0;
+    frequency = 0;
+    sweepPeriod = 0;
+    sweepDown = false;
+    sweepShift = 0;
+    sweepEnabled = false;
+  }
+}
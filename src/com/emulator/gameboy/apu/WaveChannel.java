@@ -0,0 +1,73 @@
+package com.emulator.gameboy.apu;
+
+import com.emulator.gameboy.memory.Memory;
+
+/**
+ * Channel 3: plays the 32 4-bit samples in wave RAM, $FF30-$FF3F, high nibble first, at one of
+ * four volumes.
+ */
+final class WaveChannel extends Channel {
+  private static final int WAVE_RAM = 0xFF30;
+
+  private final Memory memory;
+  private int volumeShift = 4; // NR32: muted, 100%, 50% or 25%
+  private int frequency;
+  private int timer;
+  private int position;
+
+  WaveChannel(Memory memory) {
+    super(256);
+    this.memory = memory;
+  }
+
+  // NR32
+  void writeVolume(int value) {
+    int code = (value >> 5) & 0x03;
+    volumeShift = code == 0 ? 4 : code - 1;
+  }
+
+  void setFrequency(int frequency) {
+    this.frequency = frequency;
+  }
+
+  int getFrequency() {
+    return frequency;
+  }
+
+  @Override
+  void trigger() {
+    super.trigger();
+    timer = period();
+    position = 0;
+  }
+
+  // clock cycles per sample
+  private int period() {
+    return (2048 - frequency) * 2;
+  }
+
+  @Override
+  void advance(int cycles) {
+    timer -= cycles;
+    if (timer <= 0) {
+      int period = period();
+      int steps = -timer / period + 1;
+      timer += steps * period;
+      position = (position + steps) & 31;
+    }
+  }
+
+  @Override
+  int level() {
+    int sample = memory.getIoRegister(WAVE_RAM + (position >> 1));
+    sample = (position & 1) == 0 ? (sample >> 4) & 0x0F : sample & 0x0F;
+    return sample >> volumeShift;
+  }
+
+  @Override
+  void reset() {
+    super.reset();
+    volumeShift = 4;
+    frequency = 0;
+  }
+}
@@ -1,5 +1,7 @@
 package com.emulator.gameboy.cpu;
 
+import com.emulator.gameboy.scheduler.Scheduler;
+
 /**
  * This interface provides the essentials for implementing any CPU which may
  * eventually be used in this (potentially multi-system) emulator.
@@ -7,7 +9,7 @@ package com.emulator.gameboy.cpu;
  * @author Chris R. Williams
  *
  */
-interface AbstractCpu {
+public interface AbstractCpu {
   /**
    * Decodes the opcode and executes the instruction.
    * 
@@ -15,4 +17,26 @@ interface AbstractCpu {
    * @throws UnsupportedOperationException for unimplemented opcodes
    */
   public void run();
+
+  /**
+   * Executes a single instruction.
+   *
+   * @throws UnsupportedOperationException for unimplemented opcodes
+   */
+  public void step();
+
+  /**
+   * Executes instructions until the scheduler's next event is due.
+   *
+   * @param scheduler the scheduler holding the device events
+   * @throws UnsupportedOperationException for unimplemented opcodes
+   */
+  public void runUntil(Scheduler scheduler);
+
+  /**
+   * The total number of machine cycles executed.
+   *
+   * @return the cycle count
+   */
+  public long getCycleCount();
 }
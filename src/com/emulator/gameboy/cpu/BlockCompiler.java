@@ -0,0 +1,414 @@
+package com.emulator.gameboy.cpu;
+
+import com.emulator.gameboy.memory.Memory;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates a basic block of GameBoy code into a hidden class.
+ *
+ * <p>The class's {@code execute()} is straight-line bytecode which, for each instruction, does
+ * what {@link Cpu#decodeAndExecute} does: set the program counter past the opcode, set the cycle
+ * count, call the handler from the dispatch tables and retire it. Every handler is a static final
+ * field, so the JIT sees constant call targets and can inline the block into one method with no
+ * fetch, decode or megamorphic dispatch left. After an instruction which can write memory, the
+ * block returns early if {@link RecompilingCpu#mustExit()} says so.
+ *
+ * <p>A block ends after a jump, call, return, RST, HALT, STOP, DI or EI, before an illegal opcode,
+ * at the end of its memory region, or after {@link #MAX_INSTRUCTIONS}.
+ */
+final class BlockCompiler {
+  static final int MAX_INSTRUCTIONS = 32;
+  static final int MAX_BYTES = MAX_INSTRUCTIONS * 3;
+
+  private static final String BLOCK_CLASS = "com/emulator/gameboy/cpu/CompiledBlock";
+  private static final String CPU_CLASS = "com/emulator/gameboy/cpu/Cpu";
+  private static final String OWNER_CLASS = "com/emulator/gameboy/cpu/RecompilingCpu";
+  private static final String INSTRUCTION_CLASS = "com/emulator/gameboy/cpu/Instruction";
+  private static final String LOOKUP_CLASS = "java/lang/invoke/MethodHandles$Lookup";
+
+  // class file constants
+  private static final int JAVA_17 = 61;
+  private static final int ACC_PUBLIC = 0x0001;
+  private static final int ACC_PRIVATE = 0x0002;
+  private static final int ACC_STATIC = 0x0008;
+  private static final int ACC_FINAL = 0x0010;
+  private static final int ACC_SUPER = 0x0020;
+  private static final int SAME_FRAME_EXTENDED = 251;
+
+  // bytecode instructions
+  private static final int ALOAD_0 = 0x2A;
+  private static final int ASTORE_0 = 0x4B;
+  private static final int AALOAD = 0x32;
+  private static final int BIPUSH = 0x10;
+  private static final int SIPUSH = 0x11;
+  private static final int LDC_W = 0x13;
+  private static final int IFNE = 0x9A;
+  private static final int RETURN = 0xB1;
+  private static final int GETSTATIC = 0xB2;
+  private static final int PUTSTATIC = 0xB3;
+  private static final int INVOKEVIRTUAL = 0xB6;
+  private static final int INVOKESPECIAL = 0xB7;
+  private static final int INVOKESTATIC = 0xB8;
+  private static final int INVOKEINTERFACE = 0xB9;
+  private static final int CHECKCAST = 0xC0;
+
+  // instruction lengths in bytes, including the opcode
+  private static final int[] LENGTHS = new int[256];
+  private static final boolean[] ENDS_BLOCK = new boolean[256];
+  private static final boolean[] WRITES_MEMORY = new boolean[256];
+
+  static {
+    Arrays.fill(LENGTHS, 1);
+    for (int opcode : new int[] {0x06, 0x0E, 0x10, 0x16, 0x18, 0x1E, 0x20, 0x26, 0x28, 0x2E, 0x30,
+        0x36, 0x38, 0x3E, 0xC6, 0xCB, 0xCE, 0xD6, 0xDE, 0xE0, 0xE6, 0xE8, 0xEE, 0xF0, 0xF6, 0xF8,
+        0xFE}) {
+      LENGTHS[opcode] = 2;
+    }
+    for (int opcode : new int[] {0x01, 0x08, 0x11, 0x21, 0x31, 0xC2, 0xC3, 0xC4, 0xCA, 0xCC, 0xCD,
+        0xD2, 0xD4, 0xDA, 0xDC, 0xEA, 0xFA}) {
+      LENGTHS[opcode] = 3;
+    }
+    for (int opcode : new int[] {0x10, 0x18, 0x20, 0x28, 0x30, 0x38, 0x76, 0xC0, 0xC2, 0xC3, 0xC4,
+        0xC8, 0xC9, 0xCA, 0xCC, 0xCD, 0xD0, 0xD2, 0xD4, 0xD8, 0xD9, 0xDA, 0xDC, 0xE9, 0xF3, 0xFB}) {
+      ENDS_BLOCK[opcode] = true;
+    }
+    for (int vector = 0; vector < 8; vector++) {
+      ENDS_BLOCK[0xC7 | (vector << 3)] = true; // RST
+    }
+    for (int opcode : new int[] {0x02, 0x08, 0x12, 0x22, 0x32, 0x34, 0x35, 0x36, 0x70, 0x71, 0x72,
+        0x73, 0x74, 0x75, 0x77, 0xC5, 0xD5, 0xE0, 0xE2, 0xE5, 0xEA, 0xF5}) {
+      WRITES_MEMORY[opcode] = true;
+    }
+  }
+
+  private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+  private final Cpu cpu;
+  private final RecompilingCpu owner;
+  private final Memory memory;
+
+  BlockCompiler(Cpu cpu, RecompilingCpu owner, Memory memory) {
+    this.cpu = cpu;
+    this.owner = owner;
+    this.memory = memory;
+  }
+
+  /**
+   * Compiles the block starting at an address.
+   *
+   * @param start the address of the first instruction
+   * @param limit the end of the memory region, which the block may not cross
+   * @return the block, or null if the first instruction cannot be compiled
+   */
+  RecompilingCpu.Block compile(int start, int limit) {
+    List<Instruction> handlers = new ArrayList<>();
+    int[] programCounters = new int[MAX_INSTRUCTIONS];
+    int[] cycles = new int[MAX_INSTRUCTIONS];
+    boolean[] writes = new boolean[MAX_INSTRUCTIONS];
+
+    int address = start;
+    while (handlers.size() < MAX_INSTRUCTIONS) {
+      int opcode = memory.getByteAt(address) & 0xFF;
+      if ((Cpu.getCycles(opcode) == 0 && opcode != 0xCB) || address + LENGTHS[opcode] > limit) {
+        break; // illegal, or runs off the region
+      }
+      int count = handlers.size();
+      if (opcode == 0xCB) {
+        int cbOpcode = memory.getByteAt(address + 1) & 0xFF;
+        handlers.add(cpu.getCbInstruction(cbOpcode));
+        programCounters[count] = address + 2;
+        cycles[count] = Cpu.getCbCycles(cbOpcode);
+        writes[count] = (cbOpcode & 0x07) == 0x06 && (cbOpcode < 0x40 || cbOpcode >= 0x80);
+      } else {
+        handlers.add(cpu.getInstruction(opcode));
+        programCounters[count] = address + 1;
+        cycles[count] = Cpu.getCycles(opcode);
+        writes[count] = WRITES_MEMORY[opcode];
+      }
+      address += LENGTHS[opcode];
+      if (ENDS_BLOCK[opcode]) {
+        break;
+      }
+    }
+    if (handlers.isEmpty()) {
+      return null;
+    }
+
+    // every instruction but the last must start before the next event
+    int cycleBudget = 0;
+    for (int i = 0; i < handlers.size() - 1; i++) {
+      cycleBudget += cycles[i];
+    }
+
+    byte[] classFile = assemble(handlers.size(), programCounters, cycles, writes);
+    Object[] data = new Object[handlers.size() + 2];
+    data[0] = cpu;
+    data[1] = owner;
+    for (int i = 0; i < handlers.size(); i++) {
+      data[i + 2] = handlers.get(i);
+    }
+    try {
+      MethodHandles.Lookup blockLookup = lookup.defineHiddenClassWithClassData(classFile, data,
+          true);
+      Instruction code = (Instruction) blockLookup.lookupClass().getDeclaredConstructor()
+          .newInstance();
+      return new RecompilingCpu.Block(code, start, address, cycleBudget);
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException("Could not load the block at "
+          + String.format("0x%04X", start), ex);
+    }
+  }
+
+  private static byte[] assemble(int count, int[] programCounters, int[] cycles,
+      boolean[] writes) {
+    ConstantPool pool = new ConstantPool();
+    int thisClass = pool.classRef(BLOCK_CLASS);
+    int objectClass = pool.classRef("java/lang/Object");
+    int instructionClass = pool.classRef(INSTRUCTION_CLASS);
+    int cpuField = pool.field(BLOCK_CLASS, "CPU", "L" + CPU_CLASS + ";");
+    int ownerField = pool.field(BLOCK_CLASS, "OWNER", "L" + OWNER_CLASS + ";");
+    int[] handlerFields = new int[count];
+    for (int i = 0; i < count; i++) {
+      handlerFields[i] = pool.field(BLOCK_CLASS, "I" + i, "L" + INSTRUCTION_CLASS + ";");
+    }
+    int objectInit = pool.method("java/lang/Object", "<init>", "()V", false);
+    int enter = pool.method(CPU_CLASS, "enter", "(II)V", false);
+    int retire = pool.method(CPU_CLASS, "retire", "()V", false);
+    int mustExit = pool.method(OWNER_CLASS, "mustExit", "()Z", false);
+    int execute = pool.method(INSTRUCTION_CLASS, "execute", "()V", true);
+
+    // execute(): each instruction in turn, leaving early through a shared return
+    Bytes code = new Bytes();
+    List<Integer> exits = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      code.u1(GETSTATIC).u2(cpuField);
+      code.u1(LDC_W).u2(pool.integer(programCounters[i]));
+      code.u1(BIPUSH).u1(cycles[i]);
+      code.u1(INVOKEVIRTUAL).u2(enter);
+      code.u1(GETSTATIC).u2(handlerFields[i]);
+      code.u1(INVOKEINTERFACE).u2(execute).u1(1).u1(0);
+      code.u1(GETSTATIC).u2(cpuField);
+      code.u1(INVOKEVIRTUAL).u2(retire);
+      if (writes[i] && i < count - 1) {
+        code.u1(GETSTATIC).u2(ownerField);
+        code.u1(INVOKEVIRTUAL).u2(mustExit);
+        exits.add(code.size());
+        code.u1(IFNE).u2(0);
+      }
+    }
+    int exit = code.size();
+    code.u1(RETURN);
+    for (int branch : exits) {
+      code.patch(branch + 1, exit - branch);
+    }
+
+    // <clinit>: the fields come from the class data, in the order CPU, OWNER, I0...
+    Bytes init = new Bytes();
+    init.u1(INVOKESTATIC).u2(pool.method("java/lang/invoke/MethodHandles", "lookup",
+        "()L" + LOOKUP_CLASS + ";", false));
+    init.u1(LDC_W).u2(pool.string("_"));
+    init.u1(LDC_W).u2(pool.classRef("[Ljava/lang/Object;"));
+    init.u1(INVOKESTATIC).u2(pool.method("java/lang/invoke/MethodHandles", "classData",
+        "(L" + LOOKUP_CLASS + ";Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false));
+    init.u1(CHECKCAST).u2(pool.classRef("[Ljava/lang/Object;"));
+    init.u1(ASTORE_0);
+    int[] fields = new int[count + 2];
+    int[] types = new int[count + 2];
+    fields[0] = cpuField;
+    types[0] = pool.classRef(CPU_CLASS);
+    fields[1] = ownerField;
+    types[1] = pool.classRef(OWNER_CLASS);
+    for (int i = 0; i < count; i++) {
+      fields[i + 2] = handlerFields[i];
+      types[i + 2] = instructionClass;
+    }
+    for (int i = 0; i < fields.length; i++) {
+      init.u1(ALOAD_0).u1(SIPUSH).u2(i).u1(AALOAD);
+      init.u1(CHECKCAST).u2(types[i]).u1(PUTSTATIC).u2(fields[i]);
+    }
+    init.u1(RETURN);
+
+    Bytes constructor = new Bytes();
+    constructor.u1(ALOAD_0).u1(INVOKESPECIAL).u2(objectInit).u1(RETURN);
+
+    // names used by the rest of the class file, which must be in the pool before it is written
+    int codeName = pool.utf8("Code");
+    int stackMapName = pool.utf8("StackMapTable");
+    int initName = pool.utf8("<init>");
+    int clinitName = pool.utf8("<clinit>");
+    int executeName = pool.utf8("execute");
+    int voidDescriptor = pool.utf8("()V");
+    int cpuName = pool.utf8("CPU");
+    int cpuDescriptor = pool.utf8("L" + CPU_CLASS + ";");
+    int ownerName = pool.utf8("OWNER");
+    int ownerDescriptor = pool.utf8("L" + OWNER_CLASS + ";");
+    int instructionDescriptor = pool.utf8("L" + INSTRUCTION_CLASS + ";");
+    int[] handlerNames = new int[count];
+    for (int i = 0; i < count; i++) {
+      handlerNames[i] = pool.utf8("I" + i);
+    }
+
+    Bytes out = new Bytes();
+    out.u4(0xCAFEBABE).u2(0).u2(JAVA_17);
+    out.u2(pool.size()).bytes(pool.bytes);
+    out.u2(ACC_FINAL | ACC_SUPER).u2(thisClass).u2(objectClass);
+    out.u2(1).u2(instructionClass);
+
+    int fieldAccess = ACC_PRIVATE | ACC_STATIC | ACC_FINAL;
+    out.u2(count + 2);
+    out.u2(fieldAccess).u2(cpuName).u2(cpuDescriptor).u2(0);
+    out.u2(fieldAccess).u2(ownerName).u2(ownerDescriptor).u2(0);
+    for (int i = 0; i < count; i++) {
+      out.u2(fieldAccess).u2(handlerNames[i]).u2(instructionDescriptor).u2(0);
+    }
+
+    out.u2(3);
+    out.u2(ACC_PUBLIC).u2(initName).u2(voidDescriptor).u2(1);
+    writeCode(out, codeName, 1, constructor, null);
+    out.u2(ACC_PUBLIC).u2(executeName).u2(voidDescriptor).u2(1);
+    Bytes stackMap = null;
+    if (!exits.isEmpty()) {
+      // the shared return has the method's initial frame: just this, and an empty stack
+      stackMap = new Bytes();
+      stackMap.u2(stackMapName).u4(5).u2(1).u1(SAME_FRAME_EXTENDED).u2(exit);
+    }
+    writeCode(out, codeName, 3, code, stackMap);
+    out.u2(ACC_STATIC).u2(clinitName).u2(voidDescriptor).u2(1);
+    writeCode(out, codeName, 3, init, null);
+
+    out.u2(0); // no class attributes
+    return out.toByteArray();
+  }
+
+  private static void writeCode(Bytes out, int codeName, int maxStack, Bytes code,
+      Bytes stackMap) {
+    int attributesLength = stackMap == null ? 0 : stackMap.size();
+    out.u2(codeName).u4(12 + code.size() + attributesLength);
+    out.u2(maxStack).u2(1).u4(code.size()).bytes(code);
+    out.u2(0); // no exception handlers
+    out.u2(stackMap == null ? 0 : 1);
+    if (stackMap != null) {
+      out.bytes(stackMap);
+    }
+  }
+
+  // a big-endian byte buffer, as class files are written
+  private static final class Bytes extends ByteArrayOutputStream {
+    Bytes u1(int value) {
+      write(value);
+      return this;
+    }
+
+    Bytes u2(int value) {
+      write(value >> 8);
+      write(value);
+      return this;
+    }
+
+    Bytes u4(int value) {
+      return u2(value >>> 16).u2(value);
+    }
+
+    Bytes bytes(Bytes other) {
+      write(other.buf, 0, other.count);
+      return this;
+    }
+
+    void patch(int position, int value) {
+      buf[position] = (byte) (value >> 8);
+      buf[position + 1] = (byte) value;
+    }
+  }
+
+  // the constant pool, with each distinct entry added once
+  private static final class ConstantPool {
+    private final Bytes bytes = new Bytes();
+    private final Map<String, Integer> indices = new HashMap<>();
+    private int next = 1;
+
+    int size() {
+      return next;
+    }
+
+    int utf8(String value) {
+      Integer index = indices.get("Utf8 " + value);
+      if (index != null) {
+        return index;
+      }
+      bytes.u1(1).u2(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        bytes.u1(value.charAt(i)); // the names used here are all ASCII
+      }
+      return add("Utf8 " + value);
+    }
+
+    int integer(int value) {
+      Integer index = indices.get("Integer " + value);
+      if (index != null) {
+        return index;
+      }
+      bytes.u1(3).u4(value);
+      return add("Integer " + value);
+    }
+
+    int classRef(String name) {
+      return reference(7, "Class " + name, utf8(name));
+    }
+
+    int string(String value) {
+      return reference(8, "String " + value, utf8(value));
+    }
+
+    int field(String owner, String name, String descriptor) {
+      return member(9, owner, name, descriptor);
+    }
+
+    int method(String owner, String name, String descriptor, boolean isInterface) {
+      return member(isInterface ? 11 : 10, owner, name, descriptor);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+      String key = tag + " " + owner + "." + name + descriptor;
+      Integer index = indices.get(key);
+      if (index != null) {
+        return index;
+      }
+      int ownerIndex = classRef(owner);
+      int nameAndType = nameAndType(name, descriptor);
+      bytes.u1(tag).u2(ownerIndex).u2(nameAndType);
+      return add(key);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+      String key = "NameAndType " + name + descriptor;
+      Integer index = indices.get(key);
+      if (index != null) {
+        return index;
+      }
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      bytes.u1(12).u2(nameIndex).u2(descriptorIndex);
+      return add(key);
+    }
+
+    private int reference(int tag, String key, int target) {
+      Integer index = indices.get(key);
+      if (index != null) {
+        return index;
+      }
+      bytes.u1(tag).u2(target);
+      return add(key);
+    }
+
+    private int add(String key) {
+      indices.put(key, next);
+      return next++;
+    }
+  }
+}
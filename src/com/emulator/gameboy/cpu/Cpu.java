@@ -1,24 +1,114 @@
 package com.emulator.gameboy.cpu;
 
 import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+import com.emulator.gameboy.trace.TraceLog;
+
+import java.nio.ByteBuffer;
 
 public final class Cpu implements AbstractCpu {
+  /**
+   * The number of bytes {@link #saveState} writes.
+   */
+  public static final int STATE_SIZE = 31;
+
+  // machine cycles taken to dispatch an interrupt: two idle, two to push PC, one to jump
+  private static final int INTERRUPT_CYCLES = 5;
+
+  // 8-bit operand encoding used by the low three bits (and bits 3-5) of most opcodes
+  private static final int REGISTER_B = 0;
+  private static final int REGISTER_C = 1;
+  private static final int REGISTER_D = 2;
+  private static final int REGISTER_E = 3;
+  private static final int REGISTER_H = 4;
+  private static final int REGISTER_L = 5;
+  private static final int REGISTER_HL_INDIRECT = 6;
+  private static final int REGISTER_A = 7;
+
+  // 16-bit operand encoding used by bits 4-5 of the LD/INC/DEC/ADD register pair opcodes
+  private static final int PAIR_BC = 0;
+  private static final int PAIR_DE = 1;
+  private static final int PAIR_HL = 2;
+  private static final int PAIR_SP = 3;
+
+  // condition encoding used by bits 3-4 of the conditional JR/JP/CALL/RET opcodes
+  private static final int CONDITION_NZ = 0;
+  private static final int CONDITION_Z = 1;
+  private static final int CONDITION_NC = 2;
+  private static final int CONDITION_C = 3;
+
+  // machine cycles taken by each base instruction; conditional instructions list the time taken
+  // when the condition fails, and the CB prefix is accounted for in CB_CYCLES
+  private static final int[] CYCLES = {
+    1, 3, 2, 2, 1, 1, 2, 1, 5, 2, 2, 2, 1, 1, 2, 1, // 0x00
+    1, 3, 2, 2, 1, 1, 2, 1, 3, 2, 2, 2, 1, 1, 2, 1, // 0x10
+    2, 3, 2, 2, 1, 1, 2, 1, 2, 2, 2, 2, 1, 1, 2, 1, // 0x20
+    2, 3, 2, 2, 3, 3, 3, 1, 2, 2, 2, 2, 1, 1, 2, 1, // 0x30
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0x40
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0x50
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0x60
+    2, 2, 2, 2, 2, 2, 1, 2, 1, 1, 1, 1, 1, 1, 2, 1, // 0x70
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0x80
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0x90
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0xA0
+    1, 1, 1, 1, 1, 1, 2, 1, 1, 1, 1, 1, 1, 1, 2, 1, // 0xB0
+    2, 3, 3, 4, 3, 4, 2, 4, 2, 4, 3, 0, 3, 6, 2, 4, // 0xC0
+    2, 3, 3, 0, 3, 4, 2, 4, 2, 4, 3, 0, 3, 0, 2, 4, // 0xD0
+    3, 3, 2, 0, 0, 4, 2, 4, 4, 1, 4, 0, 0, 0, 2, 4, // 0xE0
+    3, 3, 2, 1, 0, 4, 2, 4, 3, 2, 4, 1, 0, 0, 2, 4  // 0xF0
+  };
+
+  // machine cycles taken by each CB-prefixed instruction, including the prefix
+  private static final int[] CB_CYCLES = new int[256];
+
+  static {
+    for (int opcode = 0; opcode < 256; opcode++) {
+      if ((opcode & 0x07) != REGISTER_HL_INDIRECT) {
+        CB_CYCLES[opcode] = 2;
+      } else if (opcode >= 0x40 && opcode < 0x80) {
+        CB_CYCLES[opcode] = 3; // BIT b,(HL) only reads
+      } else {
+        CB_CYCLES[opcode] = 4;
+      }
+    }
+  }
+
+  // how N and H are evaluated for the last flag-setting operation
+  private static final int FLAGS_ADD = 0; // N reset, H from the carry out of bit 3
+  private static final int FLAGS_SUB = 1; // N set, H from the borrow into bit 4
+  private static final int FLAGS_AND = 2; // N reset, H set
+  private static final int FLAGS_NONE = 3; // N and H reset
+  private static final int FLAGS_EXPLICIT = 4; // N and H as stored in flagBitsNh
+
   private int programCounter;
   private int stackPointer;
-  private Flag flagZ;
-  private Flag flagN;
-  private Flag flagH;
-  private Flag flagC;
-  private byte registerA = 0x01;
-  private byte registerB = 0x00;
-  private byte registerC = 0x13;
-  private byte registerD = 0x00;
-  private byte registerE = (byte) 0xd8; // a 0x01, f 0xb0, b 0x00, c 0x13, d 0x00, e 0xd8 
-  private short registersHl = 0x014d; // hl 0x014d
-  @SuppressWarnings("unused") // no accessor methods for timerM are necessary
-  private int timerM;
+  // register pairs, with the first register in the high byte; the low byte of registersAf is
+  // always 0 because F is evaluated from the lazy flag state below
+  private int registersAf = 0x0100;
+  private int registersBc = 0x0013;
+  private int registersDe = 0x00d8;
+  private int registersHl = 0x014d; // af 0x01b0, bc 0x0013, de 0x00d8, hl 0x014d
+
+  // lazy flags: ALU operations only record their operands and result, and F is materialized when
+  // something reads it. Z is set when the low byte of flagResult is 0, C when bit 8 of
+  // flagCarrySource is set, and N and H follow from flagKind.
+  private int flagKind = FLAGS_NONE;
+  private int flagResult = 1;
+  private int flagCarrySource;
+  private int flagOperand1;
+  private int flagOperand2;
+  private int flagBitsNh;
+  private boolean interruptsEnabled;
+  private long interruptsEnabledAt = -1; // the end of the last EI, until which IME stays off
+  private boolean halted;
+  private long timerM;
+  private long instructionCount;
   private int lastInstructionTime;
   private Memory memory;
+  private final InterruptController interrupts;
+  private TraceLog traceLog;
+  private final Instruction[] instructions = new Instruction[256];
+  private final Instruction[] cbInstructions = new Instruction[256];
 
   /**
    * This class implements the GameBoy CPU.
@@ -27,19 +117,17 @@ public final class Cpu implements AbstractCpu {
   public Cpu(Memory memory) {
     programCounter = 0x0000; // 0x0100;
     stackPointer = 0x0000; // 0xFFFE;
-    //flags = (byte) 0x00; // 0b10110000; // ZNHC0000
     timerM = 0;
     lastInstructionTime = 0;
     this.memory = memory;
-    flagZ = new Flag();
-    flagN = new Flag();
-    flagH = new Flag();
-    flagC = new Flag();
+    interrupts = new InterruptController(memory);
+    buildInstructionTable();
+    buildCbInstructionTable();
   }
-  
+
   /**
    * Returns the unsigned value of a signed byte.
-   * 
+   *
    * @param signed the signed byte
    * @return the unsigned byte value
    */
@@ -49,7 +137,7 @@ public final class Cpu implements AbstractCpu {
 
   /**
    * Returns the unsigned value of a signed word.
-   * 
+   *
    * @param signed the signed word
    * @return the unsigned word value
    */
@@ -57,50 +145,117 @@ public final class Cpu implements AbstractCpu {
     return (int) (signed & 0xFFFF);
   }
 
-  private static class Flag {
+  @Override
+  /**
+   * Runs the CPU indefinitely.
+   */
+  public void run() {
+    while (true) {
+      step();
+    }
+  }
 
-    private boolean isSet = false;
-    
-    /**
-     * Sets the Zero Flag.
-     */
-    public void set() {
-      //flags |= 0b10000000;
-      isSet = true;
+  /**
+   * Executes a single instruction, dispatches an interrupt, or idles for one machine cycle while
+   * halted.
+   */
+  @Override
+  public void step() {
+    if (checkInterrupts()) {
+      return;
+    }
+    if (halted) {
+      lastInstructionTime = 1;
+      timerM++;
+      return;
+    }
+    byte opcode = fetch();
+    if (traceLog != null) {
+      trace(opcode);
     }
+    decodeAndExecute(opcode);
+  }
 
-    /**
-     * Resets the Zero Flag.
-     */
-    public void reset() {
-      //flags &= ~0b10000000;
-      isSet = false;
+  /**
+   * Executes instructions until the scheduler's next event is due. Devices which move that event
+   * earlier while the CPU runs, for example from an I/O register write, are seen before the next
+   * instruction. While halted the clock skips straight to the event, as only an event can request
+   * the interrupt which ends the halt.
+   *
+   * @param scheduler the scheduler holding the device events
+   */
+  @Override
+  public void runUntil(Scheduler scheduler) {
+    while (timerM < scheduler.getNextEventTime()) {
+      if (checkInterrupts()) {
+        continue;
+      }
+      if (halted) {
+        lastInstructionTime = (int) Math.min(scheduler.getNextEventTime() - timerM,
+            Integer.MAX_VALUE);
+        timerM += lastInstructionTime;
+        continue;
+      }
+      byte opcode = fetch();
+      if (traceLog != null) {
+        trace(opcode);
+      }
+      decodeAndExecute(opcode);
     }
+  }
 
-    /**
-     * Tests the Zero Flag.
-     */
-    public boolean isSet() {
-      //return (flags & 0b10000000) == 0b10000000;
-      return isSet;
+  /*
+   * Interrupts are checked before every instruction, but the check is one read of the
+   * controller's pending mask, which is almost always 0. Only then do IME, the delay after EI and
+   * the halt state come into it.
+   */
+
+  // wake from a halt on any pending interrupt, and dispatch the first if IME allows, returning
+  // whether one was dispatched
+  boolean checkInterrupts() {
+    if (interrupts.getPending() == 0) {
+      return false;
+    }
+    halted = false;
+    if (!isInterruptDue()) {
+      return false;
     }
+    interruptsEnabled = false;
+    push(programCounter);
+    programCounter = interrupts.acknowledge();
+    lastInstructionTime = INTERRUPT_CYCLES;
+    timerM += INTERRUPT_CYCLES;
+    return true;
+  }
+
+  // whether an interrupt is pending with IME set, though perhaps still held off by EI
+  boolean isInterruptPending() {
+    return interruptsEnabled && interrupts.getPending() != 0;
+  }
+
+  // whether a pending interrupt would be dispatched now; EI takes effect after the next instruction
+  boolean isInterruptDue() {
+    return isInterruptPending() && timerM > interruptsEnabledAt;
+  }
+
+  private void trace(byte opcode) {
+    traceLog.record(programCounter, opcode, registersAf | getFlags(), registersBc, registersDe,
+        registersHl, stackPointer, timerM);
   }
 
-  @Override
   /**
-   * Fetches the opcode at the memory address in the program counter.
-   * 
-   * @return the opcode
+   * Attaches an instruction trace, or detaches it when null. While no trace is attached, tracing
+   * costs a single null check per instruction.
+   *
+   * @param traceLog the trace to record executed instructions into
    */
-  public void run() {
-    while (true) {
-      decodeAndExecute(fetch());
-    }
+  public void setTraceLog(TraceLog traceLog) {
+    this.traceLog = traceLog;
   }
-  
+
   /**
    * Fetches the next instruction using the program counter.
-   * 
+   *
    * @return the next instruction
    */
   public byte fetch() {
@@ -109,360 +264,910 @@ public final class Cpu implements AbstractCpu {
 
   /**
    * Decodes and executes an instruction.
-   * 
+   *
    * @param opcode the opcode of the instruction
-   * @throws UnsupportedOperationException if the instruction is not implemented
+   * @throws UnsupportedOperationException if the opcode is not a valid instruction
    */
   public void decodeAndExecute(byte opcode) throws UnsupportedOperationException {
-    System.out.println(String.format("Decode: 0x%02X", unsignedValue(opcode)));
-    
-    // a giant switch statement is unfortunately probably the best way to evaluate the huge list of
-    // opcodes
-    switch (unsignedValue(opcode)) {
-      case 0x00:
-        // NOP
-        programCounter++;
-        break;
-      case 0x05:
-        decB();
-        break;
-      case 0x06:
-        ldBD8();
-        break;
-      case 0x0D:
-        decC();
-        break;
-      case 0x0E:
-        ldCD8();
-        break;
-      case 0x11:
-        ldDeD16();
-        break;
-      case 0x1A:
-        ldA_De_();
-        break;
-      case 0x20:
-        jrNzR8();
-        break;
-      case 0x21:
-        ldHlD16();
-        break;
-      case 0x31:
-        ldSpD16();
-        break;
-      case 0x32:
-        ld_Hlm_A();
+    int index = opcode & 0xFF;
+    programCounter = (programCounter + 1) & 0xFFFF;
+    lastInstructionTime = CYCLES[index];
+    instructions[index].execute();
+    timerM += lastInstructionTime;
+    instructionCount++;
+  }
+
+  // CB-prefixed instructions are dispatched through a separate table
+  private void decodeAndExecuteCb(byte opcode) {
+    int index = opcode & 0xFF;
+    programCounter = (programCounter + 1) & 0xFFFF;
+    lastInstructionTime = CB_CYCLES[index];
+    cbInstructions[index].execute();
+  }
+
+  /*
+   * The dispatch tables. Every handler is bound once here, so decoding an instruction is a single
+   * array load and interface call.
+   */
+
+  private void buildInstructionTable() {
+    for (int opcode = 0; opcode < 256; opcode++) {
+      final int illegal = opcode;
+      instructions[opcode] = () -> illegalInstruction(illegal);
+    }
+
+    instructions[0x00] = () -> { }; // NOP
+    instructions[0x08] = this::ld_A16_Sp;
+    instructions[0x10] = this::stop;
+    instructions[0x18] = this::jrR8;
+    instructions[0x76] = this::halt;
+    instructions[0xCB] = this::cb;
+    instructions[0xF3] = this::di;
+    instructions[0xFB] = this::ei;
+
+    // rotates and flag operations on A
+    instructions[0x07] = this::rlca;
+    instructions[0x0F] = this::rrca;
+    instructions[0x17] = this::rla;
+    instructions[0x1F] = this::rra;
+    instructions[0x27] = this::daa;
+    instructions[0x2F] = this::cpl;
+    instructions[0x37] = this::scf;
+    instructions[0x3F] = this::ccf;
+
+    // indirect loads through register pairs
+    instructions[0x02] = () -> writeByte(registersBc, registersAf >> 8); // LD (BC),A
+    instructions[0x12] = () -> writeByte(registersDe, registersAf >> 8); // LD (DE),A
+    instructions[0x0A] = () -> registersAf = readByte(registersBc) << 8; // LD A,(BC)
+    instructions[0x1A] = () -> registersAf = readByte(registersDe) << 8; // LD A,(DE)
+    instructions[0x22] = this::ld_Hlp_A;
+    instructions[0x32] = this::ld_Hlm_A;
+    instructions[0x2A] = this::ldA_Hlp_;
+    instructions[0x3A] = this::ldA_Hlm_;
+
+    // 16-bit loads and arithmetic on register pairs
+    for (int pair = PAIR_BC; pair <= PAIR_SP; pair++) {
+      final int p = pair;
+      instructions[0x01 | (pair << 4)] = () -> setPair(p, fetchImmediate16()); // LD rr,d16
+      instructions[0x03 | (pair << 4)] = () -> setPair(p, getPair(p) + 1); // INC rr
+      instructions[0x0B | (pair << 4)] = () -> setPair(p, getPair(p) - 1); // DEC rr
+      instructions[0x09 | (pair << 4)] = () -> addHl(getPair(p)); // ADD HL,rr
+    }
+
+    // 8-bit loads, increments and decrements
+    for (int target = REGISTER_B; target <= REGISTER_A; target++) {
+      final int t = target;
+      instructions[0x04 | (target << 3)] = () -> setRegister(t, inc(getRegister(t))); // INC r
+      instructions[0x05 | (target << 3)] = () -> setRegister(t, dec(getRegister(t))); // DEC r
+      instructions[0x06 | (target << 3)] = () -> setRegister(t, fetchImmediate8()); // LD r,d8
+      for (int source = REGISTER_B; source <= REGISTER_A; source++) {
+        if (target == REGISTER_HL_INDIRECT && source == REGISTER_HL_INDIRECT) {
+          continue; // 0x76 is HALT
+        }
+        final int s = source;
+        instructions[0x40 | (target << 3) | source] = () -> setRegister(t, getRegister(s));
+      }
+    }
+
+    // 8-bit arithmetic and logic on A
+    for (int source = REGISTER_B; source <= REGISTER_A; source++) {
+      final int s = source;
+      instructions[0x80 | source] = () -> add(getRegister(s));
+      instructions[0x88 | source] = () -> adc(getRegister(s));
+      instructions[0x90 | source] = () -> sub(getRegister(s));
+      instructions[0x98 | source] = () -> sbc(getRegister(s));
+      instructions[0xA0 | source] = () -> and(getRegister(s));
+      instructions[0xA8 | source] = () -> xor(getRegister(s));
+      instructions[0xB0 | source] = () -> or(getRegister(s));
+      instructions[0xB8 | source] = () -> cp(getRegister(s));
+    }
+    instructions[0xC6] = () -> add(fetchImmediate8());
+    instructions[0xCE] = () -> adc(fetchImmediate8());
+    instructions[0xD6] = () -> sub(fetchImmediate8());
+    instructions[0xDE] = () -> sbc(fetchImmediate8());
+    instructions[0xE6] = () -> and(fetchImmediate8());
+    instructions[0xEE] = () -> xor(fetchImmediate8());
+    instructions[0xF6] = () -> or(fetchImmediate8());
+    instructions[0xFE] = () -> cp(fetchImmediate8());
+
+    // conditional control flow
+    for (int condition = CONDITION_NZ; condition <= CONDITION_C; condition++) {
+      final int c = condition;
+      instructions[0x20 | (condition << 3)] = () -> jrCc(c);
+      instructions[0xC0 | (condition << 3)] = () -> retCc(c);
+      instructions[0xC2 | (condition << 3)] = () -> jpCc(c);
+      instructions[0xC4 | (condition << 3)] = () -> callCc(c);
+    }
+    instructions[0xC3] = this::jpA16;
+    instructions[0xC9] = this::ret;
+    instructions[0xCD] = this::callA16;
+    instructions[0xD9] = this::reti;
+    instructions[0xE9] = () -> programCounter = registersHl; // JP (HL)
+    for (int vector = 0; vector < 8; vector++) {
+      final int address = vector << 3;
+      instructions[0xC7 | (vector << 3)] = () -> rst(address);
+    }
+
+    // stack
+    instructions[0xC1] = () -> setPair(PAIR_BC, pop());
+    instructions[0xD1] = () -> setPair(PAIR_DE, pop());
+    instructions[0xE1] = () -> setPair(PAIR_HL, pop());
+    instructions[0xF1] = this::popAf;
+    instructions[0xC5] = () -> push(getPair(PAIR_BC));
+    instructions[0xD5] = () -> push(getPair(PAIR_DE));
+    instructions[0xE5] = () -> push(getPair(PAIR_HL));
+    instructions[0xF5] = this::pushAf;
+    instructions[0xE8] = () -> stackPointer = addSpR8(); // ADD SP,r8
+    instructions[0xF8] = () -> setPair(PAIR_HL, addSpR8()); // LD HL,SP+r8
+    instructions[0xF9] = () -> stackPointer = registersHl; // LD SP,HL
+
+    // high page loads: LDH (a8),A, LDH A,(a8), LD (C),A and LD A,(C); then absolute loads
+    instructions[0xE0] = () -> writeByte(0xFF00 | fetchImmediate8(), registersAf >> 8);
+    instructions[0xF0] = () -> registersAf = readByte(0xFF00 | fetchImmediate8()) << 8;
+    instructions[0xE2] = () -> writeByte(0xFF00 | (registersBc & 0xFF), registersAf >> 8);
+    instructions[0xF2] = () -> registersAf = readByte(0xFF00 | (registersBc & 0xFF)) << 8;
+    instructions[0xEA] = () -> writeByte(fetchImmediate16(), registersAf >> 8); // LD (a16),A
+    instructions[0xFA] = () -> registersAf = readByte(fetchImmediate16()) << 8; // LD A,(a16)
+  }
+
+  private void buildCbInstructionTable() {
+    for (int operand = REGISTER_B; operand <= REGISTER_A; operand++) {
+      final int r = operand;
+      cbInstructions[0x00 | operand] = () -> setRegister(r, rlc(getRegister(r)));
+      cbInstructions[0x08 | operand] = () -> setRegister(r, rrc(getRegister(r)));
+      cbInstructions[0x10 | operand] = () -> setRegister(r, rl(getRegister(r)));
+      cbInstructions[0x18 | operand] = () -> setRegister(r, rr(getRegister(r)));
+      cbInstructions[0x20 | operand] = () -> setRegister(r, sla(getRegister(r)));
+      cbInstructions[0x28 | operand] = () -> setRegister(r, sra(getRegister(r)));
+      cbInstructions[0x30 | operand] = () -> setRegister(r, swap(getRegister(r)));
+      cbInstructions[0x38 | operand] = () -> setRegister(r, srl(getRegister(r)));
+      for (int bit = 0; bit < 8; bit++) {
+        final int mask = 1 << bit;
+        cbInstructions[0x40 | (bit << 3) | operand] = () -> bit(mask, getRegister(r));
+        cbInstructions[0x80 | (bit << 3) | operand] = () -> setRegister(r, getRegister(r) & ~mask);
+        cbInstructions[0xC0 | (bit << 3) | operand] = () -> setRegister(r, getRegister(r) | mask);
+      }
+    }
+  }
+
+  /*
+   * Register, memory and operand access
+   */
+
+  private int getRegister(int register) {
+    switch (register) {
+      case REGISTER_B:
+        return registersBc >> 8;
+      case REGISTER_C:
+        return registersBc & 0xFF;
+      case REGISTER_D:
+        return registersDe >> 8;
+      case REGISTER_E:
+        return registersDe & 0xFF;
+      case REGISTER_H:
+        return registersHl >> 8;
+      case REGISTER_L:
+        return registersHl & 0xFF;
+      case REGISTER_HL_INDIRECT:
+        return readByte(registersHl);
+      default:
+        return registersAf >> 8;
+    }
+  }
+
+  private void setRegister(int register, int value) {
+    switch (register) {
+      case REGISTER_B:
+        registersBc = ((value & 0xFF) << 8) | (registersBc & 0xFF);
         break;
-      case 0x3E:
-        ldAD8();
+      case REGISTER_C:
+        registersBc = (registersBc & 0xFF00) | (value & 0xFF);
         break;
-      case 0x4F:
-        ldCa();
+      case REGISTER_D:
+        registersDe = ((value & 0xFF) << 8) | (registersDe & 0xFF);
         break;
-      case 0x77:
-        ld_Hl_A();
+      case REGISTER_E:
+        registersDe = (registersDe & 0xFF00) | (value & 0xFF);
         break;
-      case 0xAF:
-        xorA();
+      case REGISTER_H:
+        registersHl = ((value & 0xFF) << 8) | (registersHl & 0xFF);
         break;
-      case 0xC3:
-        jpA16();
+      case REGISTER_L:
+        registersHl = (registersHl & 0xFF00) | (value & 0xFF);
         break;
-      case 0xC5:
-        pushBc();
+      case REGISTER_HL_INDIRECT:
+        writeByte(registersHl, value);
         break;
-      case 0xCB:
-        // CB prefixed instruction
-        cb();
-        decodeAndExecuteCb(fetch());
+      default:
+        registersAf = (value & 0xFF) << 8;
         break;
-      case 0xCD:
-        callA16();
+    }
+  }
+
+  private int getPair(int pair) {
+    switch (pair) {
+      case PAIR_BC:
+        return registersBc;
+      case PAIR_DE:
+        return registersDe;
+      case PAIR_HL:
+        return registersHl;
+      default:
+        return stackPointer;
+    }
+  }
+
+  private void setPair(int pair, int value) {
+    switch (pair) {
+      case PAIR_BC:
+        registersBc = value & 0xFFFF;
         break;
-      case 0xE0:
-        ldh_A8_A();
+      case PAIR_DE:
+        registersDe = value & 0xFFFF;
         break;
-      case 0xE2:
-        ld_C_A();
+      case PAIR_HL:
+        registersHl = value & 0xFFFF;
         break;
-      case 0xFB:
-        ei();
+      default:
+        stackPointer = value & 0xFFFF;
         break;
+    }
+  }
+
+  /*
+   * Lazy flag evaluation
+   */
+
+  private boolean isZero() {
+    return (flagResult & 0xFF) == 0;
+  }
+
+  private boolean isCarry() {
+    return (flagCarrySource & 0x100) != 0;
+  }
+
+  private int carry() {
+    return (flagCarrySource >> 8) & 0x01;
+  }
+
+  // materializes F
+  private int getFlags() {
+    int flags = (isZero() ? 0x80 : 0) | (isCarry() ? 0x10 : 0);
+    switch (flagKind) {
+      case FLAGS_ADD:
+        return flags | (((flagOperand1 ^ flagOperand2 ^ flagResult) & 0x10) << 1);
+      case FLAGS_SUB:
+        return flags | 0x40 | (((flagOperand1 ^ flagOperand2 ^ flagResult) & 0x10) << 1);
+      case FLAGS_AND:
+        return flags | 0x20;
+      case FLAGS_NONE:
+        return flags;
       default:
-        throw new UnsupportedOperationException("Unimplemented instruction: "
-          + String.format("0x%02X", unsignedValue(memory.getByteAt(programCounter))));
+        return flags | flagBitsNh;
     }
   }
 
-  // CB-prefixed instructions are evaluated in a separate switch statement
-  private void decodeAndExecuteCb(byte opcode) {
-    switch (unsignedValue(opcode)) {
-      case 0x11:
-        rlC();
-        break;
-      case 0x7C:
-        bit7H();
-        break;
+  private void setFlags(int flags) {
+    flagResult = (flags & 0x80) != 0 ? 0 : 1;
+    flagCarrySource = (flags & 0x10) << 4;
+    flagBitsNh = flags & 0x60;
+    flagKind = FLAGS_EXPLICIT;
+  }
+
+  // records an addition or subtraction, whose half carry can be recovered from its operands
+  private void setArithmeticFlags(int kind, int operand1, int operand2, int result) {
+    flagKind = kind;
+    flagOperand1 = operand1;
+    flagOperand2 = operand2;
+    flagResult = result;
+  }
+
+  private boolean checkCondition(int condition) {
+    switch (condition) {
+      case CONDITION_NZ:
+        return !isZero();
+      case CONDITION_Z:
+        return isZero();
+      case CONDITION_NC:
+        return !isCarry();
       default:
-        throw new UnsupportedOperationException("Unimplemented CB instruction: "
-          + String.format("0x%02X", unsignedValue(memory.getByteAt(programCounter))));
+        return isCarry();
     }
   }
 
+  private int readByte(int address) {
+    return memory.getByteAt(address) & 0xFF;
+  }
+
+  private void writeByte(int address, int value) {
+    memory.setByte(address, (byte) value);
+  }
+
+  private int fetchImmediate8() {
+    int value = readByte(programCounter);
+    programCounter = (programCounter + 1) & 0xFFFF;
+    return value;
+  }
+
+  private int fetchImmediate16() {
+    int value = unsignedValue(memory.getWordAt(programCounter));
+    programCounter = (programCounter + 2) & 0xFFFF;
+    return value;
+  }
+
+  private void push(int value) {
+    stackPointer = (stackPointer - 2) & 0xFFFF;
+    memory.setWord(stackPointer, (short) value);
+  }
+
+  private int pop() {
+    int value = unsignedValue(memory.getWordAt(stackPointer));
+    stackPointer = (stackPointer + 2) & 0xFFFF;
+    return value;
+  }
+
+  private void illegalInstruction(int opcode) {
+    throw new UnsupportedOperationException("Illegal instruction: "
+      + String.format("0x%02X", opcode));
+  }
+
   /*
    * The CPU instruction implementations
    */
-  
-  // 0x05 DEC B
-  protected void decB() {
-    registerB = (byte) ((unsignedValue(registerB) - 1) % 256);
-    boolean halfCarryBefore = unsignedValue(registerB) > 0x0F ? true : false; 
-    if (registerB == 0) {
-      flagZ.set();
-    } else {
-      flagZ.reset();
-    }
-    flagN.set();
-    boolean halfCarryAfter = unsignedValue(registerB) > 0x0F ? true : false; 
-    if (halfCarryBefore == halfCarryAfter) {
-      flagH.reset();
-    } else {
-      flagH.set();
-    }
-    timerM++;
-    lastInstructionTime = 1;
-    programCounter++;
+
+  // 0x08 LD (a16),SP
+  private void ld_A16_Sp() {
+    memory.setWord(fetchImmediate16(), (short) stackPointer);
   }
 
-  // 0x06 LD B,d8
-  protected void ldBD8() {
-    registerB = memory.getByteAt(programCounter + 1);
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter += 2;
+  // 0x10 STOP
+  private void stop() {
+    programCounter = (programCounter + 1) & 0xFFFF;
+    halted = true;
   }
 
-  // 0x0D DEC C
-  protected void decC() {
-    registerC--;
-    boolean halfCarryBefore = unsignedValue(registerB) > 0x0F ? true : false; 
-    if (registerC == 0) {
-      flagZ.set();
-    } else {
-      flagZ.reset();
-    }
-    flagN.set();
-    boolean halfCarryAfter = unsignedValue(registerB) > 0x0F ? true : false; 
-    if (halfCarryBefore == halfCarryAfter) {
-      flagH.reset();
-    } else {
-      flagH.set();
+  // 0x76 HALT
+  private void halt() {
+    halted = true;
+  }
+
+  // 0xCB PREFIX CB
+  private void cb() {
+    decodeAndExecuteCb(fetch());
+  }
+
+  // 0xF3 DI
+  private void di() {
+    interruptsEnabled = false;
+  }
+
+  // 0xFB EI
+  private void ei() {
+    if (!interruptsEnabled) {
+      interruptsEnabled = true;
+      interruptsEnabledAt = timerM + lastInstructionTime;
     }
-    timerM++;
-    lastInstructionTime = 1;
-    programCounter++;
-  }
-
-  // 0x0E LD C,d8
-  protected void ldCD8() {
-    registerC = memory.getByteAt(programCounter + 1);
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter += 2;
-  }
-
-  // 0x11 LD DE,d16
-  protected void ldDeD16() {
-    registerD = memory.getByteAt(programCounter + 1); // TODO check endianness
-    registerE = memory.getByteAt(programCounter + 2);
-    timerM += 3;
-    lastInstructionTime = 3;
-    programCounter += 3;
-  }
-
-  // 0x1A LD A,(DE)
-  protected void ldA_De_() {
-    registerA = memory.getByteAt((registerD << 8) + registerE); // TODO check endianness
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter++;
-  }
-
-  // 0x20 JR NZ,r8
-  protected void jrNzR8() {
-    if (!flagZ.isSet()) {
-      programCounter += memory.getByteAt(programCounter + 1);
-      timerM += 3;
-      lastInstructionTime = 3;
+  }
+
+  // 0x22 LD (HL+),A
+  private void ld_Hlp_A() {
+    writeByte(registersHl, registersAf >> 8);
+    registersHl = (registersHl + 1) & 0xFFFF;
+  }
+
+  // 0x32 LD (HL-),A
+  private void ld_Hlm_A() {
+    writeByte(registersHl, registersAf >> 8);
+    registersHl = (registersHl - 1) & 0xFFFF;
+  }
+
+  // 0x2A LD A,(HL+)
+  private void ldA_Hlp_() {
+    registersAf = readByte(registersHl) << 8;
+    registersHl = (registersHl + 1) & 0xFFFF;
+  }
+
+  // 0x3A LD A,(HL-)
+  private void ldA_Hlm_() {
+    registersAf = readByte(registersHl) << 8;
+    registersHl = (registersHl - 1) & 0xFFFF;
+  }
+
+  // 0x07 RLCA
+  private void rlca() {
+    registersAf = rlc(registersAf >> 8) << 8;
+    flagResult = 1;
+  }
+
+  // 0x0F RRCA
+  private void rrca() {
+    registersAf = rrc(registersAf >> 8) << 8;
+    flagResult = 1;
+  }
+
+  // 0x17 RLA
+  private void rla() {
+    registersAf = rl(registersAf >> 8) << 8;
+    flagResult = 1;
+  }
+
+  // 0x1F RRA
+  private void rra() {
+    registersAf = rr(registersAf >> 8) << 8;
+    flagResult = 1;
+  }
+
+  // 0x27 DAA
+  private void daa() {
+    int flags = getFlags();
+    int value = registersAf >> 8;
+    int carry = flags & 0x10;
+    if ((flags & 0x40) == 0) {
+      if (carry != 0 || value > 0x99) {
+        value += 0x60;
+        carry = 0x10;
+      }
+      if ((flags & 0x20) != 0 || (value & 0x0F) > 0x09) {
+        value += 0x06;
+      }
     } else {
-      timerM += 2;
-      lastInstructionTime = 2;
+      if (carry != 0) {
+        value -= 0x60;
+      }
+      if ((flags & 0x20) != 0) {
+        value -= 0x06;
+      }
     }
-    programCounter += 2;
+    registersAf = (value & 0xFF) << 8;
+    setFlags(((value & 0xFF) == 0 ? 0x80 : 0) | (flags & 0x40) | carry);
   }
 
-  // 0x21 LD HL,d16
-  protected void ldHlD16() {
-    registersHl = memory.getWordAt(programCounter + 1);
-    timerM += 3;
-    lastInstructionTime = 3;
-    programCounter += 3;
+  // 0x2F CPL
+  private void cpl() {
+    registersAf ^= 0xFF00;
+    flagBitsNh = 0x60;
+    flagKind = FLAGS_EXPLICIT;
   }
 
-  // 0x31 LD SP,d16
-  protected void ldSpD16() {
-    stackPointer = unsignedValue(memory.getWordAt(programCounter + 1));
-    timerM += 3; 
-    lastInstructionTime = 3;
-    programCounter += 3;
+  // 0x37 SCF
+  private void scf() {
+    flagCarrySource = 0x100;
+    flagKind = FLAGS_NONE;
   }
-  
-  // 0x32 LD (HL-),A
-  protected void ld_Hlm_A() {
-    memory.setByte(unsignedValue(registersHl),registerA);
-    registersHl--;
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter++;
-  }
-
-  // 0x3E LD A,d8
-  protected void ldAD8() {
-    registerA = memory.getByteAt(programCounter + 1);
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter += 2;
-  }
-
-  // 0x4F LD C,A
-  protected void ldCa() {
-    registerC = registerA;
-    timerM++;
-    lastInstructionTime = 1;
-    programCounter++;
-  }
-
-  // 0x77 LD (HL),A
-  protected void ld_Hl_A() {
-    memory.setByte(unsignedValue(registersHl), registerA);
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter++;
-  }
-  
-  // 0xAF XOR A
-  protected void xorA() {
-    registerA = 0x00;
-    flagZ.set();
-    flagN.reset();
-    flagH.reset();
-    flagC.reset();
-    timerM++;
-    lastInstructionTime = 1;
-    programCounter++;
+
+  // 0x3F CCF
+  private void ccf() {
+    flagCarrySource ^= 0x100;
+    flagKind = FLAGS_NONE;
   }
 
-  // 0xC3 JP a16
-  protected void jpA16() {
-    timerM += 4;
-    lastInstructionTime = 4;
-    programCounter = unsignedValue(memory.getWordAt(programCounter + 1));
+  // 0x04-0x3C INC r
+  private int inc(int value) {
+    setArithmeticFlags(FLAGS_ADD, value, 1, value + 1);
+    return (value + 1) & 0xFF;
   }
 
-  // 0xC5 PUSH BC
-  protected void pushBc() {
-    memory.setWord(stackPointer, (short) ((registerB << 8) + registerC)); // TODO check endianness
-    stackPointer += 2;
-    timerM += 4;
-    lastInstructionTime = 4;
-    programCounter++;
+  // 0x05-0x3D DEC r
+  private int dec(int value) {
+    setArithmeticFlags(FLAGS_SUB, value, 1, value - 1);
+    return (value - 1) & 0xFF;
   }
 
-  // 0xCB PREFIX CB
-  protected void cb() {
-    //mTimer++; lastInstructionTime = 1; // TODO already accounted for?
-    programCounter++;
+  // 0x09-0x39 ADD HL,rr
+  private void addHl(int value) {
+    int result = registersHl + value;
+    flagBitsNh = (registersHl & 0x0FFF) + (value & 0x0FFF) > 0x0FFF ? 0x20 : 0;
+    flagKind = FLAGS_EXPLICIT;
+    flagCarrySource = result >> 8;
+    registersHl = result & 0xFFFF;
   }
 
-  // 0xCD CALL a16
-  protected void callA16() {
-    // write address of next instruction to stack
-    memory.setWord(stackPointer, memory.getWordAt(programCounter + 3));
+  // 0xE8 ADD SP,r8 and 0xF8 LD HL,SP+r8
+  private int addSpR8() {
+    int offset = (byte) fetchImmediate8();
+    int lowSum = (stackPointer & 0xFF) + (offset & 0xFF);
+    flagResult = 1;
+    flagBitsNh = (stackPointer & 0x0F) + (offset & 0x0F) > 0x0F ? 0x20 : 0;
+    flagKind = FLAGS_EXPLICIT;
+    flagCarrySource = lowSum;
+    return (stackPointer + offset) & 0xFFFF;
+  }
 
-    // decrement by 2 bytes (word size)
-    stackPointer -= 2;
+  // 0x80-0x87, 0xC6 ADD A,x
+  private void add(int value) {
+    int a = registersAf >> 8;
+    int result = a + value;
+    setArithmeticFlags(FLAGS_ADD, a, value, result);
+    flagCarrySource = result;
+    registersAf = (result & 0xFF) << 8;
+  }
 
-    // set PC to function address
-    programCounter = memory.getWordAt(programCounter + 1);
+  // 0x88-0x8F, 0xCE ADC A,x
+  private void adc(int value) {
+    int a = registersAf >> 8;
+    int result = a + value + carry();
+    setArithmeticFlags(FLAGS_ADD, a, value, result);
+    flagCarrySource = result;
+    registersAf = (result & 0xFF) << 8;
+  }
 
-    timerM += 3;
-    lastInstructionTime = 3;
+  // 0x90-0x97, 0xD6 SUB x
+  private void sub(int value) {
+    int a = registersAf >> 8;
+    int result = a - value;
+    setArithmeticFlags(FLAGS_SUB, a, value, result);
+    flagCarrySource = result;
+    registersAf = (result & 0xFF) << 8;
   }
 
-  // 0xE0 LDH (a8),A
-  protected void ldh_A8_A() {
-    memory.setByte(0xFF00 + unsignedValue(registerA), registerA);
-    timerM += 3;
-    lastInstructionTime = 3;
-    programCounter += 2;
+  // 0x98-0x9F, 0xDE SBC A,x
+  private void sbc(int value) {
+    int a = registersAf >> 8;
+    int result = a - value - carry();
+    setArithmeticFlags(FLAGS_SUB, a, value, result);
+    flagCarrySource = result;
+    registersAf = (result & 0xFF) << 8;
   }
 
-  // 0xE2 LD (C),A
-  protected void ld_C_A() {
-    registerA = memory.getByteAt(unsignedValue(registerC));
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter += 2;
+  // 0xA0-0xA7, 0xE6 AND x
+  private void and(int value) {
+    registersAf &= value << 8;
+    flagResult = registersAf >> 8;
+    flagKind = FLAGS_AND;
+    flagCarrySource = 0;
   }
-  
-  // 0xFB EI
-  protected void ei() {
-    memory.setByte(0xFFFF, (byte) 0xFF);
-    timerM++;
-    lastInstructionTime = 1;
-    programCounter++;
+
+  // 0xA8-0xAF, 0xEE XOR x
+  private void xor(int value) {
+    registersAf ^= value << 8;
+    flagResult = registersAf >> 8;
+    flagKind = FLAGS_NONE;
+    flagCarrySource = 0;
   }
 
-  // 0xCB11 RL C
-  protected void rlC() {
-    if (unsignedValue(registerC) >= 0x80) {
-      flagC.set();
-    } else {
-      flagC.reset();
+  // 0xB0-0xB7, 0xF6 OR x
+  private void or(int value) {
+    registersAf |= value << 8;
+    flagResult = registersAf >> 8;
+    flagKind = FLAGS_NONE;
+    flagCarrySource = 0;
+  }
+
+  // 0xB8-0xBF, 0xFE CP x
+  private void cp(int value) {
+    int a = registersAf >> 8;
+    int result = a - value;
+    setArithmeticFlags(FLAGS_SUB, a, value, result);
+    flagCarrySource = result;
+  }
+
+  // 0x18 JR r8
+  private void jrR8() {
+    int offset = (byte) fetchImmediate8();
+    programCounter = (programCounter + offset) & 0xFFFF;
+  }
+
+  // 0x20, 0x28, 0x30, 0x38 JR cc,r8
+  private void jrCc(int condition) {
+    int offset = (byte) fetchImmediate8();
+    if (checkCondition(condition)) {
+      programCounter = (programCounter + offset) & 0xFFFF;
+      lastInstructionTime += 1;
     }
-    registerC = (byte) (registerC << 1);
-    if (registerC == 0) {
-      flagZ.set();
-    } else {
-      flagZ.reset();
+  }
+
+  // 0xC3 JP a16
+  private void jpA16() {
+    programCounter = fetchImmediate16();
+  }
+
+  // 0xC2, 0xCA, 0xD2, 0xDA JP cc,a16
+  private void jpCc(int condition) {
+    int address = fetchImmediate16();
+    if (checkCondition(condition)) {
+      programCounter = address;
+      lastInstructionTime += 1;
     }
-    flagN.reset();
-    flagH.reset();
-    timerM += 2;
-    lastInstructionTime = 2;
-    programCounter ++;
   }
 
-  // 0xCB7C BIT 7,H
-  protected void bit7H() {
-    if (memory.checkBit(memory.getByteAt(programCounter + 1), 7)) {
-      flagZ.set();
-    } else {
-      flagZ.reset();
+  // 0xCD CALL a16
+  private void callA16() {
+    int address = fetchImmediate16();
+    push(programCounter);
+    programCounter = address;
+  }
+
+  // 0xC4, 0xCC, 0xD4, 0xDC CALL cc,a16
+  private void callCc(int condition) {
+    int address = fetchImmediate16();
+    if (checkCondition(condition)) {
+      push(programCounter);
+      programCounter = address;
+      lastInstructionTime += 3;
     }
-    flagN.reset();
-    flagH.set();
-    timerM += 2;
-    lastInstructionTime += 2;
-    programCounter++;
+  }
+
+  // 0xC9 RET
+  private void ret() {
+    programCounter = pop();
+  }
+
+  // 0xC0, 0xC8, 0xD0, 0xD8 RET cc
+  private void retCc(int condition) {
+    if (checkCondition(condition)) {
+      programCounter = pop();
+      lastInstructionTime += 3;
+    }
+  }
+
+  // 0xD9 RETI
+  private void reti() {
+    programCounter = pop();
+    interruptsEnabled = true;
+  }
+
+  // 0xC7-0xFF RST n
+  private void rst(int address) {
+    push(programCounter);
+    programCounter = address;
+  }
+
+  // 0xF1 POP AF
+  private void popAf() {
+    int value = pop();
+    registersAf = value & 0xFF00;
+    setFlags(value);
+  }
+
+  // 0xF5 PUSH AF
+  private void pushAf() {
+    push(registersAf | getFlags());
+  }
+
+  // 0xCB00-0xCB07 RLC r
+  private int rlc(int value) {
+    int result = ((value << 1) | (value >> 7)) & 0xFF;
+    setShiftFlags(result, value > 0x7F);
+    return result;
+  }
+
+  // 0xCB08-0xCB0F RRC r
+  private int rrc(int value) {
+    int result = ((value >> 1) | (value << 7)) & 0xFF;
+    setShiftFlags(result, (value & 0x01) != 0);
+    return result;
+  }
+
+  // 0xCB10-0xCB17 RL r
+  private int rl(int value) {
+    int result = ((value << 1) | carry()) & 0xFF;
+    setShiftFlags(result, value > 0x7F);
+    return result;
+  }
+
+  // 0xCB18-0xCB1F RR r
+  private int rr(int value) {
+    int result = (value >> 1) | (carry() << 7);
+    setShiftFlags(result, (value & 0x01) != 0);
+    return result;
+  }
+
+  // 0xCB20-0xCB27 SLA r
+  private int sla(int value) {
+    int result = (value << 1) & 0xFF;
+    setShiftFlags(result, value > 0x7F);
+    return result;
+  }
+
+  // 0xCB28-0xCB2F SRA r
+  private int sra(int value) {
+    int result = (value >> 1) | (value & 0x80);
+    setShiftFlags(result, (value & 0x01) != 0);
+    return result;
+  }
+
+  // 0xCB30-0xCB37 SWAP r
+  private int swap(int value) {
+    int result = ((value << 4) | (value >> 4)) & 0xFF;
+    setShiftFlags(result, false);
+    return result;
+  }
+
+  // 0xCB38-0xCB3F SRL r
+  private int srl(int value) {
+    int result = value >> 1;
+    setShiftFlags(result, (value & 0x01) != 0);
+    return result;
+  }
+
+  private void setShiftFlags(int result, boolean carry) {
+    flagResult = result;
+    flagKind = FLAGS_NONE;
+    flagCarrySource = carry ? 0x100 : 0;
+  }
+
+  // 0xCB40-0xCB7F BIT b,r
+  private void bit(int mask, int value) {
+    flagResult = value & mask;
+    flagKind = FLAGS_AND;
   }
 
   /**
    * The cycle time taken by the most recent instruction.
-   * 
+   *
    * @return the instruction time
    */
   public int getLastInstructionTime() {
     return lastInstructionTime;
   }
+
+  /**
+   * The total number of machine cycles executed since the CPU was created.
+   *
+   * @return the cycle count
+   */
+  @Override
+  public long getCycleCount() {
+    return timerM;
+  }
+
+  /**
+   * The total number of instructions executed since the CPU was created, not counting cycles
+   * spent halted. It is a statistic and is not part of a save state.
+   *
+   * @return the instruction count
+   */
+  public long getInstructionCount() {
+    return instructionCount;
+  }
+
+  /**
+   * The program counter.
+   *
+   * @return the address of the next instruction
+   */
+  public int getProgramCounter() {
+    return programCounter;
+  }
+
+  /**
+   * The stack pointer.
+   *
+   * @return the stack pointer
+   */
+  public int getStackPointer() {
+    return stackPointer;
+  }
+
+  /**
+   * The AF register pair, with F materialized from the flags.
+   *
+   * @return AF
+   */
+  public int getRegisterAf() {
+    return registersAf | getFlags();
+  }
+
+  /**
+   * The BC register pair.
+   *
+   * @return BC
+   */
+  public int getRegisterBc() {
+    return registersBc;
+  }
+
+  /**
+   * The DE register pair.
+   *
+   * @return DE
+   */
+  public int getRegisterDe() {
+    return registersDe;
+  }
+
+  /**
+   * The HL register pair.
+   *
+   * @return HL
+   */
+  public int getRegisterHl() {
+    return registersHl;
+  }
+
+  /**
+   * The interrupt controller, through which devices request interrupts.
+   *
+   * @return the controller
+   */
+  public InterruptController getInterrupts() {
+    return interrupts;
+  }
+
+  /**
+   * Whether the CPU is halted, waiting for an interrupt.
+   *
+   * @return true if halted
+   */
+  public boolean isHalted() {
+    return halted;
+  }
+
+  /**
+   * Writes the registers, with F materialized, the interrupt and halt state and the timers. IF and
+   * IE are in memory's state.
+   *
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.putShort((short) (registersAf | getFlags()));
+    buffer.putShort((short) registersBc);
+    buffer.putShort((short) registersDe);
+    buffer.putShort((short) registersHl);
+    buffer.putShort((short) stackPointer);
+    buffer.putShort((short) programCounter);
+    buffer.put((byte) (interruptsEnabled ? 1 : 0));
+    buffer.putLong(interruptsEnabledAt);
+    buffer.put((byte) (halted ? 1 : 0));
+    buffer.putLong(timerM);
+    buffer.put((byte) lastInstructionTime);
+  }
+
+  /**
+   * Reads state written by {@link #saveState}.
+   *
+   * @param buffer the buffer to read from
+   */
+  public void loadState(ByteBuffer buffer) {
+    int af = buffer.getShort() & 0xFFFF;
+    registersAf = af & 0xFF00;
+    setFlags(af & 0xF0);
+    registersBc = buffer.getShort() & 0xFFFF;
+    registersDe = buffer.getShort() & 0xFFFF;
+    registersHl = buffer.getShort() & 0xFFFF;
+    stackPointer = buffer.getShort() & 0xFFFF;
+    programCounter = buffer.getShort() & 0xFFFF;
+    interruptsEnabled = buffer.get() != 0;
+    interruptsEnabledAt = buffer.getLong();
+    halted = buffer.get() != 0;
+    timerM = buffer.getLong();
+    lastInstructionTime = buffer.get() & 0xFF;
+  }
+
+  /*
+   * Hooks for the recompiler. A compiled block runs the same handlers as the dispatch tables, so
+   * the two cores share all instruction semantics.
+   */
+
+  boolean isTracing() {
+    return traceLog != null;
+  }
+
+  Instruction getInstruction(int opcode) {
+    return instructions[opcode];
+  }
+
+  Instruction getCbInstruction(int opcode) {
+    return cbInstructions[opcode];
+  }
+
+  static int getCycles(int opcode) {
+    return CYCLES[opcode];
+  }
+
+  static int getCbCycles(int opcode) {
+    return CB_CYCLES[opcode];
+  }
+
+  // what decodeAndExecute does before a handler: the program counter is past the opcode
+  void enter(int programCounter, int cycles) {
+    this.programCounter = programCounter;
+    lastInstructionTime = cycles;
+  }
+
+  // what decodeAndExecute does after a handler
+  void retire() {
+    timerM += lastInstructionTime;
+    instructionCount++;
+  }
 }
@@ -0,0 +1,13 @@
+package com.emulator.gameboy.cpu;
+
+/**
+ * A pre-bound CPU instruction, as stored in the opcode dispatch tables.
+ */
+@FunctionalInterface
+interface Instruction {
+  /**
+   * Executes the instruction. The opcode has already been fetched and the program counter points
+   * at the first operand byte, if any.
+   */
+  void execute();
+}
@@ -0,0 +1,87 @@
+package com.emulator.gameboy.cpu;
+
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.MemoryHandler;
+
+/**
+ * The interrupt flags in IF ($FF0F) and the interrupt enable register IE ($FFFF).
+ *
+ * <p>Both registers keep their values in the I/O page, so they are part of a save state, but the
+ * controller also keeps IE &amp; IF as one pending mask, updated whenever either register changes.
+ * The CPU tests that mask once per instruction, a single field read, and only looks further when
+ * it is non-zero. Devices request interrupts through {@link #request(int)} rather than writing IF
+ * themselves, so the mask is never stale.
+ */
+public final class InterruptController {
+  public static final int VBLANK = 0x01;
+  public static final int LCD_STAT = 0x02;
+  public static final int TIMER = 0x04;
+  public static final int SERIAL = 0x08;
+  public static final int JOYPAD = 0x10;
+
+  private static final int IF = 0xFF0F;
+  private static final int IE = 0xFFFF;
+  private static final int ALL = 0x1F;
+
+  private final Memory memory;
+  private int pending;
+
+  /**
+   * Creates the controller with nothing requested and maps it onto IF and IE.
+   *
+   * @param memory the memory holding the registers
+   */
+  public InterruptController(Memory memory) {
+    this.memory = memory;
+    MemoryHandler registers = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        int value = memory.getIoRegister(address);
+        return (byte) (address == IF ? value | ~ALL : value);
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        memory.setIoRegister(address, address == IF ? (byte) (value & ALL) : value);
+        resynchronize();
+      }
+    };
+    memory.mapIo(IF, registers);
+    memory.mapIo(IE, registers);
+  }
+
+  /**
+   * Requests interrupts by setting their flags in IF.
+   *
+   * @param interrupts an OR of the interrupt constants
+   */
+  public void request(int interrupts) {
+    memory.setIoRegister(IF, (byte) (memory.getIoRegister(IF) | interrupts));
+    resynchronize();
+  }
+
+  /**
+   * Rebuilds the pending mask from the registers, after they were written around the controller
+   * as when a state is loaded.
+   */
+  public void resynchronize() {
+    pending = memory.getIoRegister(IE) & memory.getIoRegister(IF) & ALL;
+  }
+
+  /**
+   * The interrupts both requested and enabled, an OR of the interrupt constants.
+   *
+   * @return the pending mask, 0 if none
+   */
+  public int getPending() {
+    return pending;
+  }
+
+  // clear the flag of an interrupt being dispatched, returning its vector
+  int acknowledge() {
+    int interrupt = Integer.numberOfTrailingZeros(pending);
+    memory.setIoRegister(IF, (byte) (memory.getIoRegister(IF) & ~(1 << interrupt)));
+    resynchronize();
+    return 0x40 + interrupt * 8;
+  }
+}
@@ -0,0 +1,319 @@
+package com.emulator.gameboy.cpu;
+
+import com.emulator.gameboy.memory.Cartridge;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.WriteListener;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+/**
+ * A CPU core which compiles frequently executed basic blocks into JVM classes (see
+ * {@link BlockCompiler}) and interprets everything else with the {@link Cpu} it wraps. All
+ * registers and timing live in that Cpu, so the two cores can be swapped at any instruction.
+ *
+ * <p>Blocks are compiled in ROM, work RAM and high RAM. ROM blocks are kept per bank and per
+ * window, so a bank switch selects the blocks compiled for the new bank rather than losing any,
+ * and a bank mapped at both $0000 and $4000 has separate blocks for each, as blocks hold absolute
+ * addresses. RAM blocks are
+ * invalidated when a byte they cover is written. A block only runs if every instruction in it
+ * will start before the next scheduled event, so devices see the same timing as under the
+ * interpreter, and it returns early if a write changes code, switches a bank or moves an event
+ * forward or makes an interrupt due. Interrupts are checked between blocks, which end at every
+ * instruction that can change IME.
+ *
+ * <p>The interpreter is used throughout while the CPU is halted or an instruction trace is
+ * attached.
+ */
+public final class RecompilingCpu implements AbstractCpu {
+  // executions of an address before its block is compiled
+  static final int HOT_THRESHOLD = 32;
+
+  private static final int BANK_SIZE = 0x4000;
+  private static final int RAM_BASE = 0x8000;
+
+  private final Cpu cpu;
+  private final Memory memory;
+  private final BlockCompiler compiler;
+  private final Scheduler noEvents = new Scheduler();
+  private final WriteListener ramListener = this::ramWritten;
+  private Scheduler scheduler = noEvents;
+  private boolean codeChanged;
+
+  // blocks and execution counts within each ROM bank in each window, allocated as banks are
+  // mapped
+  private Cartridge cartridge;
+  private BlockTable[] lowRomBlocks;
+  private BlockTable[] highRomBlocks;
+  private BlockTable lowBlocks;
+  private BlockTable highBlocks;
+
+  // blocks and execution counts in $8000-$FFFF, and which bytes blocks cover
+  private final BlockTable ramBlocks = new BlockTable(0x8000);
+  private final long[] ramCode = new long[0x8000 / 64];
+  private final boolean[] watchedPages = new boolean[256];
+
+  /**
+   * A compiled block and the addresses it covers.
+   */
+  static final class Block {
+    final Instruction code;
+    final int start;
+    final int end;
+    final int cycleBudget; // cycles before the last instruction starts
+
+    Block(Instruction code, int start, int end, int cycleBudget) {
+      this.code = code;
+      this.start = start;
+      this.end = end;
+      this.cycleBudget = cycleBudget;
+    }
+  }
+
+  /**
+   * Blocks and execution counts by offset in a region. Code only ever runs in a few pages, so the
+   * tables are allocated a page at a time, the first time code runs in the page.
+   */
+  private static final class BlockTable {
+    final Block[][] blocks;
+    final byte[][] counts;
+
+    BlockTable(int size) {
+      blocks = new Block[size >> 8][];
+      counts = new byte[size >> 8][];
+    }
+
+    Block get(int index) {
+      Block[] page = blocks[index >> 8];
+      return page == null ? null : page[index & 0xFF];
+    }
+
+    // drop a block, and let its address warm up again
+    void remove(int index) {
+      Block[] page = blocks[index >> 8];
+      if (page != null) {
+        page[index & 0xFF] = null;
+        counts[index >> 8][index & 0xFF] = 0;
+      }
+    }
+  }
+
+  /**
+   * This is the recompiling core constructor.
+   *
+   * @param cpu the interpreter, which holds the CPU state
+   * @param memory the memory the CPU runs from
+   */
+  public RecompilingCpu(Cpu cpu, Memory memory) {
+    this.cpu = cpu;
+    this.memory = memory;
+    compiler = new BlockCompiler(cpu, this, memory);
+    WriteListener bankListener = (address, value) -> bankSwitched();
+    for (int page = 0x00; page < 0x80; page++) {
+      memory.addWriteListener(page, bankListener);
+    }
+    loadCartridge();
+  }
+
+  /**
+   * Runs the CPU indefinitely.
+   */
+  @Override
+  public void run() {
+    runUntil(noEvents);
+  }
+
+  /**
+   * Executes a single instruction with the interpreter.
+   */
+  @Override
+  public void step() {
+    cpu.step();
+  }
+
+  /**
+   * Executes instructions until the scheduler's next event is due, running compiled blocks where
+   * they fit before it.
+   *
+   * @param scheduler the scheduler holding the device events
+   */
+  @Override
+  public void runUntil(Scheduler scheduler) {
+    this.scheduler = scheduler;
+    // the cartridge or its banks may have changed outside any write, as when a state is loaded
+    if (memory.getCartridge() != cartridge) {
+      loadCartridge();
+    } else {
+      mapBanks();
+    }
+    while (cpu.getCycleCount() < scheduler.getNextEventTime()) {
+      if (cpu.checkInterrupts()) {
+        continue;
+      }
+      if (cpu.isHalted() || cpu.isTracing()) {
+        cpu.runUntil(scheduler);
+        return;
+      }
+      // an interrupt held off by EI is taken after one interpreted instruction
+      Block block = cpu.isInterruptPending() ? null : findBlock(cpu.getProgramCounter());
+      if (block != null && cpu.getCycleCount() + block.cycleBudget
+          < scheduler.getNextEventTime()) {
+        codeChanged = false;
+        block.code.execute();
+      } else {
+        cpu.step();
+      }
+    }
+  }
+
+  @Override
+  public long getCycleCount() {
+    return cpu.getCycleCount();
+  }
+
+  // called by compiled blocks after each instruction which can write memory; a write to IE or IF
+  // may have made an interrupt due
+  boolean mustExit() {
+    return codeChanged || cpu.getCycleCount() >= scheduler.getNextEventTime()
+        || cpu.isInterruptDue();
+  }
+
+  private Block findBlock(int address) {
+    BlockTable table;
+    int index;
+    if (address < BANK_SIZE) {
+      table = lowBlocks;
+      index = address;
+    } else if (address < RAM_BASE) {
+      table = highBlocks;
+      index = address - BANK_SIZE;
+    } else if (isRamCode(address)) {
+      table = ramBlocks;
+      index = address - RAM_BASE;
+    } else {
+      return null;
+    }
+
+    Block[] blocks = table.blocks[index >> 8];
+    if (blocks == null) {
+      blocks = new Block[0x100];
+      table.blocks[index >> 8] = blocks;
+      table.counts[index >> 8] = new byte[0x100];
+    }
+    byte[] counts = table.counts[index >> 8];
+    int offset = index & 0xFF;
+    Block block = blocks[offset];
+    if (block == null && counts[offset] < HOT_THRESHOLD && ++counts[offset] == HOT_THRESHOLD) {
+      block = compiler.compile(address, regionEnd(address));
+      blocks[offset] = block;
+      if (block != null && address >= RAM_BASE) {
+        cover(block);
+      }
+    }
+    return block;
+  }
+
+  // work RAM and high RAM; echo RAM, OAM and I/O are never compiled
+  private static boolean isRamCode(int address) {
+    return (address >= 0xC000 && address < 0xE000) || (address >= 0xFF80 && address < 0xFFFF);
+  }
+
+  private static int regionEnd(int address) {
+    if (address < BANK_SIZE) {
+      return BANK_SIZE;
+    } else if (address < RAM_BASE) {
+      return RAM_BASE;
+    } else if (address < 0xE000) {
+      return 0xE000;
+    }
+    return 0xFFFF;
+  }
+
+  private void loadCartridge() {
+    cartridge = memory.getCartridge();
+    lowRomBlocks = new BlockTable[cartridge.getRomBankCount()];
+    highRomBlocks = new BlockTable[cartridge.getRomBankCount()];
+    mapBanks();
+  }
+
+  private void bankSwitched() {
+    if (memory.getCartridge() != cartridge) {
+      loadCartridge();
+    } else {
+      mapBanks();
+    }
+    codeChanged = true;
+  }
+
+  private void mapBanks() {
+    int low = cartridge.getLowRomBank();
+    int high = cartridge.getRomBank();
+    lowBlocks = bankBlocks(lowRomBlocks, low);
+    highBlocks = bankBlocks(highRomBlocks, high);
+  }
+
+  private static BlockTable bankBlocks(BlockTable[] window, int bank) {
+    if (window[bank] == null) {
+      window[bank] = new BlockTable(BANK_SIZE);
+    }
+    return window[bank];
+  }
+
+  // mark a RAM block's bytes as code, and watch its pages and their echoes for writes
+  private void cover(Block block) {
+    setCoverage(block, true);
+    for (int page = block.start >> 8; page <= (block.end - 1) >> 8; page++) {
+      watch(page);
+      if (page >= 0xC0 && page < 0xDE) {
+        watch(page + 0x20);
+      }
+    }
+  }
+
+  private void setCoverage(Block block, boolean code) {
+    for (int address = block.start; address < block.end; address++) {
+      int index = address - RAM_BASE;
+      if (code) {
+        ramCode[index >> 6] |= 1L << index;
+      } else {
+        ramCode[index >> 6] &= ~(1L << index);
+      }
+    }
+  }
+
+  private void watch(int page) {
+    if (!watchedPages[page]) {
+      watchedPages[page] = true;
+      memory.addWriteListener(page, ramListener);
+    }
+  }
+
+  private void ramWritten(int address, byte value) {
+    if (address >= 0xE000 && address < 0xFE00) {
+      address -= 0x2000; // echo RAM
+    }
+    int index = address - RAM_BASE;
+    if ((ramCode[index >> 6] & (1L << index)) != 0) {
+      invalidate(address);
+      codeChanged = true;
+    }
+  }
+
+  // drop every block covering an address, and let its addresses warm up again
+  private void invalidate(int address) {
+    int first = Math.max(RAM_BASE, address - BlockCompiler.MAX_BYTES + 1);
+    for (int start = first; start <= address; start++) {
+      Block block = ramBlocks.get(start - RAM_BASE);
+      if (block != null && block.end > address) {
+        ramBlocks.remove(start - RAM_BASE);
+        setCoverage(block, false);
+        // blocks may overlap, so restore the coverage of any that survive
+        int from = Math.max(RAM_BASE, block.start - BlockCompiler.MAX_BYTES + 1);
+        for (int other = from; other < block.end; other++) {
+          Block survivor = ramBlocks.get(other - RAM_BASE);
+          if (survivor != null) {
+            setCoverage(survivor, true);
+          }
+        }
+      }
+    }
+  }
+}
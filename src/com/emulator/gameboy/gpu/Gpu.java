@@ -1,88 +1,147 @@
 package com.emulator.gameboy.gpu;
 
-import com.emulator.gameboy.cpu.Cpu;
+import com.emulator.gameboy.cpu.InterruptController;
 import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The GPU. Its mode changes are scheduled events, so it does no work between them: each handler
+ * performs the transition and schedules the next one.
+ *
+ * <p>A scanline is 114 machine cycles: 20 in mode 2 (OAM search), 43 in mode 3 (pixel transfer)
+ * and 51 in mode 0 (hblank). Lines 144-153 are mode 1 (vblank), making a frame 17556 cycles.
+ *
+ * <p>As on the hardware, OAM is searched once per line, at the end of mode 2, for the first 10
+ * sprites which cover the line. They are kept sorted by priority in a fixed array, so drawing the
+ * line only visits those few sprites rather than searching OAM again for each pixel.
+ */
 public final class Gpu {
-  private int mode = 0;
-  private int modeClock = 0;
+  // mode lengths in machine cycles
+  static final int OAM_SEARCH_CYCLES = 20;
+  static final int TRANSFER_CYCLES = 43;
+  static final int HBLANK_CYCLES = 51;
+  static final int LINE_CYCLES = 114;
+  static final int FRAME_CYCLES = LINE_CYCLES * 154;
+
+  /**
+   * The number of bytes {@link #saveState} writes.
+   */
+  public static final int STATE_SIZE = 19;
+
+  static final int SCREEN_WIDTH = 160;
+  static final int SCREEN_HEIGHT = 144;
+
+  // the four DMG shades, lightest first, as 0xAARRGGBB
+  static final int[] SHADES = {0xFFFFFFFF, 0xFFAAAAAA, 0xFF555555, 0xFF000000};
+
+  private static final int VISIBLE_LINES = 144;
+  private static final int LAST_LINE = 153;
+
+  static final int MAX_SPRITES = 10; // per line
+  private static final int CLAIMED = 0x04; // a line colour bit: a sprite has drawn the pixel
+
+  private int mode = 2;
   private int currScanline = 0;
-  private int mapOffset = 0;
-  private int scanlineOffset = 0;
-  @SuppressWarnings("unused") // accessor methods for screenOffset are unnecessary
-  private int screenOffset = 0;
+  private int windowLine = 0; // the window's own line counter, which skips lines it is hidden on
+  private long frameCount = 0;
+  private int frameSkip = 1;
+  private boolean drawing = true; // whether the current frame is drawn or skipped
+  private long presentNanos;
+  private int[] pixels;
+  private final int[] colors = new int[4]; // the palette for the line being drawn
+  private final int[] spriteColors = new int[8]; // OBP0 then OBP1, for the line being drawn
+  private final byte[] lineColors = new byte[SCREEN_WIDTH]; // the line's background colour numbers
+  // the OAM offsets of the line's sprites, by priority
+  private final int[] sprites = new int[MAX_SPRITES];
+  private int spriteCount;
+  private boolean unsignedTiles;
+  private final byte[] videoRam;
+  private final byte[] oam;
+  private final TileCache tiles;
   private Memory memory;
-  private Cpu cpu;
+  private Scheduler scheduler;
+  private final InterruptController interrupts;
+  private final int modeEvent;
   private Screen screen;
 
   /**
-   * This is the GPU constructor.
+   * This is the GPU constructor. It starts the first scanline at machine cycle 0.
    * 
    * @param memory the instance of memory
-   * @param cpu the instance of the CPU
-   * @param screen the instance of the screen
+   * @param scheduler the scheduler which runs the GPU's mode changes
+   * @param interrupts the controller to request the vblank interrupt from
+   * @param screen the instance of the screen, or null when running headless
    */
-  public Gpu(Memory memory, Cpu cpu, Screen screen) {
+  public Gpu(Memory memory, Scheduler scheduler, InterruptController interrupts, Screen screen) {
     this.memory = memory;
+    this.scheduler = scheduler;
+    this.interrupts = interrupts;
     this.screen = screen;
-    this.cpu = cpu;
+    pixels = screen != null ? screen.getPixels() : new int[SCREEN_WIDTH * SCREEN_HEIGHT];
+    videoRam = memory.getVideoRam();
+    oam = memory.getOam();
+    tiles = new TileCache(memory);
+    modeEvent = scheduler.register(this::changeMode);
+    setScanline(0);
+    setMode(2);
+    scheduler.schedule(modeEvent, OAM_SEARCH_CYCLES);
   }
 
-  /**
-   * Step the GPU.
-   */
-  public void step() {
-    modeClock += (cpu.getLastInstructionTime());
-
-    switch (mode) { // OAM read mode, scanline active
-      case 2:
-        if (modeClock >= 20) {
-          // Enter scanline mode 3
-          modeClock = 0;
-          mode = 3;
+  // the current mode has ended at the given cycle
+  private void changeMode(long time) {
+    switch (mode) {
+      case 2: // OAM read mode, scanline active
+        if (drawing) {
+          selectSprites();
         }
-        break; // VRAM read mode, scanline active// Treat end of mode 3 as end of scanline
-      case 3:
-        if (modeClock >= 43) {
-          // Enter hblank
-          modeClock = 0;
-          mode = 0;
-
-          // Write a scanline to the framebuffer
+        setMode(3);
+        scheduler.schedule(modeEvent, time + TRANSFER_CYCLES);
+        break;
+
+      case 3: // VRAM read mode, scanline active; treat end of mode 3 as end of scanline
+        // Enter hblank
+        setMode(0);
+
+        // Write a scanline to the framebuffer
+        if (drawing) {
           renderScanline();
-          // test rendering a scanline
-          screen.updateLine(currScanline);
         }
+        scheduler.schedule(modeEvent, time + HBLANK_CYCLES);
         break;
 
-        // Hblank
-        // After the last hblank, push the screen data to canvas
-      case 0:
-        if (modeClock >= 51) {
-          modeClock = 0;
-          currScanline++;
-
-          if (currScanline == 143) {
-            // Enter vblank
-            mode = 1;
-            //GUI.screen.repaint(); TODO
-          } else {
-            mode = 2;
+      case 0: // Hblank
+        setScanline(currScanline + 1);
+        if (currScanline == VISIBLE_LINES) {
+          // Enter vblank and show the finished frame
+          setMode(1);
+          frameCount++;
+          if (screen != null && drawing) {
+            long start = System.nanoTime();
+            pixels = screen.publishFrame();
+            presentNanos += System.nanoTime() - start;
           }
+          interrupts.request(InterruptController.VBLANK);
+          scheduler.schedule(modeEvent, time + LINE_CYCLES);
+        } else {
+          setMode(2);
+          scheduler.schedule(modeEvent, time + OAM_SEARCH_CYCLES);
         }
         break;
 
-        // Vblank (10 lines)
-      case 1:
-        if (modeClock >= 114) {
-          modeClock = 0;
-          currScanline++;
-
-          if (currScanline > 153) {
-            // Restart scanning modes
-            mode = 2;
-            currScanline = 0;
-          }
+      case 1: // Vblank (10 lines)
+        if (currScanline == LAST_LINE) {
+          // Restart scanning modes
+          windowLine = 0;
+          drawing = frameCount % frameSkip == 0;
+          setScanline(0);
+          setMode(2);
+          scheduler.schedule(modeEvent, time + OAM_SEARCH_CYCLES);
+        } else {
+          setScanline(currScanline + 1);
+          scheduler.schedule(modeEvent, time + LINE_CYCLES);
         }
         break;
       default:
@@ -90,69 +149,250 @@ public final class Gpu {
     }
   }
 
-  private void renderScanline() {
-    // VRAM offset for the tile map
-    if (memory.checkBit(memory.getByteAt(0xFF40), 3)) { // FF40 is GPU reg, bit 3 is bgmap flag
-      mapOffset = 0x1C00;
-    } else {
-      mapOffset = 0x1800;
+  // the mode is visible in the low two bits of STAT
+  private void setMode(int mode) {
+    this.mode = mode;
+    memory.setIoRegister(0xFF41, (byte) ((memory.getIoRegister(0xFF41) & ~0x03) | mode));
+  }
+
+  // LY, and the LY=LYC coincidence bit of STAT
+  private void setScanline(int line) {
+    currScanline = line;
+    memory.setIoRegister(0xFF44, (byte) line);
+    int stat = memory.getIoRegister(0xFF41) & ~0x04;
+    if ((memory.getIoRegister(0xFF45) & 0xFF) == line) {
+      stat |= 0x04;
     }
+    memory.setIoRegister(0xFF41, (byte) stat);
+  }
 
-    int scrollY = unsignedValue(memory.getByteAt(0xFF42)); // scroll Y register
-    int scrollX = unsignedValue(memory.getByteAt(0xFF43)); // scroll X register
-    int currScanline = unsignedValue(memory.getByteAt(0XFF44)); // current scanline register
+  /**
+   * Writes the mode, the scanline and window line, the frame count and the machine cycle at which
+   * the current mode ends. LY and STAT are in memory's state.
+   * 
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.put((byte) mode);
+    buffer.put((byte) currScanline);
+    buffer.put((byte) windowLine);
+    buffer.putLong(frameCount);
+    buffer.putLong(scheduler.getEventTime(modeEvent));
+  }
+
+  /**
+   * Reads state written by {@link #saveState} and reschedules the next mode change.
+   * 
+   * @param buffer the buffer to read from
+   */
+  public void loadState(ByteBuffer buffer) {
+    mode = buffer.get() & 0xFF;
+    currScanline = buffer.get() & 0xFF;
+    windowLine = buffer.get() & 0xFF;
+    frameCount = buffer.getLong();
+    scheduler.schedule(modeEvent, buffer.getLong());
+    if (mode == 3) {
+      selectSprites(); // the line being drawn needs its sprites
+    }
+  }
+
+  /**
+   * Draws only every nth frame, from the next frame on. Skipped frames are neither rendered nor
+   * shown, but their modes, LY, STAT and interrupts run exactly as usual.
+   * 
+   * @param frameSkip n, where 1 draws every frame
+   */
+  public void setFrameSkip(int frameSkip) {
+    this.frameSkip = Math.max(1, frameSkip);
+  }
+
+  /**
+   * The current mode: 0 hblank, 1 vblank, 2 OAM search or 3 pixel transfer.
+   * 
+   * @return the mode
+   */
+  public int getMode() {
+    return mode;
+  }
+
+  /**
+   * The scanline being drawn, 0-153.
+   * 
+   * @return the scanline
+   */
+  public int getScanline() {
+    return currScanline;
+  }
+
+  /**
+   * The frame being drawn, 160 pixels per row and 144 rows, as 0xAARRGGBB values. With a screen
+   * this is the screen's back buffer, which changes at every vblank.
+   * 
+   * @return the pixel array
+   */
+  public int[] getPixels() {
+    return pixels;
+  }
+
+  /**
+   * The number of frames completed, counted on entry to vblank.
+   * 
+   * @return the frame count
+   */
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  /**
+   * The wall time spent handing finished frames to the screen, which is not emulation work.
+   * 
+   * @return the total in nanoseconds
+   */
+  public long getPresentNanos() {
+    return presentNanos;
+  }
+
+  // the OAM search: the first sprites in OAM which cover the current line, sorted so that a lower
+  // X comes first and, at the same X, the earlier sprite in OAM
+  void selectSprites() {
+    spriteCount = 0;
+    byte lcdControl = memory.getIoRegister(0xFF40);
+    if (!memory.checkBit(lcdControl, 1)) {
+      return;
+    }
+    int height = memory.checkBit(lcdControl, 2) ? 16 : 8;
+    for (int entry = 0; entry < oam.length && spriteCount < MAX_SPRITES; entry += 4) {
+      int row = currScanline - ((oam[entry] & 0xFF) - 16);
+      if (row < 0 || row >= height) {
+        continue;
+      }
+      int x = oam[entry + 1] & 0xFF;
+      int i = spriteCount++;
+      while (i > 0 && (oam[sprites[i - 1] + 1] & 0xFF) > x) {
+        sprites[i] = sprites[i - 1];
+        i--;
+      }
+      sprites[i] = entry;
+    }
+  }
 
-    // Which line of tiles to use in the map
-    mapOffset += ((currScanline + scrollY) & 255) >> 3;
+  // draw the current scanline's background, window and sprites into the frame
+  void renderScanline() {
+    byte lcdControl = memory.getByteAt(0xFF40); // FF40 is the LCD control register
+    int offset = currScanline * SCREEN_WIDTH;
 
-    // Which tile to start with in the map line
-    scanlineOffset = (scrollY >> 3);
+    // with the LCD off the line is blank
+    if (!memory.checkBit(lcdControl, 7)) {
+      Arrays.fill(pixels, offset, offset + SCREEN_WIDTH, SHADES[0]);
+      return;
+    }
 
-    // Which line of pixels to use in the tiles
-    //int y = (currScanline + scrollY) & 7; TODO
+    // with the background and window disabled, only sprites are drawn
+    if (!memory.checkBit(lcdControl, 0)) {
+      Arrays.fill(pixels, offset, offset + SCREEN_WIDTH, SHADES[0]);
+      Arrays.fill(lineColors, (byte) 0);
+    } else {
+      renderBackground(lcdControl, offset);
+    }
+    if (spriteCount > 0) {
+      drawSprites(lcdControl, offset);
+    }
+  }
+
+  private void renderBackground(byte lcdControl, int offset) {
+    // Re-map the four colour numbers through the background palette once per line
+    int palette = unsignedValue(memory.getByteAt(0xFF47));
+    for (int color = 0; color < 4; color++) {
+      colors[color] = SHADES[(palette >> (color * 2)) & 0x03];
+    }
+    unsignedTiles = memory.checkBit(lcdControl, 4); // bit 4 selects tile data at $8000
 
-    // Where in the tileline to start
-    int posX = scrollX & 7;
+    int scrollY = unsignedValue(memory.getByteAt(0xFF42)); // scroll Y register
+    int scrollX = unsignedValue(memory.getByteAt(0xFF43)); // scroll X register
+    int windowY = unsignedValue(memory.getByteAt(0xFF4A)); // window Y register
+    int windowX = unsignedValue(memory.getByteAt(0xFF4B)) - 7; // window X register, plus 7
+    boolean window = memory.checkBit(lcdControl, 5) && currScanline >= windowY
+        && windowX < SCREEN_WIDTH;
+    int backgroundEnd = window ? Math.max(windowX, 0) : SCREEN_WIDTH;
 
-    // Where to render on the screen
-    screenOffset = currScanline * 160 * 4;
+    // bit 3 selects the background map at $9C00, bit 6 the window map
+    int mapOffset = memory.checkBit(lcdControl, 3) ? 0x1C00 : 0x1800;
+    drawTiles(mapOffset, (currScanline + scrollY) & 255, scrollX, offset, 0, backgroundEnd);
+    if (window) {
+      mapOffset = memory.checkBit(lcdControl, 6) ? 0x1C00 : 0x1800;
+      drawTiles(mapOffset, windowLine, windowX < 0 ? -windowX : 0, offset, backgroundEnd,
+          SCREEN_WIDTH);
+      windowLine++;
+    }
+  }
 
-    // Read tile index from the background map
-    //int[] color = new int[4]; // TODO
-    int tile = unsignedValue(memory.getByteAt(0x8000 + mapOffset + scanlineOffset));
+  // draw pixels [from, to) of a line from a tile map, starting at mapX within the map's row y
+  private void drawTiles(int mapOffset, int y, int mapX, int offset, int from, int to) {
+    byte[] tileColors = tiles.getColors();
+    int mapRow = mapOffset + ((y >> 3) << 5);
+    int tileRow = y & 7;
+    int x = from;
+    while (x < to) {
+      // Read tile index from the map; with tile data at $8800 the indices are signed
+      int tile = unsignedValue(videoRam[mapRow + ((mapX >> 3) & 31)]);
+      if (!unsignedTiles && tile < 128) {
+        tile += 256;
+      }
+      int index = tiles.row(tile, tileRow) + (mapX & 7);
 
-    // If the tile data set in use is #1, the
-    // indices are signed; calculate a real tile offset
-    if (memory.checkBit(memory.getByteAt(0xFF40), 4) && tile < 128) { //FF40 is gpu reg bit 4 bgtile
-      tile += 256;
+      // Plot the rest of the tile's row through the palette
+      int end = Math.min(to, x + 8 - (mapX & 7));
+      mapX += end - x;
+      while (x < end) {
+        byte color = tileColors[index++];
+        lineColors[x] = color;
+        pixels[offset + x++] = colors[color];
+      }
     }
+  }
 
-    for (int i = 0; i < 160; i++) {
-      // Re-map the tile pixel through the palette
-      //color = GPU._pal[GPU._tileset[tile][y][x]]; TODO
-
-      // Plot the pixel to canvas
-
-      //GPU._scrn.data[screenOffset+0] = color[0];
-      //GPU._scrn.data[screenOffset+1] = color[1];
-      //GPU._scrn.data[screenOffset+2] = color[2];
-      //GPU._scrn.data[screenOffset+3] = color[3];
-      //GUI.screen.bufferedImage.setRGB(cc, currScanline, color[0]); //Color.BLACK.getRGB() ); TODO
-      screenOffset += 4;
-
-      // When this tile ends, read another
-      posX++;
-      if (posX == 8) {
-        posX = 0;
-        scanlineOffset = (scanlineOffset + 1) & 31;
-        tile = unsignedValue(memory.getByteAt(0x8000 + mapOffset + scanlineOffset));
-        if (memory.checkBit(memory.getByteAt(0xFF40), 4) && tile < 128) {
-          tile += 256;
+  // draw the line's sprites in priority order; each pixel shows the first sprite opaque there,
+  // unless that sprite is behind the background and the background is not colour 0
+  private void drawSprites(byte lcdControl, int offset) {
+    for (int color = 0; color < 4; color++) {
+      spriteColors[color] = SHADES[(memory.getByteAt(0xFF48) >> (color * 2)) & 0x03];
+      spriteColors[color + 4] = SHADES[(memory.getByteAt(0xFF49) >> (color * 2)) & 0x03];
+    }
+    byte[] tileColors = tiles.getColors();
+    int height = memory.checkBit(lcdControl, 2) ? 16 : 8;
+    for (int i = 0; i < spriteCount; i++) {
+      int entry = sprites[i];
+      int left = (oam[entry + 1] & 0xFF) - 8;
+      int flags = oam[entry + 3];
+      int row = currScanline - ((oam[entry] & 0xFF) - 16);
+      if ((flags & 0x40) != 0) {
+        row = height - 1 - row; // Y flip
+      }
+      int tile = oam[entry + 2] & 0xFF; // sprites always use tile data at $8000
+      if (height == 16) {
+        tile = (tile & 0xFE) + (row >> 3);
+      }
+      int index = tiles.row(tile, row & 7);
+      int step = 1;
+      if ((flags & 0x20) != 0) {
+        index += 7; // X flip
+        step = -1;
+      }
+      int palette = (flags & 0x10) >> 2;
+      boolean behind = (flags & 0x80) != 0;
+      for (int x = left; x < left + 8; x++, index += step) {
+        int color = tileColors[index];
+        if (x < 0 || x >= SCREEN_WIDTH || color == 0 || (lineColors[x] & CLAIMED) != 0) {
+          continue;
         }
+        if (!behind || lineColors[x] == 0) {
+          pixels[offset + x] = spriteColors[palette + color];
+        }
+        lineColors[x] |= CLAIMED;
       }
     }
   }
-  
+
   /**
    * Returns the unsigned value of a signed byte.
    * 
@@ -2,6 +2,7 @@ package com.emulator.gameboy.gpu;
 
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 import javax.swing.JPanel;
 
@@ -9,16 +10,20 @@ public final class Screen extends JPanel {
 
   private static final long serialVersionUID = -2503328183457416852L;
   private int scale = 2;
-  private BufferedImage bufferedImage;
-  @SuppressWarnings("unused") // accessor methods for graphics object are unnecessary
-  private Graphics graphics;
+  // one image per frame buffer: drawn into, latest finished, and shown
+  private BufferedImage[] bufferedImages = new BufferedImage[3];
+  private TripleBuffer frames;
 
   /**
    * This is the screen constructor.
    */
   public Screen() {
-    bufferedImage = new BufferedImage(160,144,BufferedImage.TYPE_INT_RGB);
-    graphics = bufferedImage.getGraphics();
+    int[][] pixels = new int[bufferedImages.length][];
+    for (int i = 0; i < bufferedImages.length; i++) {
+      bufferedImages[i] = new BufferedImage(160,144,BufferedImage.TYPE_INT_RGB);
+      pixels[i] = ((DataBufferInt) bufferedImages[i].getRaster().getDataBuffer()).getData();
+    }
+    frames = new TripleBuffer(pixels);
   }
 
   public void setScale(int scale) {
@@ -26,19 +31,33 @@ public final class Screen extends JPanel {
   }
   
   /**
-   * Updates a scanline in the image buffer that represents the screen.
-   * @param line the scanline to be updated
+   * The pixels of the image to draw the current frame into, 160 per row and 144 rows, as
+   * 0xAARRGGBB values. The GPU renders straight into this array.
+   * 
+   * @return the pixel array
    */
-  public void updateLine(int line) {
-    // TODO
-    // pixels can be set e.g.
-    // GUI.screen.bufferedImage.setRGB(cc, rc, ((cc+rc)*5)%256); //Color.BLACK.getRGB() );
+  public int[] getPixels() {
+    return frames.getBack();
+  }
 
+  /**
+   * Hands the frame drawn into {@link #getPixels()} to the display and asks for a repaint. Called
+   * by the emulation thread; it never waits for painting.
+   * 
+   * @return the pixel array to draw the next frame into
+   */
+  public int[] publishFrame() {
+    int[] next = frames.publish();
+    repaint();
+    return next;
   }
 
+  /**
+   * Paints the latest complete frame.
+   */
   @Override
   public void paint(Graphics graphics) {
-    graphics.drawImage(bufferedImage, 0, 0, 160 * scale, 144 * scale, null);
+    graphics.drawImage(bufferedImages[frames.acquire()], 0, 0, 160 * scale, 144 * scale, null);
   }
 
 }
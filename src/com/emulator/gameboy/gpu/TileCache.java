@@ -0,0 +1,76 @@
+package com.emulator.gameboy.gpu;
+
+import com.emulator.gameboy.memory.Memory;
+
+import java.util.Arrays;
+
+/**
+ * The 384 tiles in $8000-$97FF, decoded into 8x8 colour numbers.
+ *
+ * <p>Writes to tile data mark that tile dirty, and a dirty tile is decoded again the next time it
+ * is drawn, so drawing a tile row is a run of array reads rather than bit-plane arithmetic per
+ * pixel.
+ */
+final class TileCache {
+  static final int TILE_COUNT = 384;
+
+  private final byte[] videoRam;
+  private final byte[] colors = new byte[TILE_COUNT * 64]; // 64 colour numbers per tile
+  private final boolean[] dirty = new boolean[TILE_COUNT];
+
+  /**
+   * Creates a cache over a memory's video RAM, and starts watching tile data for writes.
+   *
+   * @param memory the instance of memory
+   */
+  TileCache(Memory memory) {
+    videoRam = memory.getVideoRam();
+    invalidateAll();
+    for (int page = 0x80; page < 0x98; page++) {
+      memory.addWriteListener(page, (address, value) -> dirty[(address - 0x8000) >> 4] = true);
+    }
+  }
+
+  /**
+   * Marks every tile dirty, for when video RAM has been replaced wholesale.
+   */
+  void invalidateAll() {
+    Arrays.fill(dirty, true);
+  }
+
+  /**
+   * The decoded colour numbers, 8 per row and 64 per tile.
+   *
+   * @return the colour array
+   */
+  byte[] getColors() {
+    return colors;
+  }
+
+  /**
+   * Finds a row of a tile, decoding the tile first if it has been written since.
+   *
+   * @param tile the tile number, 0-383
+   * @param row the row, 0-7
+   * @return the index in {@link #getColors()} of the row's leftmost colour number
+   */
+  int row(int tile, int row) {
+    if (dirty[tile]) {
+      decode(tile);
+    }
+    return (tile << 6) + (row << 3);
+  }
+
+  // combine each row's two bit planes; the leftmost pixel is bit 7
+  private void decode(int tile) {
+    int index = tile << 6;
+    for (int address = tile << 4; address < (tile << 4) + 16; address += 2) {
+      int low = videoRam[address] & 0xFF;
+      int high = videoRam[address + 1] & 0xFF;
+      for (int bit = 7; bit >= 0; bit--) {
+        colors[index++] = (byte) (((high >> bit) & 1) << 1 | ((low >> bit) & 1));
+      }
+    }
+    dirty[tile] = false;
+  }
+}
@@ -0,0 +1,60 @@
+package com.emulator.gameboy.gpu;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Three frame buffers shared between the emulation thread, which draws into the back buffer, and
+ * the painting thread, which shows the front buffer. The third buffer holds the latest finished
+ * frame and changes hands with a single atomic swap, so neither thread ever waits for the other
+ * and a frame is never shown half drawn.
+ */
+final class TripleBuffer {
+  // set in the middle index while it holds a frame the painter has not taken yet
+  private static final int FRESH = 4;
+
+  private final int[][] buffers;
+  private final AtomicInteger middle = new AtomicInteger(1);
+  private int back = 0; // only touched by the emulation thread
+  private int front = 2; // only touched by the painting thread
+
+  /**
+   * Creates the exchange over three buffers.
+   *
+   * @param buffers the three buffers
+   */
+  TripleBuffer(int[][] buffers) {
+    this.buffers = buffers;
+  }
+
+  /**
+   * The buffer to draw the current frame into.
+   *
+   * @return the back buffer
+   */
+  int[] getBack() {
+    return buffers[back];
+  }
+
+  /**
+   * Publishes the back buffer as the latest finished frame. Called by the emulation thread.
+   *
+   * @return the buffer to draw the next frame into
+   */
+  int[] publish() {
+    back = middle.getAndSet(back | FRESH) & ~FRESH;
+    return buffers[back];
+  }
+
+  /**
+   * Takes the latest finished frame, if one has been published since the last call. Called by
+   * the painting thread.
+   *
+   * @return the index of the buffer to show
+   */
+  int acquire() {
+    if ((middle.get() & FRESH) != 0) {
+      front = middle.getAndSet(front) & ~FRESH;
+    }
+    return front;
+  }
+}
@@ -1,12 +1,16 @@
 package com.emulator.gui;
 
+import com.emulator.gameboy.FastForward;
 import com.emulator.gameboy.gpu.Screen;
-import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.joypad.Joypad;
 
 import java.awt.Dimension;
+import java.awt.KeyboardFocusManager;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.swing.AbstractAction;
 import javax.swing.JCheckBoxMenuItem;
@@ -15,28 +19,34 @@ import javax.swing.JFrame;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.KeyStroke;
 import javax.swing.filechooser.FileFilter;
 
 public final class Gui implements ActionListener {
   private JFrame frame;
   private JMenuBar menuBar;
   private JMenu fileMenu;
+  private JMenu emulationMenu;
   private JMenu windowSizeMenu;
   private JMenuItem fileLoadMenuItem;
   private JMenuItem exitMenuItem;
+  private JCheckBoxMenuItem fastForwardMenuItem;
   private JCheckBoxMenuItem nativeResMenuItem;
   private JCheckBoxMenuItem twoXMenuItem;
   private JCheckBoxMenuItem threeXMenuItem;
   private Screen screen;
   private JFileChooser fileChooser;
+  private volatile int buttons; // held joypad buttons, set on the event thread
+  private volatile boolean rewinding; // R held, set on the event thread
+  private final AtomicReference<String> romToLoad = new AtomicReference<>(); // chosen, not loaded
   int defaultScale;
 
   /**
    * This is the GUI constructor.
    * 
-   * @param memory the instance of memory
+   * @param fastForward the fast-forward switch the emulation loop reads
    */
-  public Gui(Memory memory) {
+  public Gui(FastForward fastForward) {
     defaultScale = 2;
     frame = new JFrame();
     menuBar = new JMenuBar();
@@ -71,8 +81,7 @@ public final class Gui implements ActionListener {
       public void actionPerformed(ActionEvent event) {
         int status = fileChooser.showOpenDialog(fileChooser.getParent());
         if (status == JFileChooser.APPROVE_OPTION) {
-          String rom = fileChooser.getSelectedFile().getAbsolutePath();
-          memory.loadRom(rom);
+          romToLoad.set(fileChooser.getSelectedFile().getAbsolutePath());
         }
       }
     });
@@ -87,6 +96,20 @@ public final class Gui implements ActionListener {
     });
     fileMenu.add(exitMenuItem);
 
+    // build the emulation menu
+    emulationMenu = new JMenu("Emulation");
+    menuBar.add(emulationMenu);
+
+    fastForwardMenuItem = new JCheckBoxMenuItem(new AbstractAction("Fast forward") {
+      private static final long serialVersionUID = 3279815404524431378L;
+      @Override
+      public void actionPerformed(ActionEvent event) {
+        fastForward.setEnabled(fastForwardMenuItem.isSelected());
+      }
+    });
+    fastForwardMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F, 0));
+    emulationMenu.add(fastForwardMenuItem);
+
     // build the window size menu
     windowSizeMenu = new JMenu("Window Size");
     menuBar.add(windowSizeMenu);
@@ -128,6 +151,24 @@ public final class Gui implements ActionListener {
     });
     windowSizeMenu.add(threeXMenuItem);
 
+    // the joypad: arrow keys, Z for A, X for B, Enter for Start and Backspace for Select; R held
+    // rewinds
+    KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(event -> {
+      int button = button(event.getKeyCode());
+      if (button != 0 && event.getID() == KeyEvent.KEY_PRESSED) {
+        buttons |= button;
+      } else if (button != 0 && event.getID() == KeyEvent.KEY_RELEASED) {
+        buttons &= ~button;
+      } else if (event.getKeyCode() == KeyEvent.VK_R) {
+        if (event.getID() == KeyEvent.KEY_PRESSED) {
+          rewinding = true;
+        } else if (event.getID() == KeyEvent.KEY_RELEASED) {
+          rewinding = false;
+        }
+      }
+      return false;
+    });
+
     frame.setResizable(false);
     frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     frame.setJMenuBar(menuBar);
@@ -138,6 +179,29 @@ public final class Gui implements ActionListener {
     frame.setVisible(true);
   }
 
+  private static int button(int keyCode) {
+    switch (keyCode) {
+      case KeyEvent.VK_RIGHT:
+        return Joypad.RIGHT;
+      case KeyEvent.VK_LEFT:
+        return Joypad.LEFT;
+      case KeyEvent.VK_UP:
+        return Joypad.UP;
+      case KeyEvent.VK_DOWN:
+        return Joypad.DOWN;
+      case KeyEvent.VK_Z:
+        return Joypad.A;
+      case KeyEvent.VK_X:
+        return Joypad.B;
+      case KeyEvent.VK_BACK_SPACE:
+        return Joypad.SELECT;
+      case KeyEvent.VK_ENTER:
+        return Joypad.START;
+      default:
+        return 0;
+    }
+  }
+
   private void rescale(int scale) {
     screen.setScale(scale);
     screen.repaint();
@@ -154,6 +218,34 @@ public final class Gui implements ActionListener {
     return screen;
   }
 
+  /**
+   * The joypad buttons held on the keyboard, for the emulation loop to latch before each frame.
+   * 
+   * @return the held buttons, an OR of the {@link Joypad} button constants
+   */
+  public int getButtons() {
+    return buttons;
+  }
+
+  /**
+   * Takes the ROM last chosen from the File menu. The emulation loop loads it between frames, so
+   * memory is only ever changed on the emulation thread.
+   * 
+   * @return the ROM's path, or null if none was chosen since the last call
+   */
+  public String takeRomToLoad() {
+    return romToLoad.getAndSet(null);
+  }
+
+  /**
+   * Whether the rewind key is held, for the emulation loop to step back rather than forward.
+   * 
+   * @return true while rewinding
+   */
+  public boolean isRewinding() {
+    return rewinding;
+  }
+
   @Override
   public void actionPerformed(ActionEvent arg0) {
     // TODO Auto-generated method stub
@@ -0,0 +1,88 @@
+package com.emulator.gameboy.joypad;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.MemoryHandler;
+
+/**
+ * The joypad, read through the P1 register at $FF00.
+ *
+ * <p>The game writes bits 4 and 5 to select the direction keys, the action buttons or both, and
+ * reads the selected keys back in bits 0-3, where 0 means pressed. The selection is kept in the
+ * register's own storage, so it is part of a save state; which buttons are held is input, not
+ * state.
+ *
+ * <p>Buttons are set by the emulation thread between frames, never while a frame runs, so that the
+ * same input at the same frames always gives the same run. A button going down on a selected line
+ * requests the joypad interrupt.
+ */
+public final class Joypad {
+  public static final int RIGHT = 0x01;
+  public static final int LEFT = 0x02;
+  public static final int UP = 0x04;
+  public static final int DOWN = 0x08;
+  public static final int A = 0x10;
+  public static final int B = 0x20;
+  public static final int SELECT = 0x40;
+  public static final int START = 0x80;
+
+  private static final int REGISTER = 0xFF00;
+  private static final int SELECT_DIRECTIONS = 0x10; // 0 selects
+  private static final int SELECT_ACTIONS = 0x20;
+
+  private final Memory memory;
+  private final InterruptController interrupts;
+  private int buttons;
+
+  /**
+   * Creates the joypad with nothing pressed and maps it onto P1.
+   *
+   * @param memory the memory to map it into
+   * @param interrupts the controller to request the joypad interrupt from
+   */
+  public Joypad(Memory memory, InterruptController interrupts) {
+    this.memory = memory;
+    this.interrupts = interrupts;
+    memory.mapIo(REGISTER, new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        return (byte) (0xC0 | (memory.getIoRegister(REGISTER) & 0x30) | lines());
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        memory.setIoRegister(REGISTER, (byte) (value & 0x30));
+      }
+    });
+  }
+
+  /**
+   * Sets which buttons are held.
+   *
+   * @param buttons the held buttons, an OR of the button constants
+   */
+  public void setButtons(int buttons) {
+    int before = lines();
+    this.buttons = buttons & 0xFF;
+    if ((before & ~lines()) != 0) {
+      interrupts.request(InterruptController.JOYPAD);
+    }
+  }
+
+  public int getButtons() {
+    return buttons;
+  }
+
+  // the low nibble of P1: the selected keys, 0 where pressed
+  private int lines() {
+    int select = memory.getIoRegister(REGISTER);
+    int lines = 0x0F;
+    if ((select & SELECT_DIRECTIONS) == 0) {
+      lines &= ~buttons;
+    }
+    if ((select & SELECT_ACTIONS) == 0) {
+      lines &= ~(buttons >> 4);
+    }
+    return lines & 0x0F;
+  }
+}
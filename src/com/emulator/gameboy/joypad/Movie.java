@@ -0,0 +1,199 @@
+package com.emulator.gameboy.joypad;
+
+import com.emulator.gameboy.BatchRunner;
+import com.emulator.gameboy.memory.Memory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A recording of joypad input, frame by frame, from power-on. Replaying it into a machine running
+ * the same ROM from power-on repeats the run exactly, since nothing else reaches the machine from
+ * outside.
+ *
+ * <p>Only changes are kept: the file is the {@link #MAGIC} number, the {@link #VERSION}, the
+ * ROM's global checksum and the movie's length in frames, followed by one entry per change of the
+ * held buttons, the frames since the previous change as an unsigned varint and then the buttons as
+ * a byte. A few minutes of play is typically a few kilobytes.
+ */
+public final class Movie {
+  public static final int MAGIC = 0x47424D56; // "GBMV"
+  public static final short VERSION = 1;
+
+  private final int romChecksum;
+  private final long length;
+  private final long[] frames; // the frame of each change, ascending
+  private final byte[] buttons; // the buttons held from that frame
+
+  Movie(int romChecksum, long length, long[] frames, byte[] buttons) {
+    this.romChecksum = romChecksum;
+    this.length = length;
+    this.frames = frames;
+    this.buttons = buttons;
+  }
+
+  /**
+   * Reads a movie file.
+   *
+   * @param path the file
+   * @return the movie
+   * @throws IOException if the file cannot be read or is not a movie
+   */
+  public static Movie read(Path path) throws IOException {
+    try (InputStream stream = Files.newInputStream(path)) {
+      return read(stream);
+    }
+  }
+
+  /**
+   * Reads a movie from a stream.
+   *
+   * @param stream the movie as written by {@link #write(OutputStream)}
+   * @return the movie
+   * @throws IOException if the stream cannot be read or is not a movie
+   */
+  public static Movie read(InputStream stream) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(stream));
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not an input movie");
+    }
+    short version = input.readShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported movie version: " + version);
+    }
+    int romChecksum = input.readUnsignedShort();
+    long length = input.readLong();
+    long[] frames = new long[64];
+    byte[] buttons = new byte[64];
+    int count = 0;
+    long frame = 0;
+    while (true) {
+      try {
+        frame += readVarLong(input);
+      } catch (EOFException ex) {
+        break;
+      }
+      if (count == frames.length) {
+        frames = Arrays.copyOf(frames, count * 2);
+        buttons = Arrays.copyOf(buttons, count * 2);
+      }
+      frames[count] = frame;
+      buttons[count++] = input.readByte();
+    }
+    return new Movie(romChecksum, length, Arrays.copyOf(frames, count),
+        Arrays.copyOf(buttons, count));
+  }
+
+  /**
+   * Writes the movie to a file.
+   *
+   * @param path the file
+   * @throws IOException if the file cannot be written
+   */
+  public void write(Path path) throws IOException {
+    try (OutputStream stream = Files.newOutputStream(path)) {
+      write(stream);
+    }
+  }
+
+  /**
+   * Writes the movie to a stream, which is left open.
+   *
+   * @param stream the destination
+   * @throws IOException if writing fails
+   */
+  public void write(OutputStream stream) throws IOException {
+    DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+    output.writeInt(MAGIC);
+    output.writeShort(VERSION);
+    output.writeShort(romChecksum);
+    output.writeLong(length);
+    long previous = 0;
+    for (int i = 0; i < frames.length; i++) {
+      writeVarLong(output, frames[i] - previous);
+      output.writeByte(buttons[i]);
+      previous = frames[i];
+    }
+    output.flush();
+  }
+
+  /**
+   * The global checksum from the header of the ROM the movie was recorded on.
+   *
+   * @return the checksum
+   */
+  public int getRomChecksum() {
+    return romChecksum;
+  }
+
+  /**
+   * The number of frames recorded.
+   *
+   * @return the frame count
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * The buttons held during a frame; after the end of the movie, the last buttons held.
+   *
+   * @param frame the number of frames completed since power-on
+   * @return the held buttons, an OR of the {@link Joypad} button constants
+   */
+  public int getButtons(long frame) {
+    int index = Arrays.binarySearch(frames, frame);
+    if (index < 0) {
+      index = -index - 2; // the change before
+    }
+    return index < 0 ? 0 : buttons[index] & 0xFF;
+  }
+
+  /**
+   * Input which plays the movie into a machine, for a {@link com.emulator.gameboy.HeadlessRunner}
+   * or a {@link BatchRunner}.
+   *
+   * @return the input
+   */
+  public BatchRunner.Input player() {
+    return (gameBoy, frame) -> gameBoy.getJoypad().setButtons(getButtons(frame));
+  }
+
+  /**
+   * The global checksum in a loaded ROM's header, which tells games apart.
+   *
+   * @param memory the memory the ROM is loaded into
+   * @return the checksum
+   */
+  public static int romChecksum(Memory memory) {
+    return (memory.getByteAt(0x014E) & 0xFF) << 8 | memory.getByteAt(0x014F) & 0xFF;
+  }
+
+  private static long readVarLong(DataInputStream input) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int next = input.readUnsignedByte();
+      value |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+
+  private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+}
@@ -0,0 +1,62 @@
+package com.emulator.gameboy.joypad;
+
+import java.util.Arrays;
+
+/**
+ * Records the buttons held at each frame into a {@link Movie}, keeping only the changes.
+ */
+public final class MovieRecorder {
+  private final int romChecksum;
+  private long[] frames = new long[64];
+  private byte[] buttons = new byte[64];
+  private int count;
+  private int held;
+  private long length;
+
+  /**
+   * Starts a recording, which must begin at power-on to replay faithfully.
+   *
+   * @param romChecksum the ROM's global checksum, from {@link Movie#romChecksum}
+   */
+  public MovieRecorder(int romChecksum) {
+    this.romChecksum = romChecksum;
+  }
+
+  /**
+   * Records the buttons held during a frame. Called by the emulation loop before each frame, with
+   * the same buttons it gives the joypad.
+   *
+   * @param frame the number of frames completed since power-on
+   * @param held the held buttons
+   * @throws IllegalArgumentException if the frame is before one already recorded
+   */
+  public void record(long frame, int held) {
+    if (frame < length - 1) {
+      throw new IllegalArgumentException("Frame " + frame + " is before frame " + (length - 1));
+    }
+    held &= 0xFF;
+    if (held != this.held) {
+      if (count > 0 && frames[count - 1] == frame) {
+        count--; // changed again within the frame
+      }
+      if (count == frames.length) {
+        frames = Arrays.copyOf(frames, count * 2);
+        buttons = Arrays.copyOf(buttons, count * 2);
+      }
+      frames[count] = frame;
+      buttons[count++] = (byte) held;
+      this.held = held;
+    }
+    length = frame + 1;
+  }
+
+  /**
+   * The recording so far.
+   *
+   * @return the movie
+   */
+  public Movie toMovie() {
+    return new Movie(romChecksum, length, Arrays.copyOf(frames, count),
+        Arrays.copyOf(buttons, count));
+  }
+}
@@ -0,0 +1,395 @@
+package com.emulator.gameboy.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A game cartridge: the ROM, any cartridge RAM, and the memory bank controller (MBC) which maps
+ * them into $0000-$7FFF and $A000-$BFFF.
+ *
+ * <p>The ROM is never copied. It is read straight out of a read-only buffer, normally a mapping of
+ * the ROM file, and switching the $4000-$7FFF window only moves the offset that window reads from.
+ *
+ * <p>Supported controllers are none (32k ROM only), MBC1, MBC3 and MBC5. The MBC3 clock registers
+ * can be selected, written and latched, but the clock does not advance.
+ */
+public final class Cartridge {
+  private static final int ROM_BANK_SIZE = 0x4000;
+  private static final int RAM_BANK_SIZE = 0x2000;
+
+  // cartridge header fields
+  private static final int HEADER_TYPE = 0x0147;
+  private static final int HEADER_RAM_SIZE = 0x0149;
+
+  private static final int MBC_NONE = 0;
+  private static final int MBC_1 = 1;
+  private static final int MBC_3 = 3;
+  private static final int MBC_5 = 5;
+
+  private final ByteBuffer rom;
+  private final byte[] romArray;
+  private final int romSize;
+  private final int romBankCount;
+  private final int mbc;
+  private final byte[] ram;
+  private final int ramMask;
+  private final byte[] clockRegisters = new byte[5];
+  private final byte[] latchedClockRegisters = new byte[5];
+
+  // offsets added to an address in $0000-$3FFF and $4000-$7FFF to index the ROM
+  private int lowBankOffset = 0;
+  private int highBankOffset = 0;
+  private int ramBankBase = 0;
+  private boolean ramEnabled = false;
+
+  // bank registers, as last written
+  private int romBankLow = 1;
+  private int romBankHigh = 0;
+  private int ramBank = 0;
+  private int bankingMode = 0;
+  private int clockLatch = 1;
+
+  /**
+   * Creates a cartridge around a ROM image.
+   *
+   * @param rom the ROM, which is read from absolute positions and never modified
+   * @throws UnsupportedOperationException if the cartridge type is not supported
+   */
+  public Cartridge(ByteBuffer rom) {
+    this(rom, null);
+  }
+
+  /**
+   * Creates a cartridge around a ROM image on the heap. Memory reads such a ROM directly from the
+   * array.
+   *
+   * @param rom the ROM, which must not be modified afterwards
+   * @throws UnsupportedOperationException if the cartridge type is not supported
+   */
+  public Cartridge(byte[] rom) {
+    this(ByteBuffer.wrap(rom).asReadOnlyBuffer(), rom);
+  }
+
+  /**
+   * Creates a cartridge around a shared ROM image.
+   *
+   * @param image the ROM image
+   * @throws UnsupportedOperationException if the cartridge type is not supported
+   */
+  public Cartridge(RomImage image) {
+    this(image.getBytes());
+  }
+
+  private Cartridge(ByteBuffer rom, byte[] romArray) {
+    this.rom = rom;
+    this.romArray = romArray;
+    romSize = rom.capacity();
+    romBankCount = Math.max(2, (romSize + ROM_BANK_SIZE - 1) / ROM_BANK_SIZE);
+    int type = romSize > HEADER_TYPE ? rom.get(HEADER_TYPE) & 0xFF : 0;
+    mbc = controllerFor(type);
+    ram = new byte[romSize > HEADER_RAM_SIZE ? ramSizeFor(rom.get(HEADER_RAM_SIZE)) : 0];
+    ramMask = ram.length - 1;
+    // without a controller there is no enable register, and RAM is always reachable
+    ramEnabled = mbc == MBC_NONE && ram.length > 0;
+  }
+
+  /**
+   * Maps a ROM file read-only. The mapping is shared with the operating system's page cache, so
+   * loading is near-instant and the ROM takes no heap space.
+   *
+   * @param path the path of the ROM
+   * @return the cartridge
+   * @throws IOException if the file cannot be mapped
+   */
+  public static Cartridge open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return new Cartridge(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  private static int controllerFor(int type) {
+    switch (type) {
+      case 0x00:
+      case 0x08:
+      case 0x09:
+        return MBC_NONE;
+      case 0x01:
+      case 0x02:
+      case 0x03:
+        return MBC_1;
+      case 0x0F:
+      case 0x10:
+      case 0x11:
+      case 0x12:
+      case 0x13:
+        return MBC_3;
+      case 0x19:
+      case 0x1A:
+      case 0x1B:
+      case 0x1C:
+      case 0x1D:
+      case 0x1E:
+        return MBC_5;
+      default:
+        throw new UnsupportedOperationException("Unsupported cartridge type: "
+          + String.format("0x%02X", type));
+    }
+  }
+
+  private static int ramSizeFor(byte code) {
+    switch (code) {
+      case 0x01:
+        return 0x800;
+      case 0x02:
+        return 0x2000;
+      case 0x03:
+        return 0x8000;
+      case 0x04:
+        return 0x20000;
+      case 0x05:
+        return 0x10000;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Reads from the ROM area, $0000-$7FFF.
+   *
+   * @param address the memory address
+   * @return the byte
+   */
+  public byte readRom(int address) {
+    int index = (address < ROM_BANK_SIZE ? lowBankOffset : highBankOffset) + address;
+    return index < romSize ? rom.get(index) : (byte) 0xFF;
+  }
+
+  /**
+   * Writes to the ROM area, $0000-$7FFF, which sets the bank controller registers.
+   *
+   * @param address the memory address
+   * @param value the byte value
+   */
+  public void writeRom(int address, byte value) {
+    switch (mbc) {
+      case MBC_1:
+        writeMbc1(address, value & 0xFF);
+        break;
+      case MBC_3:
+        writeMbc3(address, value & 0xFF);
+        break;
+      case MBC_5:
+        writeMbc5(address, value & 0xFF);
+        break;
+      default:
+        return;
+    }
+    remapBanks();
+  }
+
+  /**
+   * Reads from cartridge RAM, $A000-$BFFF.
+   *
+   * @param address the memory address
+   * @return the byte, or 0xFF if no RAM is enabled
+   */
+  public byte readRam(int address) {
+    if (!ramEnabled) {
+      return (byte) 0xFF;
+    }
+    if (mbc == MBC_3 && ramBank >= 0x08) {
+      return ramBank <= 0x0C ? latchedClockRegisters[ramBank - 0x08] : (byte) 0xFF;
+    }
+    return ram.length > 0 ? ram[(ramBankBase + (address & 0x1FFF)) & ramMask] : (byte) 0xFF;
+  }
+
+  /**
+   * Writes to cartridge RAM, $A000-$BFFF.
+   *
+   * @param address the memory address
+   * @param value the byte value
+   */
+  public void writeRam(int address, byte value) {
+    if (!ramEnabled) {
+      return;
+    }
+    if (mbc == MBC_3 && ramBank >= 0x08) {
+      if (ramBank <= 0x0C) {
+        clockRegisters[ramBank - 0x08] = value;
+      }
+      return;
+    }
+    if (ram.length > 0) {
+      ram[(ramBankBase + (address & 0x1FFF)) & ramMask] = value;
+    }
+  }
+
+  /**
+   * The number of bytes {@link #saveState} writes.
+   *
+   * @return the state size
+   */
+  public int getStateSize() {
+    return 2 + 5 + clockRegisters.length * 2 + 4 + ram.length;
+  }
+
+  /**
+   * Writes the bank registers, the MBC3 clock registers and the cartridge RAM. The ROM itself is
+   * not part of the state.
+   *
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.putShort((short) romBankLow);
+    buffer.put((byte) romBankHigh);
+    buffer.put((byte) ramBank);
+    buffer.put((byte) bankingMode);
+    buffer.put((byte) (ramEnabled ? 1 : 0));
+    buffer.put((byte) clockLatch);
+    buffer.put(clockRegisters);
+    buffer.put(latchedClockRegisters);
+    buffer.putInt(ram.length);
+    buffer.put(ram);
+  }
+
+  /**
+   * Reads state written by {@link #saveState} and maps the saved banks.
+   *
+   * @param buffer the buffer to read from
+   * @throws IllegalArgumentException if the state has a different amount of cartridge RAM
+   */
+  public void loadState(ByteBuffer buffer) {
+    romBankLow = buffer.getShort() & 0xFFFF;
+    romBankHigh = buffer.get() & 0xFF;
+    ramBank = buffer.get() & 0xFF;
+    bankingMode = buffer.get() & 0xFF;
+    ramEnabled = buffer.get() != 0;
+    clockLatch = buffer.get() & 0xFF;
+    buffer.get(clockRegisters);
+    buffer.get(latchedClockRegisters);
+    int ramSize = buffer.getInt();
+    if (ramSize != ram.length) {
+      throw new IllegalArgumentException("The state has " + ramSize
+          + " bytes of cartridge RAM, but the cartridge has " + ram.length);
+    }
+    buffer.get(ram);
+    remapBanks();
+  }
+
+  /**
+   * The ROM bank currently mapped into $4000-$7FFF.
+   *
+   * @return the bank number
+   */
+  public int getRomBank() {
+    return (highBankOffset + ROM_BANK_SIZE) / ROM_BANK_SIZE;
+  }
+
+  /**
+   * The ROM bank currently mapped into $0000-$3FFF, which is 0 except in MBC1 banking mode 1.
+   *
+   * @return the bank number
+   */
+  public int getLowRomBank() {
+    return lowBankOffset / ROM_BANK_SIZE;
+  }
+
+  // the heap array behind the ROM, or null if the ROM is mapped from a file
+  byte[] getRomArray() {
+    return romArray;
+  }
+
+  int getRomSize() {
+    return romSize;
+  }
+
+  // the ROM index of $0000 in the low window
+  int getLowBankOffset() {
+    return lowBankOffset;
+  }
+
+  // the ROM index of $0000 as seen by the high window, so that $4000 is at this offset + $4000
+  int getHighBankOffset() {
+    return highBankOffset;
+  }
+
+  /**
+   * The number of 16k ROM banks.
+   *
+   * @return the bank count
+   */
+  public int getRomBankCount() {
+    return romBankCount;
+  }
+
+  private void writeMbc1(int address, int value) {
+    if (address < 0x2000) {
+      ramEnabled = (value & 0x0F) == 0x0A;
+    } else if (address < 0x4000) {
+      romBankLow = (value & 0x1F) == 0 ? 1 : value & 0x1F;
+    } else if (address < 0x6000) {
+      romBankHigh = value & 0x03;
+    } else {
+      bankingMode = value & 0x01;
+    }
+  }
+
+  private void writeMbc3(int address, int value) {
+    if (address < 0x2000) {
+      ramEnabled = (value & 0x0F) == 0x0A;
+    } else if (address < 0x4000) {
+      romBankLow = (value & 0x7F) == 0 ? 1 : value & 0x7F;
+    } else if (address < 0x6000) {
+      ramBank = value & 0x0F;
+    } else {
+      if (clockLatch == 0 && value == 1) {
+        System.arraycopy(clockRegisters, 0, latchedClockRegisters, 0, clockRegisters.length);
+      }
+      clockLatch = value;
+    }
+  }
+
+  private void writeMbc5(int address, int value) {
+    if (address < 0x2000) {
+      ramEnabled = (value & 0x0F) == 0x0A;
+    } else if (address < 0x3000) {
+      romBankLow = value;
+    } else if (address < 0x4000) {
+      romBankHigh = value & 0x01;
+    } else if (address < 0x6000) {
+      ramBank = value & 0x0F;
+    }
+  }
+
+  // point the ROM windows and RAM at the banks selected by the bank registers
+  private void remapBanks() {
+    switch (mbc) {
+      case MBC_1:
+        mapRomBanks(bankingMode == 1 ? romBankHigh << 5 : 0, (romBankHigh << 5) | romBankLow);
+        mapRamBank(bankingMode == 1 ? romBankHigh : 0);
+        break;
+      case MBC_3:
+        mapRomBanks(0, romBankLow);
+        mapRamBank(ramBank);
+        break;
+      case MBC_5:
+        mapRomBanks(0, (romBankHigh << 8) | romBankLow);
+        mapRamBank(ramBank);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void mapRomBanks(int lowBank, int highBank) {
+    lowBankOffset = (lowBank % romBankCount) * ROM_BANK_SIZE;
+    highBankOffset = (highBank % romBankCount) * ROM_BANK_SIZE - ROM_BANK_SIZE;
+  }
+
+  private void mapRamBank(int bank) {
+    ramBankBase = bank * RAM_BANK_SIZE;
+  }
+}
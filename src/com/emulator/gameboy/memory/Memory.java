@@ -2,9 +2,8 @@ package com.emulator.gameboy.memory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
 public final class Memory {
   /* the GameBoy had 16k of memory, mapped as follows:
@@ -27,10 +26,264 @@ public final class Memory {
    * $0000-$00FF Restart and Interrupt Vectors
    *
    * memory map source: http://gameboy.mongenel.com/dmg/asmmemmap.html
+   *
+   * Each region is its own array at its real size, and the address space is split into 256-byte
+   * pages. A page backed by an array (RAM, echo RAM, and ROM held on the heap) is read and written
+   * straight through the page table; everything else goes through a per-page handler. A page with
+   * write listeners is taken off the fast path for writes, and a page with read listeners off the
+   * fast path for reads, so unwatched pages pay nothing.
+   */
+
+  // an empty 32k ROM, shared by every memory instance until a ROM is loaded
+  private static final byte[] NO_ROM = new byte[0x8000];
+
+  private final byte[] videoRam = new byte[0x2000];
+  private final byte[] workRam = new byte[0x2000];
+  private final byte[] oam = new byte[0xA0];
+  private final byte[] highPage = new byte[0x100]; // I/O registers, zero page and IE
+  private Cartridge cartridge = new Cartridge(NO_ROM);
+  private boolean oamLocked; // while OAM DMA runs, OAM reads 0xFF and ignores writes
+  private int lowBankOffset; // the cartridge's bank offsets the ROM pages are mapped with
+  private int highBankOffset;
+
+  // the page table; a null array sends the page to its handler
+  private final byte[][] readPages = new byte[256][];
+  private final int[] readOffsets = new int[256];
+  private final byte[][] writePages = new byte[256][];
+  private final int[] writeOffsets = new int[256];
+  private final MemoryHandler[] handlers = new MemoryHandler[256];
+  private final byte[][] readArrays = new byte[256][]; // directly readable arrays, watched or not
+  private final ReadListener[][] readListeners = new ReadListener[256][];
+  private final byte[][] writeArrays = new byte[256][]; // writable arrays, watched or not
+  private final WriteListener[][] writeListeners = new WriteListener[256][];
+
+  // per-register handlers for $FF00-$FFFF; a null entry is a plain register
+  private final MemoryHandler[] ioHandlers = new MemoryHandler[0x100];
+
+  /**
+   * This is the memory constructor.
+   */
+  public Memory() {
+    MemoryHandler romHandler = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        return cartridge.readRom(address);
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        cartridge.writeRom(address, value);
+        // most writes here leave the banks as they were, or switch only one window
+        if (cartridge.getLowBankOffset() != lowBankOffset) {
+          mapRomWindow(0x00, lowBankOffset = cartridge.getLowBankOffset());
+        }
+        if (cartridge.getHighBankOffset() != highBankOffset) {
+          mapRomWindow(0x40, highBankOffset = cartridge.getHighBankOffset());
+        }
+      }
+    };
+    MemoryHandler cartridgeRamHandler = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        return cartridge.readRam(address);
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        cartridge.writeRam(address, value);
+      }
+    };
+    MemoryHandler oamHandler = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        if (address >= 0xFEA0) {
+          return 0x00; // $FEA0-$FEFF is unusable
+        }
+        return oamLocked ? (byte) 0xFF : oam[address - 0xFE00];
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        if (address < 0xFEA0 && !oamLocked) {
+          oam[address - 0xFE00] = value;
+        }
+      }
+    };
+    MemoryHandler highPageHandler = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        MemoryHandler handler = ioHandlers[address & 0xFF];
+        return handler == null ? highPage[address & 0xFF] : handler.read(address);
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        MemoryHandler handler = ioHandlers[address & 0xFF];
+        if (handler == null) {
+          highPage[address & 0xFF] = value;
+        } else {
+          handler.write(address, value);
+        }
+      }
+    };
+
+    for (int page = 0x00; page < 0x80; page++) {
+      handlers[page] = romHandler;
+    }
+    mapArray(0x80, 0xA0, videoRam);
+    for (int page = 0xA0; page < 0xC0; page++) {
+      handlers[page] = cartridgeRamHandler;
+    }
+    mapArray(0xC0, 0xE0, workRam);
+    mapArray(0xE0, 0xFE, workRam); // echo RAM mirrors $C000-$DDFF
+    handlers[0xFE] = oamHandler;
+    handlers[0xFF] = highPageHandler;
+    mapRom();
+  }
+
+  private void mapArray(int firstPage, int endPage, byte[] array) {
+    for (int page = firstPage; page < endPage; page++) {
+      readPages[page] = array;
+      readArrays[page] = array;
+      writePages[page] = array;
+      writeArrays[page] = array;
+      readOffsets[page] = (page - firstPage) << 8;
+      writeOffsets[page] = (page - firstPage) << 8;
+    }
+  }
+
+  // point the ROM pages at the banks currently selected; called whenever the cartridge changes
+  private void mapRom() {
+    lowBankOffset = cartridge.getLowBankOffset();
+    highBankOffset = cartridge.getHighBankOffset();
+    mapRomWindow(0x00, lowBankOffset);
+    mapRomWindow(0x40, highBankOffset);
+  }
+
+  // point one 16k window's pages at a bank
+  private void mapRomWindow(int firstPage, int bankOffset) {
+    byte[] rom = cartridge.getRomArray();
+    int romSize = cartridge.getRomSize();
+    for (int page = firstPage; page < firstPage + 0x40; page++) {
+      int offset = bankOffset + (page << 8);
+      boolean direct = rom != null && offset + 0x100 <= romSize;
+      readArrays[page] = direct ? rom : null;
+      readPages[page] = readListeners[page] == null ? readArrays[page] : null;
+      readOffsets[page] = offset;
+    }
+  }
+
+  /**
+   * Adds a listener which is told about every write to a page, through any path. The page's writes
+   * leave the fast path while it has listeners.
+   * 
+   * @param page the page number, address &gt;&gt; 8
+   * @param listener the listener
+   */
+  public void addWriteListener(int page, WriteListener listener) {
+    WriteListener[] listeners = writeListeners[page];
+    if (listeners == null) {
+      listeners = new WriteListener[] {listener};
+    } else {
+      listeners = Arrays.copyOf(listeners, listeners.length + 1);
+      listeners[listeners.length - 1] = listener;
+    }
+    writeListeners[page] = listeners;
+    writePages[page] = null;
+  }
+
+  /**
+   * Removes a listener added with {@link #addWriteListener}.
+   * 
+   * @param page the page number, address &gt;&gt; 8
+   * @param listener the listener
+   */
+  public void removeWriteListener(int page, WriteListener listener) {
+    WriteListener[] listeners = writeListeners[page];
+    if (listeners == null) {
+      return;
+    }
+    int index = Arrays.asList(listeners).indexOf(listener);
+    if (index < 0) {
+      return;
+    }
+    WriteListener[] remaining = new WriteListener[listeners.length - 1];
+    System.arraycopy(listeners, 0, remaining, 0, index);
+    System.arraycopy(listeners, index + 1, remaining, index, remaining.length - index);
+    writeListeners[page] = remaining.length > 0 ? remaining : null;
+    writePages[page] = remaining.length > 0 ? null : writeArrays[page];
+  }
+
+  /**
+   * Adds a listener which is told about every read from a page through {@link #getByteAt} or
+   * {@link #getWordAt}. The page's reads leave the fast path while it has listeners.
+   * 
+   * @param page the page number, address &gt;&gt; 8
+   * @param listener the listener
    */
+  public void addReadListener(int page, ReadListener listener) {
+    ReadListener[] listeners = readListeners[page];
+    if (listeners == null) {
+      listeners = new ReadListener[] {listener};
+    } else {
+      listeners = Arrays.copyOf(listeners, listeners.length + 1);
+      listeners[listeners.length - 1] = listener;
+    }
+    readListeners[page] = listeners;
+    readPages[page] = null;
+  }
 
-  private byte[] memoryArray = new byte[0xFFFF + 1];
-  private ByteBuffer memory;
+  /**
+   * Removes a listener added with {@link #addReadListener}.
+   * 
+   * @param page the page number, address &gt;&gt; 8
+   * @param listener the listener
+   */
+  public void removeReadListener(int page, ReadListener listener) {
+    ReadListener[] listeners = readListeners[page];
+    if (listeners == null) {
+      return;
+    }
+    int index = Arrays.asList(listeners).indexOf(listener);
+    if (index < 0) {
+      return;
+    }
+    ReadListener[] remaining = new ReadListener[listeners.length - 1];
+    System.arraycopy(listeners, 0, remaining, 0, index);
+    System.arraycopy(listeners, index + 1, remaining, index, remaining.length - index);
+    readListeners[page] = remaining.length > 0 ? remaining : null;
+    readPages[page] = remaining.length > 0 ? null : readArrays[page];
+  }
+
+  /**
+   * Maps a handler onto a hardware register in $FF00-$FFFF, replacing plain storage.
+   * 
+   * @param address the register address
+   * @param handler the handler, or null to restore plain storage
+   */
+  public void mapIo(int address, MemoryHandler handler) {
+    ioHandlers[address & 0xFF] = handler;
+  }
+
+  /**
+   * Reads a hardware register in $FF00-$FFFF without going through its handler.
+   * 
+   * @param address the register address
+   * @return the stored value
+   */
+  public byte getIoRegister(int address) {
+    return highPage[address & 0xFF];
+  }
+
+  /**
+   * Writes a hardware register in $FF00-$FFFF without going through its handler.
+   * 
+   * @param address the register address
+   * @param value the value to store
+   */
+  public void setIoRegister(int address, byte value) {
+    highPage[address & 0xFF] = value;
+  }
 
   /**
    * Check if a bit is set.
@@ -40,7 +293,7 @@ public final class Memory {
    * @return is the bit set
    */
   public boolean checkBit(byte flags, int bit) {
-    if ((flags & (1 << bit)) == 1) {
+    if ((flags & (1 << bit)) != 0) {
       return true;
     }
     return false;
@@ -53,7 +306,56 @@ public final class Memory {
    * @return the byte
    */
   public byte getByteAt(int address) {
-    return memory.get(address);
+    int page = address >>> 8;
+    byte[] array = readPages[page];
+    if (array != null) {
+      return array[readOffsets[page] + (address & 0xFF)];
+    }
+    return readSlow(page, address);
+  }
+
+  /**
+   * Reads a byte without side effects, for tools which look at memory while the machine runs. No
+   * handler runs, so I/O registers read back as stored, and no read listener is told.
+   * 
+   * @param address the memory address
+   * @return the byte
+   */
+  public byte peekByte(int address) {
+    int page = address >>> 8;
+    byte[] array = readArrays[page];
+    if (array != null) {
+      return array[readOffsets[page] + (address & 0xFF)];
+    } else if (address < 0x8000) {
+      return cartridge.readRom(address);
+    } else if (address < 0xC000) {
+      return cartridge.readRam(address);
+    } else if (address < 0xFEA0) {
+      return oam[address - 0xFE00];
+    } else if (address < 0xFF00) {
+      return 0x00;
+    }
+    return highPage[address & 0xFF];
+  }
+
+  // a read from a page served by a handler, or from a watched page
+  private byte readSlow(int page, int address) {
+    byte[] array = readArrays[page];
+    byte value;
+    if (array != null) {
+      value = array[readOffsets[page] + (address & 0xFF)];
+    } else if (address < 0x8000) {
+      value = cartridge.readRom(address); // ROM mapped from a file
+    } else {
+      value = handlers[page].read(address);
+    }
+    ReadListener[] listeners = readListeners[page];
+    if (listeners != null) {
+      for (ReadListener listener : listeners) {
+        listener.read(address, value);
+      }
+    }
+    return value;
   }
 
   /**
@@ -63,7 +365,13 @@ public final class Memory {
    * @return the word
    */
   public short getWordAt(int address) {
-    return memory.getShort(address);
+    int page = address >>> 8;
+    byte[] array = readPages[page];
+    if (array != null && (address & 0xFF) != 0xFF) {
+      int index = readOffsets[page] + (address & 0xFF);
+      return (short) ((array[index] & 0xFF) | (array[index + 1] << 8));
+    }
+    return (short) ((getByteAt(address) & 0xFF) | (getByteAt((address + 1) & 0xFFFF) << 8));
   }
 
   /**
@@ -73,7 +381,24 @@ public final class Memory {
    * @param value the byte value
    */
   public void setByte(int address, byte value) {
-    memory.put(address, value);
+    int page = address >>> 8;
+    byte[] array = writePages[page];
+    if (array != null) {
+      array[writeOffsets[page] + (address & 0xFF)] = value;
+    } else {
+      writeSlow(page, address, value);
+    }
+  }
+
+  // a write to a page served by a handler, or to a watched page
+  private void writeSlow(int page, int address, byte value) {
+    byte[] array = writeArrays[page];
+    if (array != null) {
+      array[writeOffsets[page] + (address & 0xFF)] = value;
+    } else {
+      handlers[page].write(address, value);
+    }
+    notifyListeners(writeListeners[page], address, value);
   }
 
   /**
@@ -82,24 +407,183 @@ public final class Memory {
    * @param value the word value
    */
   public void setWord(int address, short value) {
-    memory.putShort(address, value);
+    int page = address >>> 8;
+    byte[] array = writePages[page];
+    if (array != null && (address & 0xFF) != 0xFF) {
+      int index = writeOffsets[page] + (address & 0xFF);
+      array[index] = (byte) value;
+      array[index + 1] = (byte) (value >> 8);
+    } else {
+      setByte(address, (byte) value);
+      setByte((address + 1) & 0xFFFF, (byte) (value >> 8));
+    }
   }
 
   /**
-   * Load a ROM into memory.
+   * Load a ROM into memory. The file is mapped rather than copied.
    * 
    * @param path the path of the ROM
    */
   public void loadRom(String path) {
     try {
-      byte[] rom = Files.readAllBytes(Paths.get(path));
-      for (int i = 0; i < rom.length; i++) {
-        memoryArray[i] = rom[i]; 
-      }
-      memory = ByteBuffer.wrap(memoryArray);
-      memory.order(ByteOrder.LITTLE_ENDIAN);
+      cartridge = Cartridge.open(Paths.get(path));
+      mapRom();
     } catch (IOException ex) {
       ex.printStackTrace();
     }
   }
+
+  /**
+   * Load a ROM image from memory. Its pages are read directly from the array.
+   * 
+   * @param rom the ROM image, which must not be modified afterwards
+   */
+  public void loadRom(byte[] rom) {
+    cartridge = new Cartridge(rom);
+    mapRom();
+  }
+
+  /**
+   * Load a shared ROM image. Its pages are read directly from the image, which is not copied.
+   * 
+   * @param image the ROM image
+   */
+  public void loadRom(RomImage image) {
+    cartridge = new Cartridge(image);
+    mapRom();
+  }
+
+  /**
+   * The number of bytes {@link #saveState} writes for the loaded cartridge.
+   * 
+   * @return the state size
+   */
+  public int getStateSize() {
+    return videoRam.length + workRam.length + oam.length + highPage.length
+        + cartridge.getStateSize();
+  }
+
+  /**
+   * Writes video RAM, work RAM, OAM, the I/O registers and high RAM, then the cartridge's bank
+   * state and RAM. Each region is a single bulk copy.
+   * 
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.put(videoRam);
+    buffer.put(workRam);
+    buffer.put(oam);
+    buffer.put(highPage);
+    cartridge.saveState(buffer);
+  }
+
+  /**
+   * Reads state written by {@link #saveState}. Write listeners are told about every byte the state
+   * changes, so caches of memory contents stay valid.
+   * 
+   * @param buffer the buffer to read from
+   * @throws IllegalArgumentException if the state is for a cartridge with different RAM
+   */
+  public void loadState(ByteBuffer buffer) {
+    loadRegion(buffer, videoRam, 0x8000);
+    loadRegion(buffer, workRam, 0xC000);
+    loadRegion(buffer, oam, 0xFE00);
+    loadRegion(buffer, highPage, 0xFF00);
+    cartridge.loadState(buffer);
+    mapRom();
+  }
+
+  // bulk copies a region out of a state, except that bytes of watched pages are compared and
+  // reported to the listeners when they change
+  private void loadRegion(ByteBuffer buffer, byte[] array, int address) {
+    for (int offset = 0; offset < array.length; offset += 0x100) {
+      int length = Math.min(0x100, array.length - offset);
+      int page = (address + offset) >>> 8;
+      WriteListener[] listeners = writeListeners[page];
+      WriteListener[] echoListeners = page >= 0xC0 && page < 0xDE ? writeListeners[page + 0x20]
+          : null;
+      if (listeners == null && echoListeners == null) {
+        buffer.get(array, offset, length);
+        continue;
+      }
+      for (int i = offset; i < offset + length; i++) {
+        byte value = buffer.get();
+        if (array[i] != value) {
+          array[i] = value;
+          notifyListeners(listeners, address + i, value);
+          notifyListeners(echoListeners, address + i + 0x2000, value);
+        }
+      }
+    }
+  }
+
+  private static void notifyListeners(WriteListener[] listeners, int address, byte value) {
+    if (listeners != null) {
+      for (WriteListener listener : listeners) {
+        listener.written(address, value);
+      }
+    }
+  }
+
+  /**
+   * The video RAM behind $8000-$9FFF, for renderers which read it directly. Writes must go through
+   * {@link #setByte} so that write listeners see them.
+   * 
+   * @return the video RAM array
+   */
+  public byte[] getVideoRam() {
+    return videoRam;
+  }
+
+  /**
+   * The object attribute memory behind $FE00-$FE9F, for renderers which read it directly: 40
+   * sprites of 4 bytes each.
+   * 
+   * @return the OAM array
+   */
+  public byte[] getOam() {
+    return oam;
+  }
+
+  /**
+   * Copies 160 bytes into OAM, as OAM DMA does. Where the source page is backed by an array, as
+   * work RAM, video RAM and ROM on the heap are, this is a single bulk copy. The copy is not a CPU
+   * access, so read listeners are not told of it, but OAM's write listeners are.
+   * 
+   * @param source the source address, at the start of a page below $E000
+   */
+  public void copyToOam(int source) {
+    int page = source >>> 8;
+    byte[] array = readArrays[page];
+    if (array != null) {
+      System.arraycopy(array, readOffsets[page], oam, 0, oam.length);
+    } else {
+      for (int i = 0; i < oam.length; i++) {
+        oam[i] = handlers[page].read(source + i);
+      }
+    }
+    WriteListener[] listeners = writeListeners[0xFE];
+    for (int i = 0; listeners != null && i < oam.length; i++) {
+      notifyListeners(listeners, 0xFE00 + i, oam[i]);
+    }
+  }
+
+  /**
+   * Locks OAM away from the CPU, as while OAM DMA holds the bus to it, or unlocks it. While locked,
+   * OAM reads 0xFF and ignores writes; {@link #getOam()} and {@link #copyToOam} are unaffected.
+   * 
+   * @param locked whether OAM is locked
+   */
+  public void setOamLocked(boolean locked) {
+    oamLocked = locked;
+  }
+
+  /**
+   * The loaded cartridge.
+   * 
+   * @return the cartridge
+   */
+  public Cartridge getCartridge() {
+    return cartridge;
+  }
 }
@@ -0,0 +1,23 @@
+package com.emulator.gameboy.memory;
+
+/**
+ * Handles reads and writes to the parts of the address space which are not plain memory, such as
+ * the hardware I/O registers.
+ */
+public interface MemoryHandler {
+  /**
+   * Reads a byte.
+   *
+   * @param address the memory address
+   * @return the byte
+   */
+  byte read(int address);
+
+  /**
+   * Writes a byte.
+   *
+   * @param address the memory address
+   * @param value the byte value
+   */
+  void write(int address, byte value);
+}
@@ -0,0 +1,85 @@
+package com.emulator.gameboy.memory;
+
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.nio.ByteBuffer;
+import java.util.function.LongSupplier;
+
+/**
+ * OAM DMA, started by writing a source page to DMA ($FF46).
+ *
+ * <p>The hardware copies 160 bytes into OAM one per machine cycle, and for those 160 cycles the
+ * CPU cannot reach OAM. Here the whole copy is made at once with {@link Memory#copyToOam}, and OAM
+ * is locked until a scheduled event ends the transfer, so the CPU sees the same window the
+ * hardware gives it: 0xFF from every read and no effect from any write. Only the GPU, which reads
+ * OAM once per line, can see the new sprites a little early. Games run the transfer from high RAM,
+ * which stays reachable, so the rest of the bus is not locked.
+ */
+public final class OamDma {
+  /**
+   * The number of bytes {@link #saveState} writes.
+   */
+  public static final int STATE_SIZE = 8;
+
+  // machine cycles OAM stays locked for
+  static final int CYCLES = 160;
+
+  private static final int REGISTER = 0xFF46;
+
+  private final Memory memory;
+  private final Scheduler scheduler;
+  private final int endEvent;
+
+  /**
+   * Creates the DMA unit, idle, and maps it onto its register.
+   *
+   * @param memory the memory to copy within
+   * @param scheduler the scheduler which ends each transfer
+   * @param clock the CPU's machine cycle count
+   */
+  public OamDma(Memory memory, Scheduler scheduler, LongSupplier clock) {
+    this.memory = memory;
+    this.scheduler = scheduler;
+    endEvent = scheduler.register(time -> memory.setOamLocked(false));
+    memory.mapIo(REGISTER, new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        return memory.getIoRegister(REGISTER);
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        memory.setIoRegister(REGISTER, value);
+        // sources from $E000 up read work RAM, as echo RAM does
+        int page = value & 0xFF;
+        memory.copyToOam((page >= 0xE0 ? page - 0x20 : page) << 8);
+        memory.setOamLocked(true);
+        scheduler.schedule(endEvent, clock.getAsLong() + CYCLES);
+      }
+    });
+  }
+
+  /**
+   * Writes the cycle at which the transfer under way ends, or {@link Scheduler#NEVER}.
+   *
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.putLong(scheduler.getEventTime(endEvent));
+  }
+
+  /**
+   * Reads state written by {@link #saveState}, locking OAM again if a transfer was under way.
+   *
+   * @param buffer the buffer to read from
+   */
+  public void loadState(ByteBuffer buffer) {
+    long end = buffer.getLong();
+    memory.setOamLocked(end != Scheduler.NEVER);
+    if (end != Scheduler.NEVER) {
+      scheduler.schedule(endEvent, end);
+    } else {
+      scheduler.cancel(endEvent);
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.emulator.gameboy.memory;
+
+/**
+ * Is told about reads from a page of memory. See {@link Memory#addReadListener}.
+ */
+@FunctionalInterface
+public interface ReadListener {
+  /**
+   * Called after a byte has been read.
+   *
+   * @param address the memory address
+   * @param value the byte value
+   */
+  void read(int address, byte value);
+}
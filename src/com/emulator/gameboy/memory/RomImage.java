@@ -0,0 +1,53 @@
+package com.emulator.gameboy.memory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * An immutable ROM image on the heap. Every cartridge made from one image reads the same array,
+ * so any number of machines running a game hold its ROM once, and read it through memory's
+ * direct page path.
+ */
+public final class RomImage {
+  private final byte[] bytes;
+
+  private RomImage(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Makes an image from a copy of ROM bytes.
+   *
+   * @param rom the ROM bytes
+   * @return the image
+   */
+  public static RomImage of(byte[] rom) {
+    return new RomImage(rom.clone());
+  }
+
+  /**
+   * Reads an image from a ROM file.
+   *
+   * @param path the path of the ROM
+   * @return the image
+   * @throws IOException if the file cannot be read
+   */
+  public static RomImage read(Path path) throws IOException {
+    return new RomImage(Files.readAllBytes(path));
+  }
+
+  /**
+   * The size of the ROM.
+   *
+   * @return the size in bytes
+   */
+  public int size() {
+    return bytes.length;
+  }
+
+  // the shared bytes, which must never be written
+  byte[] getBytes() {
+    return bytes;
+  }
+}
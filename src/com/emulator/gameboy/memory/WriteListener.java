@@ -0,0 +1,15 @@
+package com.emulator.gameboy.memory;
+
+/**
+ * Is told about writes to a page of memory. See {@link Memory#addWriteListener}.
+ */
+@FunctionalInterface
+public interface WriteListener {
+  /**
+   * Called after a byte has been written.
+   *
+   * @param address the memory address
+   * @param value the byte value
+   */
+  void written(int address, byte value);
+}
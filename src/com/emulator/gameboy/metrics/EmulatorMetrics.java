@@ -0,0 +1,101 @@
+package com.emulator.gameboy.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the machines attached to it do: machine cycles, instructions, frames, frame times,
+ * and the wall time spent in the CPU, in the devices including rendering, and presenting frames.
+ *
+ * <p>Machines record once per {@link com.emulator.gameboy.GameBoy#runFrame()}, never per
+ * instruction, and time the CPU and devices separately only on a sample of frames, so the CPU,
+ * render and present times are shares of the sampled time rather than totals. Many machines on
+ * many threads can share one instance, as in a {@link com.emulator.gameboy.BatchRunner}, without
+ * contending: the totals are striped {@link LongAdder}s, and each recording thread has its own
+ * frame-time counts which only it writes. {@link #snapshot()} can be called from any thread and
+ * adds everything up.
+ */
+public final class EmulatorMetrics {
+  private final long start = System.nanoTime();
+  private final LongAdder cycles = new LongAdder();
+  private final LongAdder instructions = new LongAdder();
+  private final LongAdder frames = new LongAdder();
+  private final LongAdder cpuNanos = new LongAdder();
+  private final LongAdder renderNanos = new LongAdder();
+  private final LongAdder presentNanos = new LongAdder();
+  private final List<Recorder> recorders = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(this::newRecorder);
+
+  /**
+   * One thread's frame-time counts, written only by that thread.
+   */
+  private static final class Recorder {
+    final AtomicLongArray counts = new AtomicLongArray(FrameTimeHistogram.BUCKETS);
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong total = new AtomicLong();
+
+    // a single writer needs no read-modify-write, only ordered stores for the readers
+    void record(long nanos) {
+      int index = FrameTimeHistogram.indexOf(nanos);
+      counts.lazySet(index, counts.get(index) + 1);
+      total.lazySet(total.get() + nanos);
+      count.lazySet(count.get() + 1);
+    }
+  }
+
+  /**
+   * Records a call to {@code runFrame()}. Called by the machine on its emulation thread.
+   *
+   * @param cycles the machine cycles run
+   * @param instructions the instructions run
+   * @param nanos the wall time of the call
+   * @param complete whether a frame was completed, rather than the run stopping or pausing early
+   */
+  public void recordFrame(long cycles, long instructions, long nanos, boolean complete) {
+    this.cycles.add(cycles);
+    this.instructions.add(instructions);
+    if (complete) {
+      frames.increment();
+      recorder.get().record(nanos);
+    }
+  }
+
+  /**
+   * Records where the wall time of a sampled call to {@code runFrame()} went. Called by the
+   * machine on its emulation thread.
+   *
+   * @param cpuNanos the wall time in the CPU
+   * @param renderNanos the wall time in the devices, the GPU's rendering above all, less
+   *     presenting
+   * @param presentNanos the wall time handing the frame to the screen
+   */
+  public void recordSplit(long cpuNanos, long renderNanos, long presentNanos) {
+    this.cpuNanos.add(cpuNanos);
+    this.renderNanos.add(renderNanos);
+    this.presentNanos.add(presentNanos);
+  }
+
+  /**
+   * The totals since this was created. Values recorded while the snapshot is taken may be only
+   * partly included, and will be in the next snapshot.
+   *
+   * @return the snapshot
+   */
+  public MetricsSnapshot snapshot() {
+    FrameTimeHistogram frameTimes = new FrameTimeHistogram();
+    for (Recorder each : recorders) {
+      frameTimes.add(each.counts, each.count.get(), each.total.get());
+    }
+    return new MetricsSnapshot(System.nanoTime() - start, cycles.sum(), instructions.sum(),
+        frames.sum(), cpuNanos.sum(), renderNanos.sum(), presentNanos.sum(), frameTimes);
+  }
+
+  private Recorder newRecorder() {
+    Recorder created = new Recorder();
+    recorders.add(created);
+    return created;
+  }
+}
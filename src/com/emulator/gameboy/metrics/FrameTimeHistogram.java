@@ -0,0 +1,129 @@
+package com.emulator.gameboy.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of frame times with a fixed relative precision over any range, in the manner of
+ * HdrHistogram: each power of two is split into {@link #SUB_BUCKETS} / 2 linear buckets, so a
+ * recorded value is kept to within about 3% however small or large it is, in a fixed array of
+ * counts.
+ *
+ * <p>A histogram is not thread-safe. {@link EmulatorMetrics} keeps the same layout of counts for
+ * each emulation thread and adds them into a new histogram when it takes a snapshot.
+ */
+public final class FrameTimeHistogram {
+  /**
+   * Values below this each have a bucket of their own; above it every power of two has half this
+   * many buckets.
+   */
+  public static final int SUB_BUCKETS = 64;
+
+  private static final int SUB_BUCKET_BITS = 6;
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) << (SUB_BUCKET_BITS - 1);
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long total;
+
+  /**
+   * Records a frame time.
+   *
+   * @param nanos the frame time in nanoseconds, not negative
+   */
+  public void record(long nanos) {
+    counts[indexOf(nanos)]++;
+    count++;
+    total += nanos;
+  }
+
+  // add counts kept elsewhere in the same layout
+  void add(AtomicLongArray otherCounts, long otherCount, long otherTotal) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += otherCounts.get(i);
+    }
+    count += otherCount;
+    total += otherTotal;
+  }
+
+  /**
+   * The frames recorded here but not in an earlier snapshot of the same recording.
+   *
+   * @param earlier the earlier snapshot
+   * @return a new histogram holding the difference
+   */
+  public FrameTimeHistogram since(FrameTimeHistogram earlier) {
+    FrameTimeHistogram difference = new FrameTimeHistogram();
+    for (int i = 0; i < BUCKETS; i++) {
+      difference.counts[i] = counts[i] - earlier.counts[i];
+    }
+    difference.count = count - earlier.count;
+    difference.total = total - earlier.total;
+    return difference;
+  }
+
+  /**
+   * The number of frames recorded.
+   *
+   * @return the frame count
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * The exact mean frame time.
+   *
+   * @return the mean in nanoseconds, or 0 if nothing was recorded
+   */
+  public double getMean() {
+    return count == 0 ? 0 : (double) total / count;
+  }
+
+  /**
+   * The frame time at or below which a percentage of the frames fall.
+   *
+   * @param percentile the percentage, from 0 to 100
+   * @return the frame time in nanoseconds, to the histogram's precision, or 0 if nothing was
+   *     recorded
+   */
+  public long getValueAtPercentile(double percentile) {
+    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return highestValueAt(i);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * The longest frame time, to the histogram's precision.
+   *
+   * @return the frame time in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getMax() {
+    for (int i = BUCKETS - 1; i >= 0; i--) {
+      if (counts[i] != 0) {
+        return highestValueAt(i);
+      }
+    }
+    return 0;
+  }
+
+  // values below SUB_BUCKETS index themselves; above, the top SUB_BUCKET_BITS bits pick the bucket
+  static int indexOf(long value) {
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+  }
+
+  private static long highestValueAt(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+    long subBucket = index - (shift << (SUB_BUCKET_BITS - 1));
+    return (subBucket << shift) + (1L << shift) - 1;
+  }
+}
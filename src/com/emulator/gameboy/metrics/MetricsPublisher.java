@@ -0,0 +1,206 @@
+package com.emulator.gameboy.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Turns {@link EmulatorMetrics} into rates over fixed periods and publishes them, both as an MBean
+ * and to any {@link MetricsSink}s added.
+ *
+ * <p>All the work happens on the publisher's own thread, or whichever thread calls
+ * {@link #publish()}; the emulation threads only ever record.
+ */
+public final class MetricsPublisher implements MetricsPublisherMBean, AutoCloseable {
+  /**
+   * The domain of the MBeans this registers.
+   */
+  public static final String DOMAIN = "com.emulator.gameboy";
+
+  private final EmulatorMetrics metrics;
+  private final List<MetricsSink> sinks = new CopyOnWriteArrayList<>();
+  private MetricsSnapshot previous;
+  private volatile MetricsSnapshot total;
+  private volatile MetricsSnapshot latest;
+  private ScheduledExecutorService executor;
+  private ObjectName name;
+
+  /**
+   * Creates a publisher which publishes only when asked, until started.
+   *
+   * @param metrics the metrics to publish
+   */
+  public MetricsPublisher(EmulatorMetrics metrics) {
+    this.metrics = metrics;
+    previous = metrics.snapshot();
+    total = previous;
+    latest = previous.since(previous);
+  }
+
+  public void addSink(MetricsSink sink) {
+    sinks.add(sink);
+  }
+
+  public void removeSink(MetricsSink sink) {
+    sinks.remove(sink);
+  }
+
+  /**
+   * Publishes on a daemon thread at a fixed rate.
+   *
+   * @param period the time between publications
+   * @param unit the unit of the period
+   */
+  public synchronized void start(long period, TimeUnit unit) {
+    if (executor != null) {
+      throw new IllegalStateException("The publisher is already started");
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "metrics publisher");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleAtFixedRate(this::publish, period, period, unit);
+  }
+
+  /**
+   * Registers the MBean with the platform MBean server, where tools such as JConsole find it.
+   *
+   * @param machine a name telling this machine or batch apart from others in the JVM
+   * @return the MBean's name
+   * @throws JMException if the name is taken or invalid
+   */
+  public synchronized ObjectName register(String machine) throws JMException {
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    name = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(machine));
+    server.registerMBean(this, name);
+    return name;
+  }
+
+  /**
+   * Ends the period now: works out its rates, makes them what the MBean shows and passes them to
+   * the sinks.
+   *
+   * @return what happened during the period
+   */
+  public synchronized MetricsSnapshot publish() {
+    MetricsSnapshot current = metrics.snapshot();
+    MetricsSnapshot interval = current.since(previous);
+    previous = current;
+    total = current;
+    latest = interval;
+    for (MetricsSink sink : sinks) {
+      sink.publish(interval);
+    }
+    return interval;
+  }
+
+  /**
+   * Stops publishing and unregisters the MBean.
+   */
+  @Override
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    if (name != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+      } catch (JMException ex) {
+        // already gone
+      }
+      name = null;
+    }
+  }
+
+  @Override
+  public double getCyclesPerSecond() {
+    return latest.getCyclesPerSecond();
+  }
+
+  @Override
+  public double getInstructionsPerSecond() {
+    return latest.getInstructionsPerSecond();
+  }
+
+  @Override
+  public double getFramesPerSecond() {
+    return latest.getFramesPerSecond();
+  }
+
+  @Override
+  public double getSpeed() {
+    return latest.getSpeed();
+  }
+
+  @Override
+  public double getFrameTimeMeanMillis() {
+    return latest.getFrameTimes().getMean() / 1e6;
+  }
+
+  @Override
+  public double getFrameTimeP50Millis() {
+    return latest.getFrameTimes().getValueAtPercentile(50) / 1e6;
+  }
+
+  @Override
+  public double getFrameTimeP90Millis() {
+    return latest.getFrameTimes().getValueAtPercentile(90) / 1e6;
+  }
+
+  @Override
+  public double getFrameTimeP99Millis() {
+    return latest.getFrameTimes().getValueAtPercentile(99) / 1e6;
+  }
+
+  @Override
+  public double getFrameTimeP999Millis() {
+    return latest.getFrameTimes().getValueAtPercentile(99.9) / 1e6;
+  }
+
+  @Override
+  public double getFrameTimeMaxMillis() {
+    return latest.getFrameTimes().getMax() / 1e6;
+  }
+
+  @Override
+  public double getCpuPercent() {
+    MetricsSnapshot interval = latest;
+    return interval.share(interval.getCpuNanos());
+  }
+
+  @Override
+  public double getRenderPercent() {
+    MetricsSnapshot interval = latest;
+    return interval.share(interval.getRenderNanos());
+  }
+
+  @Override
+  public double getPresentPercent() {
+    MetricsSnapshot interval = latest;
+    return interval.share(interval.getPresentNanos());
+  }
+
+  @Override
+  public long getTotalCycles() {
+    return total.getCycles();
+  }
+
+  @Override
+  public long getTotalInstructions() {
+    return total.getInstructions();
+  }
+
+  @Override
+  public long getTotalFrames() {
+    return total.getFrames();
+  }
+}
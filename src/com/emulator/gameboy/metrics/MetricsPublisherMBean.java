@@ -0,0 +1,39 @@
+package com.emulator.gameboy.metrics;
+
+/**
+ * The JMX view of a {@link MetricsPublisher}: the rates and frame times of its last period, and
+ * running totals.
+ */
+public interface MetricsPublisherMBean {
+  double getCyclesPerSecond();
+
+  double getInstructionsPerSecond();
+
+  double getFramesPerSecond();
+
+  double getSpeed();
+
+  double getFrameTimeMeanMillis();
+
+  double getFrameTimeP50Millis();
+
+  double getFrameTimeP90Millis();
+
+  double getFrameTimeP99Millis();
+
+  double getFrameTimeP999Millis();
+
+  double getFrameTimeMaxMillis();
+
+  double getCpuPercent();
+
+  double getRenderPercent();
+
+  double getPresentPercent();
+
+  long getTotalCycles();
+
+  long getTotalInstructions();
+
+  long getTotalFrames();
+}
@@ -0,0 +1,15 @@
+package com.emulator.gameboy.metrics;
+
+/**
+ * Receives the metrics for each period from a {@link MetricsPublisher}, for example to log them or
+ * forward them to a monitoring system.
+ */
+@FunctionalInterface
+public interface MetricsSink {
+  /**
+   * Called on the publisher's thread at the end of each period.
+   *
+   * @param interval what happened during the period
+   */
+  void publish(MetricsSnapshot interval);
+}
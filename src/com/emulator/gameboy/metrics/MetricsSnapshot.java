@@ -0,0 +1,145 @@
+package com.emulator.gameboy.metrics;
+
+import com.emulator.gameboy.HeadlessRunner;
+
+/**
+ * Metrics totals over a span of wall time: either everything since the metrics were created, as
+ * {@link EmulatorMetrics#snapshot()} returns, or the difference between two such snapshots.
+ */
+public final class MetricsSnapshot {
+  private final long elapsedNanos;
+  private final long cycles;
+  private final long instructions;
+  private final long frames;
+  private final long cpuNanos;
+  private final long renderNanos;
+  private final long presentNanos;
+  private final FrameTimeHistogram frameTimes;
+
+  MetricsSnapshot(long elapsedNanos, long cycles, long instructions, long frames, long cpuNanos,
+      long renderNanos, long presentNanos, FrameTimeHistogram frameTimes) {
+    this.elapsedNanos = elapsedNanos;
+    this.cycles = cycles;
+    this.instructions = instructions;
+    this.frames = frames;
+    this.cpuNanos = cpuNanos;
+    this.renderNanos = renderNanos;
+    this.presentNanos = presentNanos;
+    this.frameTimes = frameTimes;
+  }
+
+  /**
+   * What happened between an earlier snapshot of the same metrics and this one.
+   *
+   * @param earlier the earlier snapshot
+   * @return the difference
+   */
+  public MetricsSnapshot since(MetricsSnapshot earlier) {
+    return new MetricsSnapshot(elapsedNanos - earlier.elapsedNanos, cycles - earlier.cycles,
+        instructions - earlier.instructions, frames - earlier.frames,
+        cpuNanos - earlier.cpuNanos, renderNanos - earlier.renderNanos,
+        presentNanos - earlier.presentNanos, frameTimes.since(earlier.frameTimes));
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public long getCycles() {
+    return cycles;
+  }
+
+  public long getInstructions() {
+    return instructions;
+  }
+
+  public long getFrames() {
+    return frames;
+  }
+
+  // the wall time of the sampled frames, split between the CPU, rendering and presenting
+
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  public long getRenderNanos() {
+    return renderNanos;
+  }
+
+  public long getPresentNanos() {
+    return presentNanos;
+  }
+
+  /**
+   * The wall time of each completed frame, excluding any time the emulation loop spent waiting
+   * between frames.
+   *
+   * @return the histogram
+   */
+  public FrameTimeHistogram getFrameTimes() {
+    return frameTimes;
+  }
+
+  /**
+   * Emulated machine cycles per second of wall time.
+   *
+   * @return the cycle rate
+   */
+  public double getCyclesPerSecond() {
+    return cycles / seconds();
+  }
+
+  /**
+   * Instructions per second of wall time.
+   *
+   * @return the instruction rate
+   */
+  public double getInstructionsPerSecond() {
+    return instructions / seconds();
+  }
+
+  /**
+   * Completed frames per second of wall time.
+   *
+   * @return the frame rate
+   */
+  public double getFramesPerSecond() {
+    return frames / seconds();
+  }
+
+  /**
+   * Emulation speed relative to the real hardware, where 1.0 is real time. Machines sharing the
+   * metrics add up.
+   *
+   * @return the speed multiple
+   */
+  public double getSpeed() {
+    return getCyclesPerSecond() / HeadlessRunner.MACHINE_CYCLES_PER_SECOND;
+  }
+
+  /**
+   * A share of the sampled time spent running frames, as a percentage.
+   *
+   * @param nanos the CPU, render or present time
+   * @return the percentage
+   */
+  public double share(long nanos) {
+    long busy = cpuNanos + renderNanos + presentNanos;
+    return busy == 0 ? 0 : 100.0 * nanos / busy;
+  }
+
+  private double seconds() {
+    return Math.max(elapsedNanos, 1) / 1e9;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("cycles/s=%.0f instructions/s=%.0f fps=%.2f frame mean=%.3fms "
+        + "p50=%.3fms p99=%.3fms max=%.3fms cpu=%.1f%% render=%.1f%% present=%.1f%%",
+        getCyclesPerSecond(), getInstructionsPerSecond(), getFramesPerSecond(),
+        frameTimes.getMean() / 1e6, frameTimes.getValueAtPercentile(50) / 1e6,
+        frameTimes.getValueAtPercentile(99) / 1e6, frameTimes.getMax() / 1e6, share(cpuNanos),
+        share(renderNanos), share(presentNanos));
+  }
+}
@@ -0,0 +1,98 @@
+package com.emulator.gameboy.rewind;
+
+import java.util.Arrays;
+
+/**
+ * Encodes a state as the XOR of it and a keyframe, run-length encoded. Consecutive frames differ
+ * in a few hundred bytes of RAM and registers, so the XOR is almost all zeros.
+ *
+ * <p>A delta is a sequence of runs, each a count of unchanged bytes and a count of changed bytes
+ * as variable-length integers, followed by the changed bytes XORed with the keyframe.
+ */
+final class DeltaCodec {
+  private DeltaCodec() {
+  }
+
+  /**
+   * The scratch size {@link #encode} needs for states of a given length.
+   *
+   * @param length the state length
+   * @return the scratch size
+   */
+  static int maxEncodedLength(int length) {
+    return length * 2 + 10;
+  }
+
+  /**
+   * Encodes a state against a keyframe of the same length.
+   *
+   * @param keyframe the keyframe
+   * @param state the state
+   * @param scratch working space of at least {@link #maxEncodedLength} bytes
+   * @return the delta
+   */
+  static byte[] encode(byte[] keyframe, byte[] state, byte[] scratch) {
+    int out = 0;
+    int position = 0;
+    while (position < state.length) {
+      int start = position;
+      while (position < state.length && state[position] == keyframe[position]) {
+        position++;
+      }
+      int unchanged = position - start;
+      start = position;
+      while (position < state.length && state[position] != keyframe[position]) {
+        position++;
+      }
+      out = putLength(scratch, out, unchanged);
+      out = putLength(scratch, out, position - start);
+      for (int i = start; i < position; i++) {
+        scratch[out++] = (byte) (state[i] ^ keyframe[i]);
+      }
+    }
+    return Arrays.copyOf(scratch, out);
+  }
+
+  /**
+   * Rebuilds a state from its keyframe and delta.
+   *
+   * @param keyframe the keyframe
+   * @param delta the delta returned by {@link #encode}
+   * @return the state
+   */
+  static byte[] decode(byte[] keyframe, byte[] delta) {
+    byte[] state = keyframe.clone();
+    int[] in = {0};
+    int position = 0;
+    while (in[0] < delta.length) {
+      position += getLength(delta, in);
+      int changed = getLength(delta, in);
+      for (int i = 0; i < changed; i++) {
+        state[position++] ^= delta[in[0]++];
+      }
+    }
+    return state;
+  }
+
+  // seven bits per byte, low bits first, with the top bit set on all but the last byte
+  private static int putLength(byte[] buffer, int offset, int length) {
+    while (length >= 0x80) {
+      buffer[offset++] = (byte) (length | 0x80);
+      length >>>= 7;
+    }
+    buffer[offset++] = (byte) length;
+    return offset;
+  }
+
+  private static int getLength(byte[] buffer, int[] offset) {
+    int length = 0;
+    int shift = 0;
+    byte part;
+    do {
+      part = buffer[offset[0]++];
+      length |= (part & 0x7F) << shift;
+      shift += 7;
+    } while (part < 0);
+    return length;
+  }
+}
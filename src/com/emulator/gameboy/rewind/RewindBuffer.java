@@ -0,0 +1,288 @@
+package com.emulator.gameboy.rewind;
+
+import com.emulator.gameboy.GameBoy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded history of recent frames which the machine can be rewound through.
+ *
+ * <p>The emulation thread calls {@link #capture()} at vblank, right after
+ * {@link GameBoy#runFrame()} returns. That only saves the state into a pooled buffer and queues it;
+ * a compressor thread does the rest. If the compressor falls behind, frames are skipped rather
+ * than waited for, so capturing never slows the emulation loop by more than a state save.
+ *
+ * <p>Every {@link #KEYFRAME_INTERVAL}th frame is kept whole, and the frames in between are kept as
+ * deltas against their keyframe (see {@link DeltaCodec}). When the ring is full the oldest frame
+ * is dropped; a keyframe's memory is freed once the last frame referring to it has gone.
+ *
+ * <p>Rewinding and capturing must happen on the emulation thread. The history should be cleared
+ * when a different ROM is loaded.
+ */
+public final class RewindBuffer implements AutoCloseable {
+  /**
+   * Frames between keyframes, about one second.
+   */
+  public static final int KEYFRAME_INTERVAL = 60;
+
+  // captures which can wait for the compressor
+  private static final int POOL_SIZE = 8;
+
+  private final GameBoy gameBoy;
+  private final BlockingQueue<Capture> free = new ArrayBlockingQueue<>(POOL_SIZE);
+  private final BlockingQueue<Capture> pending = new ArrayBlockingQueue<>(POOL_SIZE);
+  private final Thread compressor;
+  private long queued;
+  private long skipped;
+
+  // the ring, oldest first from start; guarded by this
+  private final Entry[] ring;
+  private int start;
+  private int count;
+  private long compressed;
+  private long bytes;
+  private int epoch; // advanced by every rewind, so that captures from before it are discarded
+
+  // compressor thread state
+  private Keyframe keyframe;
+  private int keyframeEpoch = -1;
+  private int sinceKeyframe;
+  private byte[] scratch = new byte[0];
+
+  /**
+   * A saved state waiting for the compressor.
+   */
+  private static final class Capture {
+    byte[] state = new byte[0];
+    ByteBuffer buffer = ByteBuffer.wrap(state);
+    long frame;
+    int epoch;
+  }
+
+  /**
+   * A whole state, shared by its own entry and the deltas against it.
+   */
+  private static final class Keyframe {
+    final byte[] state;
+    int references; // entries in the ring holding it; guarded by the buffer's lock
+
+    Keyframe(byte[] state) {
+      this.state = state;
+    }
+  }
+
+  /**
+   * A frame in the ring, either a keyframe or a delta against one.
+   */
+  private static final class Entry {
+    final long frame;
+    final Keyframe keyframe;
+    final byte[] delta; // null for a keyframe
+
+    Entry(long frame, Keyframe keyframe, byte[] delta) {
+      this.frame = frame;
+      this.keyframe = keyframe;
+      this.delta = delta;
+    }
+
+    byte[] decode() {
+      return delta == null ? keyframe.state : DeltaCodec.decode(keyframe.state, delta);
+    }
+  }
+
+  /**
+   * Creates a rewind buffer and starts its compressor thread.
+   *
+   * @param gameBoy the machine to capture and restore
+   * @param frames the number of frames to keep, 60 for about a second
+   */
+  public RewindBuffer(GameBoy gameBoy, int frames) {
+    this.gameBoy = gameBoy;
+    ring = new Entry[frames];
+    for (int i = 0; i < POOL_SIZE; i++) {
+      free.add(new Capture());
+    }
+    compressor = new Thread(this::compress, "rewind compressor");
+    compressor.setDaemon(true);
+    compressor.start();
+  }
+
+  /**
+   * Captures the current frame. Called by the emulation thread at vblank.
+   *
+   * @return false if the frame was skipped because the compressor is behind
+   */
+  public boolean capture() {
+    Capture capture = free.poll();
+    if (capture == null) {
+      skipped++;
+      return false;
+    }
+    int size = gameBoy.getStateSize();
+    if (capture.state.length != size) {
+      capture.state = new byte[size];
+      capture.buffer = ByteBuffer.wrap(capture.state);
+    }
+    capture.buffer.clear();
+    gameBoy.saveState(capture.buffer);
+    capture.frame = gameBoy.getGpu().getFrameCount();
+    capture.epoch = epoch;
+    queued++;
+    pending.add(capture);
+    return true;
+  }
+
+  /**
+   * Restores the newest kept frame at least a number of frames before the current one, or the
+   * oldest kept frame if the history is shorter. Later frames are discarded, so the restored frame
+   * becomes the newest and repeated calls keep stepping back.
+   *
+   * @param frames the number of frames to go back
+   * @return false if there is no history to rewind to
+   */
+  public boolean rewind(int frames) {
+    Entry entry;
+    synchronized (this) {
+      if (count == 0) {
+        return false;
+      }
+      long target = gameBoy.getGpu().getFrameCount() - frames;
+      int kept = count;
+      while (kept > 1 && ring[(start + kept - 1) % ring.length].frame > target) {
+        kept--;
+      }
+      while (count > kept) {
+        remove(--count);
+      }
+      entry = ring[(start + count - 1) % ring.length];
+      epoch++;
+    }
+    gameBoy.loadState(entry.decode());
+    return true;
+  }
+
+  /**
+   * Discards the whole history.
+   */
+  public synchronized void clear() {
+    while (count > 0) {
+      remove(--count);
+    }
+    epoch++;
+  }
+
+  /**
+   * Waits until every queued capture has been compressed.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public synchronized void flush() throws InterruptedException {
+    while (compressed < queued) {
+      wait();
+    }
+  }
+
+  /**
+   * The number of frames kept.
+   *
+   * @return the frame count
+   */
+  public synchronized int getFrameCount() {
+    return count;
+  }
+
+  /**
+   * The memory taken by the kept keyframes and deltas. A keyframe counts for as long as any kept
+   * frame refers to it, even after its own frame has been dropped.
+   *
+   * @return the size in bytes
+   */
+  public synchronized long getSize() {
+    return bytes;
+  }
+
+  /**
+   * The number of frames skipped because the compressor was behind.
+   *
+   * @return the skipped frame count
+   */
+  public long getSkippedFrames() {
+    return skipped;
+  }
+
+  /**
+   * Stops the compressor thread.
+   */
+  @Override
+  public void close() {
+    compressor.interrupt();
+  }
+
+  private void compress() {
+    try {
+      while (true) {
+        Capture capture = pending.take();
+        Entry entry = encode(capture);
+        synchronized (this) {
+          if (capture.epoch == epoch) {
+            add(entry);
+          }
+          compressed++;
+          notifyAll();
+        }
+        free.add(capture);
+      }
+    } catch (InterruptedException ex) {
+      // closed
+    }
+  }
+
+  private Entry encode(Capture capture) {
+    byte[] state = capture.state;
+    if (capture.epoch != keyframeEpoch || keyframe == null
+        || keyframe.state.length != state.length || sinceKeyframe == KEYFRAME_INTERVAL) {
+      keyframe = new Keyframe(state.clone());
+      keyframeEpoch = capture.epoch;
+      sinceKeyframe = 1;
+      return new Entry(capture.frame, keyframe, null);
+    }
+    if (scratch.length < DeltaCodec.maxEncodedLength(state.length)) {
+      scratch = new byte[DeltaCodec.maxEncodedLength(state.length)];
+    }
+    sinceKeyframe++;
+    return new Entry(capture.frame, keyframe,
+        DeltaCodec.encode(keyframe.state, state, scratch));
+  }
+
+  // append to the ring, dropping the oldest frame if it is full; called holding the lock
+  private void add(Entry entry) {
+    if (count == ring.length) {
+      remove(0);
+      start = (start + 1) % ring.length;
+      count--;
+    }
+    ring[(start + count) % ring.length] = entry;
+    if (entry.keyframe.references++ == 0) {
+      bytes += entry.keyframe.state.length;
+    }
+    if (entry.delta != null) {
+      bytes += entry.delta.length;
+    }
+    count++;
+  }
+
+  // forget the entry at a position, without moving the ring; called holding the lock
+  private void remove(int position) {
+    int index = (start + position) % ring.length;
+    Entry entry = ring[index];
+    if (--entry.keyframe.references == 0) {
+      bytes -= entry.keyframe.state.length;
+    }
+    if (entry.delta != null) {
+      bytes -= entry.delta.length;
+    }
+    ring[index] = null;
+  }
+}
@@ -0,0 +1,15 @@
+package com.emulator.gameboy.scheduler;
+
+/**
+ * Handles an event when the emulated clock reaches it.
+ */
+@FunctionalInterface
+public interface EventHandler {
+  /**
+   * Handles the event. The handler may schedule its event again.
+   *
+   * @param time the machine cycle the event was scheduled for, which the clock may have passed by
+   *     the length of one instruction
+   */
+  void handle(long time);
+}
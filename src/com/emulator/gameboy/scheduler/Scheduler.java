@@ -0,0 +1,178 @@
+package com.emulator.gameboy.scheduler;
+
+import java.util.Arrays;
+
+/**
+ * A queue of timed device events, such as GPU mode changes, ordered by machine cycle.
+ *
+ * <p>Rather than stepping every device after each instruction, the CPU runs until
+ * {@link #getNextEventTime()} and the due events are then dispatched. Each device registers its
+ * event once and reschedules it from its handler. An event is pending at most once; scheduling it
+ * again moves it.
+ *
+ * <p>The queue is an indexed binary min-heap over primitive arrays, so scheduling allocates
+ * nothing.
+ */
+public final class Scheduler {
+  public static final long NEVER = Long.MAX_VALUE;
+
+  private EventHandler[] handlers = new EventHandler[0];
+  private long[] times = new long[0];
+  private int[] positions = new int[0]; // each event's index in the heap, or -1 if not pending
+  private int[] heap = new int[0];
+  private int size = 0;
+  private long nextEventTime = NEVER;
+
+  /**
+   * Registers an event.
+   *
+   * @param handler the handler to call when the event is due
+   * @return the event's id
+   */
+  public int register(EventHandler handler) {
+    int event = handlers.length;
+    handlers = Arrays.copyOf(handlers, event + 1);
+    times = Arrays.copyOf(times, event + 1);
+    positions = Arrays.copyOf(positions, event + 1);
+    heap = Arrays.copyOf(heap, event + 1);
+    handlers[event] = handler;
+    positions[event] = -1;
+    return event;
+  }
+
+  /**
+   * Schedules an event, replacing any pending occurrence of it.
+   *
+   * @param event the event's id
+   * @param time the machine cycle at which it is due
+   */
+  public void schedule(int event, long time) {
+    int position = positions[event];
+    if (position < 0) {
+      position = size++;
+      heap[position] = event;
+      positions[event] = position;
+      times[event] = time;
+      siftUp(position);
+    } else {
+      long previous = times[event];
+      times[event] = time;
+      if (time < previous) {
+        siftUp(position);
+      } else {
+        siftDown(position);
+      }
+    }
+    nextEventTime = times[heap[0]];
+  }
+
+  /**
+   * Cancels an event if it is pending.
+   *
+   * @param event the event's id
+   */
+  public void cancel(int event) {
+    int position = positions[event];
+    if (position >= 0) {
+      removeAt(position);
+    }
+  }
+
+  /**
+   * Whether an event is pending.
+   *
+   * @param event the event's id
+   * @return true if the event is scheduled
+   */
+  public boolean isScheduled(int event) {
+    return positions[event] >= 0;
+  }
+
+  /**
+   * The machine cycle an event is scheduled for.
+   *
+   * @param event the event's id
+   * @return the cycle, or {@link #NEVER} if the event is not pending
+   */
+  public long getEventTime(int event) {
+    return positions[event] >= 0 ? times[event] : NEVER;
+  }
+
+  /**
+   * The machine cycle at which the earliest pending event is due.
+   *
+   * @return the cycle, or {@link #NEVER} if nothing is pending
+   */
+  public long getNextEventTime() {
+    return nextEventTime;
+  }
+
+  /**
+   * Handles every event due at or before a machine cycle, in time order, including events which
+   * the handlers schedule within that time.
+   *
+   * @param now the current machine cycle
+   */
+  public void dispatch(long now) {
+    while (nextEventTime <= now) {
+      int event = heap[0];
+      long time = times[event];
+      removeAt(0);
+      handlers[event].handle(time);
+    }
+  }
+
+  private void removeAt(int position) {
+    int event = heap[position];
+    positions[event] = -1;
+    size--;
+    if (position < size) {
+      int last = heap[size];
+      heap[position] = last;
+      positions[last] = position;
+      siftDown(position);
+      siftUp(positions[last]);
+    }
+    nextEventTime = size > 0 ? times[heap[0]] : NEVER;
+  }
+
+  private void siftUp(int position) {
+    int event = heap[position];
+    long time = times[event];
+    while (position > 0) {
+      int parent = (position - 1) >> 1;
+      int parentEvent = heap[parent];
+      if (times[parentEvent] <= time) {
+        break;
+      }
+      heap[position] = parentEvent;
+      positions[parentEvent] = position;
+      position = parent;
+    }
+    heap[position] = event;
+    positions[event] = position;
+  }
+
+  private void siftDown(int position) {
+    int event = heap[position];
+    long time = times[event];
+    while (true) {
+      int child = (position << 1) + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && times[heap[child + 1]] < times[heap[child]]) {
+        child++;
+      }
+      int childEvent = heap[child];
+      if (times[childEvent] >= time) {
+        break;
+      }
+      heap[position] = childEvent;
+      positions[childEvent] = position;
+      position = child;
+    }
+    heap[position] = event;
+    positions[event] = position;
+  }
+}
@@ -0,0 +1,180 @@
+package com.emulator.gameboy.timer;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.memory.MemoryHandler;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import java.nio.ByteBuffer;
+import java.util.function.LongSupplier;
+
+/**
+ * The divider and timer: DIV ($FF04), TIMA ($FF05), TMA ($FF06) and TAC ($FF07).
+ *
+ * <p>Nothing ticks. DIV is the top byte of a counter which runs from the last write to DIV, so it
+ * is worked out from the CPU's cycle count when it is read. TIMA counts the falling edges of one
+ * bit of that counter, picked by TAC, so it is kept as its value at some cycle and brought up to
+ * date only when it is read or written or the timer is reconfigured. Its overflow, which reloads
+ * TMA and requests the timer interrupt, is a scheduled event at the cycle it falls due.
+ *
+ * <p>Working from the counter's edges keeps the hardware's quirk that writing DIV can clock TIMA,
+ * when the selected bit was set. TMA and TAC keep their values in the I/O page; DIV's and TIMA's
+ * lazy state is in {@link #saveState}.
+ */
+public final class Timer {
+  /**
+   * The number of bytes {@link #saveState} writes.
+   */
+  public static final int STATE_SIZE = 17;
+
+  private static final int DIV = 0xFF04;
+  private static final int TIMA = 0xFF05;
+  private static final int TMA = 0xFF06;
+  private static final int TAC = 0xFF07;
+  private static final int ENABLE = 0x04;
+
+  // TIMA ticks every 2^shift machine cycles for each TAC clock select: 4096, 262144, 65536 and
+  // 16384 Hz
+  private static final int[] SHIFTS = {8, 2, 4, 6};
+
+  private final Memory memory;
+  private final Scheduler scheduler;
+  private final InterruptController interrupts;
+  private final LongSupplier clock;
+  private final int overflowEvent;
+  private long divBase; // the cycle the divider counter was last 0
+  private long timaTime; // the cycle tima was last brought up to date
+  private int tima;
+
+  /**
+   * Creates the timer, stopped with every register 0, and maps its registers.
+   *
+   * @param memory the memory holding the registers
+   * @param scheduler the scheduler which runs TIMA's overflow
+   * @param interrupts the controller to request the timer interrupt from
+   * @param clock the CPU's machine cycle count
+   */
+  public Timer(Memory memory, Scheduler scheduler, InterruptController interrupts,
+      LongSupplier clock) {
+    this.memory = memory;
+    this.scheduler = scheduler;
+    this.interrupts = interrupts;
+    this.clock = clock;
+    overflowEvent = scheduler.register(this::overflow);
+    divBase = clock.getAsLong();
+    timaTime = divBase;
+
+    MemoryHandler registers = new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        long now = clock.getAsLong();
+        switch (address) {
+          case DIV:
+            return (byte) ((now - divBase) >> 6);
+          case TIMA:
+            catchUp(now);
+            return (byte) tima;
+          default:
+            return (byte) (memory.getIoRegister(TAC) | ~0x07);
+        }
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        long now = clock.getAsLong();
+        catchUp(now);
+        switch (address) {
+          case DIV:
+            // the counter's reset is a falling edge if the selected bit was set
+            if (isEnabled() && ((now - divBase) & (1L << (shift() - 1))) != 0) {
+              addTicks(1);
+            }
+            divBase = now;
+            break;
+          case TIMA:
+            tima = value & 0xFF;
+            break;
+          default:
+            memory.setIoRegister(TAC, (byte) (value & 0x07));
+            break;
+        }
+        scheduleOverflow();
+      }
+    };
+    memory.mapIo(DIV, registers);
+    memory.mapIo(TIMA, registers);
+    memory.mapIo(TAC, registers);
+  }
+
+  private boolean isEnabled() {
+    return (memory.getIoRegister(TAC) & ENABLE) != 0;
+  }
+
+  private int shift() {
+    return SHIFTS[memory.getIoRegister(TAC) & 0x03];
+  }
+
+  // the falling edges of the selected counter bit up to a cycle
+  private long edges(long time) {
+    return (time - divBase) >> shift();
+  }
+
+  // bring TIMA up to a cycle
+  private void catchUp(long time) {
+    if (isEnabled()) {
+      addTicks(edges(time) - edges(timaTime));
+    }
+    timaTime = time;
+  }
+
+  // count up, reloading TMA and requesting the interrupt on each overflow
+  private void addTicks(long ticks) {
+    long count = tima + ticks;
+    if (count > 0xFF) {
+      int reload = memory.getIoRegister(TMA) & 0xFF;
+      tima = reload + (int) ((count - 0x100) % (0x100 - reload));
+      interrupts.request(InterruptController.TIMER);
+    } else {
+      tima = (int) count;
+    }
+  }
+
+  private void overflow(long time) {
+    catchUp(time);
+    scheduleOverflow();
+  }
+
+  // the cycle of the edge which takes TIMA past 0xFF
+  private void scheduleOverflow() {
+    if (isEnabled()) {
+      long edge = edges(timaTime) + 0x100 - tima;
+      scheduler.schedule(overflowEvent, divBase + (edge << shift()));
+    } else {
+      scheduler.cancel(overflowEvent);
+    }
+  }
+
+  /**
+   * Writes the divider's and TIMA's state.
+   *
+   * @param buffer the buffer to write to
+   */
+  public void saveState(ByteBuffer buffer) {
+    buffer.putLong(divBase);
+    buffer.putLong(timaTime);
+    buffer.put((byte) tima);
+  }
+
+  /**
+   * Reads state written by {@link #saveState} and reschedules the overflow. TAC must already be
+   * loaded with memory's state.
+   *
+   * @param buffer the buffer to read from
+   */
+  public void loadState(ByteBuffer buffer) {
+    divBase = buffer.getLong();
+    timaTime = buffer.getLong();
+    tima = buffer.get() & 0xFF;
+    scheduleOverflow();
+  }
+}
@@ -0,0 +1,103 @@
+package com.emulator.gameboy.trace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Turns a binary trace written by {@link TraceLog} back into readable text, one line per
+ * instruction.
+ */
+public final class TraceDecoder {
+
+  private TraceDecoder() {
+  }
+
+  /**
+   * Decodes a trace file to standard output, or to a second file if one is given.
+   *
+   * @param args the trace file, and optionally the text file to write
+   * @throws IOException if either file cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: TraceDecoder <trace file> [text file]");
+      System.exit(1);
+    }
+    try (InputStream input = Files.newInputStream(Paths.get(args[0]))) {
+      if (args.length == 1) {
+        decode(input, System.out);
+      } else {
+        try (PrintStream output = new PrintStream(Files.newOutputStream(Paths.get(args[1])),
+            false, "UTF-8")) {
+          decode(input, output);
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes a compressed trace stream.
+   *
+   * @param stream the trace as written by {@link TraceLog}
+   * @param output where to print the decoded instructions
+   * @return the number of instructions decoded
+   * @throws IOException if the stream is not a valid trace
+   */
+  public static long decode(InputStream stream, PrintStream output) throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(stream, 1 << 16)));
+    if (input.readInt() != TraceLog.MAGIC) {
+      throw new IOException("Not an instruction trace");
+    }
+    short version = input.readShort();
+    if (version != TraceLog.VERSION) {
+      throw new IOException("Unsupported trace version: " + version);
+    }
+
+    long count = 0;
+    long cycles = 0;
+    StringBuilder line = new StringBuilder(96);
+    while (true) {
+      int pc;
+      try {
+        pc = input.readUnsignedShort();
+      } catch (EOFException ex) {
+        break;
+      }
+      int opcode = input.readUnsignedByte();
+      int af = input.readUnsignedShort();
+      int bc = input.readUnsignedShort();
+      int de = input.readUnsignedShort();
+      int hl = input.readUnsignedShort();
+      int sp = input.readUnsignedShort();
+      cycles += readVarLong(input);
+
+      line.setLength(0);
+      line.append(String.format("%012d  PC=%04X  OP=%02X  AF=%04X BC=%04X DE=%04X HL=%04X SP=%04X",
+          cycles, pc, opcode, af, bc, de, hl, sp));
+      line.append("  ").append((af & 0x80) != 0 ? 'Z' : '-').append((af & 0x40) != 0 ? 'N' : '-')
+          .append((af & 0x20) != 0 ? 'H' : '-').append((af & 0x10) != 0 ? 'C' : '-');
+      output.println(line);
+      count++;
+    }
+    return count;
+  }
+
+  private static long readVarLong(DataInputStream input) throws IOException {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int next = input.readUnsignedByte();
+      value |= (long) (next & 0x7F) << shift;
+      if ((next & 0x80) == 0) {
+        return value;
+      }
+    }
+  }
+}
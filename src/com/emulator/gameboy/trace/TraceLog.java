@@ -0,0 +1,172 @@
+package com.emulator.gameboy.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An instruction trace recorder. The CPU thread writes fixed-size records into a preallocated
+ * ring buffer, and a background thread drains them into a gzip-compressed binary file which can be
+ * turned back into text with {@link TraceDecoder}.
+ *
+ * <p>The file starts with the {@link #MAGIC} number and {@link #VERSION}, followed by one record
+ * per instruction: PC, opcode, AF, BC, DE, HL and SP as big-endian shorts (the opcode as a single
+ * byte), then the machine cycles elapsed since the previous record as an unsigned varint.
+ */
+public final class TraceLog implements Closeable {
+  public static final int MAGIC = 0x47425452; // "GBTR"
+  public static final short VERSION = 1;
+
+  private static final int DEFAULT_CAPACITY = 1 << 16; // records
+  private static final int LONGS_PER_RECORD = 3;
+
+  private final long[] ring;
+  private final int mask;
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong consumed = new AtomicLong();
+  private final DataOutputStream output;
+  private final Thread drainThread;
+  private long head;
+  private long cachedTail;
+  private volatile boolean closed;
+  private IOException failure;
+
+  /**
+   * Opens a trace file with the default ring buffer capacity.
+   *
+   * @param path the file to write
+   * @throws IOException if the file cannot be created
+   */
+  public TraceLog(Path path) throws IOException {
+    this(Files.newOutputStream(path), DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a trace log which drains into a stream.
+   *
+   * @param stream the destination of the compressed trace
+   * @param capacity the ring buffer capacity in records, rounded up to a power of two
+   * @throws IOException if the header cannot be written
+   */
+  public TraceLog(OutputStream stream, int capacity) throws IOException {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    ring = new long[size * LONGS_PER_RECORD];
+    mask = size - 1;
+    output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(stream, 1 << 16)));
+    output.writeInt(MAGIC);
+    output.writeShort(VERSION);
+    drainThread = new Thread(this::drain, "trace-log");
+    drainThread.setDaemon(true);
+    drainThread.start();
+  }
+
+  /**
+   * Records one instruction. Must only be called from the emulation thread; blocks briefly if the
+   * drain thread has fallen a full ring behind, and does nothing once the log is closed.
+   *
+   * @param pc the address of the instruction
+   * @param opcode the opcode
+   * @param af the AF register pair
+   * @param bc the BC register pair
+   * @param de the DE register pair
+   * @param hl the HL register pair
+   * @param sp the stack pointer
+   * @param cycles the machine cycle count before the instruction
+   */
+  public void record(int pc, int opcode, int af, int bc, int de, int hl, int sp, long cycles) {
+    if (closed) {
+      return;
+    }
+    if (head - cachedTail > mask) {
+      cachedTail = consumed.get();
+      while (head - cachedTail > mask) {
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        cachedTail = consumed.get();
+      }
+    }
+    int index = (int) (head & mask) * LONGS_PER_RECORD;
+    ring[index] = ((long) (pc & 0xFFFF) << 48) | ((long) (opcode & 0xFF) << 40)
+        | ((long) (af & 0xFFFF) << 24) | ((long) (sp & 0xFFFF) << 8);
+    ring[index + 1] = ((long) (bc & 0xFFFF) << 48) | ((long) (de & 0xFFFF) << 32)
+        | ((long) (hl & 0xFFFF) << 16);
+    ring[index + 2] = cycles;
+    head++;
+    published.lazySet(head);
+  }
+
+  /**
+   * Stops recording, drains the remaining records and closes the file.
+   *
+   * @throws IOException if any part of the trace could not be written
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    LockSupport.unpark(drainThread);
+    try {
+      drainThread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void drain() {
+    long tail = 0;
+    long previousCycles = 0;
+    try {
+      while (true) {
+        boolean finished = closed;
+        long available = published.get();
+        if (tail == available) {
+          if (finished) {
+            break;
+          }
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+          continue;
+        }
+        for (; tail < available; tail++) {
+          int index = (int) (tail & mask) * LONGS_PER_RECORD;
+          long first = ring[index];
+          long second = ring[index + 1];
+          long cycles = ring[index + 2];
+          output.writeShort((int) (first >>> 48));
+          output.writeByte((int) (first >>> 40));
+          output.writeShort((int) (first >>> 24));
+          output.writeShort((int) (second >>> 48));
+          output.writeShort((int) (second >>> 32));
+          output.writeShort((int) (second >>> 16));
+          output.writeShort((int) (first >>> 8));
+          writeVarLong(cycles - previousCycles);
+          previousCycles = cycles;
+          consumed.lazySet(tail + 1);
+        }
+      }
+      output.close();
+    } catch (IOException ex) {
+      failure = ex;
+      consumed.set(Long.MAX_VALUE); // never block the emulation thread on a dead writer
+    }
+  }
+
+  private void writeVarLong(long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      output.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.writeByte((int) value);
+  }
+}
@@ -0,0 +1,52 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.memory.RomImage;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class BatchRunnerTests {
+  // each instance turns the background on so frames are drawn, and writes its own tile map and
+  // frame number
+  private static BatchRunner.Input input(int seed) {
+    return (gameBoy, frame) -> {
+      gameBoy.getMemory().setByte(0xFF40, (byte) 0x91);
+      gameBoy.getMemory().setByte(0xFF47, (byte) 0xE4);
+      gameBoy.getMemory().setByte(0x8000 + seed * 2, (byte) 0xFF);
+      gameBoy.getMemory().setByte(0xD000, (byte) frame);
+    };
+  }
+
+  @Test
+  public void parallelMatchesSequentialTest() {
+    RomImage rom = RomImage.of(TestRoms.counterLoop());
+    try (BatchRunner runner = new BatchRunner(4)) {
+      for (int seed = 0; seed < 8; seed++) {
+        runner.submit(rom, input(seed), true, seed % 2 == 1);
+      }
+      runner.step(5);
+      runner.step(5);
+
+      List<BatchRunner.Instance> instances = runner.getInstances();
+      for (int seed = 0; seed < instances.size(); seed++) {
+        BatchRunner.Instance expected;
+        try (BatchRunner sequential = new BatchRunner(1)) {
+          expected = sequential.submit(rom, input(seed), true, false);
+          expected.step(10);
+        }
+        BatchRunner.Instance instance = instances.get(seed);
+        assertEquals("Every frame should be hashed", 10, instance.getFrameHashes().length);
+        assertArrayEquals("Instance " + seed + " should draw the same frames alone",
+            expected.getFrameHashes(), instance.getFrameHashes());
+        assertArrayEquals("Instance " + seed + " should leave the same RAM alone",
+            expected.getWorkRam(), instance.getWorkRam());
+        assertEquals("Input should be applied before each frame", 9,
+            instance.getWorkRam()[0x1000]);
+      }
+    }
+  }
+}
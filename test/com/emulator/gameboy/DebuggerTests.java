@@ -0,0 +1,159 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.emulator.gameboy.memory.Memory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class DebuggerTests {
+  GameBoy gameBoy = TestRoms.counterLoopMachine(true);
+  Debugger debugger = new Debugger(gameBoy);
+  List<Debugger.Hit> hits = new ArrayList<>();
+
+  {
+    debugger.setHitListener(hits::add);
+  }
+
+  @Test
+  public void breakpointTest() {
+    debugger.addBreakpoint(0x0005);
+    gameBoy.runFrame();
+    assertTrue("A breakpoint should pause the machine", gameBoy.isPaused());
+    assertEquals("The frame should end early", 0, gameBoy.getGpu().getFrameCount());
+    assertEquals("The breakpoint should stop before its instruction", 0x0005,
+        gameBoy.getCpu().getProgramCounter());
+    assertEquals("The hit should show the opcode", 0x18, hits.get(0).getValue());
+    assertEquals("The instruction before should have run", 1,
+        gameBoy.getMemory().getByteAt(0xC000));
+
+    gameBoy.runFrame();
+    assertEquals("A paused machine should not run", 1, hits.size());
+
+    debugger.resume();
+    gameBoy.runFrame();
+    assertEquals("Resuming should run to the breakpoint again", 2, hits.size());
+    assertEquals("Resuming should step over the breakpoint", 1,
+        gameBoy.getMemory().getByteAt(0xC001));
+
+    debugger.removeBreakpoint(0x0005);
+    debugger.resume();
+    gameBoy.runFrame();
+    assertFalse("A removed breakpoint should not pause", gameBoy.isPaused());
+    assertEquals("The frame should complete", 1, gameBoy.getGpu().getFrameCount());
+  }
+
+  @Test
+  public void watchpointTest() {
+    debugger.watchWrites(0xC010, 2);
+    gameBoy.runFrame();
+    Debugger.Hit hit = hits.get(0);
+    assertEquals(Debugger.Kind.WRITE, hit.getKind());
+    assertEquals("The write should be to the watched address", 0xC010, hit.getAddress());
+    assertEquals("The hit should show the value written", 1, hit.getValue());
+    assertEquals("The hit should show the writing instruction", 0x0003, hit.getProgramCounter());
+    assertEquals("The machine should pause after the instruction", 0x0004,
+        gameBoy.getCpu().getProgramCounter());
+    debugger.unwatchWrites(0xC010, 2);
+
+    debugger.watchReads(0xC020, 1);
+    debugger.resume();
+    gameBoy.runFrame();
+    assertEquals(Debugger.Kind.READ, hits.get(1).getKind());
+    assertEquals("The read should be of the watched address", 0xC020, hits.get(1).getAddress());
+    assertEquals("Device accesses should not hit", 2, hits.size());
+  }
+
+  @Test
+  public void breakpointAfterWatchpointTest() {
+    debugger.watchWrites(0xC000, 1);
+    debugger.addBreakpoint(0x0004);
+    gameBoy.runFrame();
+    assertEquals(Debugger.Kind.WRITE, hits.get(0).getKind());
+    assertEquals("The machine should pause on the breakpoint's instruction", 0x0004,
+        gameBoy.getCpu().getProgramCounter());
+
+    debugger.resume();
+    gameBoy.runFrame();
+    assertEquals("The breakpoint should not be stepped over", 2, hits.size());
+    assertEquals(Debugger.Kind.BREAKPOINT, hits.get(1).getKind());
+    assertEquals("The breakpoint should hit before the loop goes round again", 0,
+        gameBoy.getMemory().getByteAt(0xC001));
+  }
+
+  @Test
+  public void runTest() {
+    debugger.watchWrites(0xC002, 1);
+    gameBoy.getInstrumentedCore().run();
+    assertEquals("Running should stop at the first hit", 1, hits.size());
+    assertEquals(0xC002, hits.get(0).getAddress());
+
+    debugger.unwatchWrites(0xC002, 1);
+    debugger.addBreakpoint(0x0005);
+    debugger.resume();
+    gameBoy.getInstrumentedCore().run();
+    assertEquals(Debugger.Kind.BREAKPOINT, hits.get(1).getKind());
+    assertEquals(0x0005, gameBoy.getCpu().getProgramCounter());
+  }
+
+  @Test
+  public void echoWatchpointTest() {
+    debugger.watchWrites(0xE002, 1);
+    gameBoy.runFrame();
+    assertEquals("A write to work RAM should hit its echo's watch", 1, hits.size());
+    assertEquals(0xC002, hits.get(0).getAddress());
+    debugger.unwatchWrites(0xE002, 1);
+    debugger.resume();
+    gameBoy.runFrame();
+    assertEquals("Unwatching the echo should unwatch work RAM", 1, hits.size());
+
+
+    // the same loop counting through echo RAM from 0xE000
+    byte[] rom = TestRoms.counterLoop();
+    rom[2] = (byte) 0xE0;
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    GameBoy echoing = new GameBoy(memory, null, true);
+    Debugger echoDebugger = new Debugger(echoing);
+    echoDebugger.setHitListener(hits::add);
+    echoDebugger.watchReads(0xC005, 1);
+    echoing.runFrame();
+    assertEquals(Debugger.Kind.READ, hits.get(1).getKind());
+    assertEquals("A read through echo RAM should hit the work RAM watch", 0xE005,
+        hits.get(1).getAddress());
+  }
+
+  @Test
+  public void breakpointAfterHaltTest() {
+    // LD SP,0xFFFE; LD HL,0xC000; IE = timer; TAC = enabled, fastest; EI; loop: HALT; NOP; JR loop
+    // 0x0050: INC (HL); RETI
+    byte[] rom = new byte[0x8000];
+    int[] code = {0x31, 0xFE, 0xFF, 0x21, 0x00, 0xC0, 0x3E, 0x04, 0xE0, 0xFF, 0x3E, 0x05, 0xE0,
+        0x07, 0xFB, 0x76, 0x00, 0x18, 0xFC};
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    rom[0x0050] = 0x34;
+    rom[0x0051] = (byte) 0xD9;
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    GameBoy halting = new GameBoy(memory, null, true);
+    Debugger haltDebugger = new Debugger(halting);
+    haltDebugger.setHitListener(hits::add);
+
+    haltDebugger.addBreakpoint(0x0010);
+    halting.runFrame();
+    assertEquals("The breakpoint should wait for the CPU to wake", 1, memory.getByteAt(0xC000));
+    haltDebugger.resume();
+    halting.runFrame();
+    assertEquals("Resuming should run to the next interrupt", 2, hits.size());
+    assertEquals(0x0010, halting.getCpu().getProgramCounter());
+    assertEquals("The next hit should come only after the interrupt", 2,
+        memory.getByteAt(0xC000));
+  }
+}
@@ -0,0 +1,22 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FastForwardTests {
+  @Test
+  public void adaptiveFrameSkipTest() {
+    FastForward fastForward = new FastForward();
+    fastForward.frameDone(1_000_000); // a host emulating 1000 frames per second
+    assertEquals("Every frame should be drawn when not fast-forwarding", 1,
+        fastForward.getFrameSkip());
+
+    fastForward.setEnabled(true);
+    assertEquals("The skip should keep about 60 drawn frames per second", 17,
+        fastForward.getFrameSkip());
+
+    fastForward.setFrameSkip(4);
+    assertEquals("A fixed skip should be used as given", 4, fastForward.getFrameSkip());
+  }
+}
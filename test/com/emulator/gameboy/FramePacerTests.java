@@ -0,0 +1,32 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class FramePacerTests {
+  @Test
+  public void frameRateTest() {
+    FramePacer pacer = new FramePacer();
+    long start = System.nanoTime();
+    for (int i = 0; i < 10; i++) {
+      pacer.awaitNextFrame();
+    }
+    long elapsed = System.nanoTime() - start;
+    assertTrue("Frames should not come faster than 59.73 Hz",
+        elapsed >= (long) (9 * FramePacer.FRAME_NANOS));
+    assertEquals("Every frame should be measured", 10, pacer.getFrameCount());
+  }
+
+  @Test
+  public void lagTest() throws InterruptedException {
+    FramePacer pacer = new FramePacer();
+    Thread.sleep(200); // about 12 frames late
+    long start = System.nanoTime();
+    pacer.awaitNextFrame();
+    pacer.awaitNextFrame();
+    assertTrue("A late loop should restart the schedule rather than catch up",
+        System.nanoTime() - start >= (long) FramePacer.FRAME_NANOS);
+  }
+}
@@ -0,0 +1,77 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.memory.Memory;
+
+import org.junit.Test;
+
+public class GameBoyTests {
+  // an MBC1 cartridge with 8k of RAM which fills cartridge RAM with a counter, switching the ROM
+  // bank and writing video RAM as it goes:
+  // LD SP,0xD000; LD A,0x0A; LD (0x0000),A; LD HL,0xA000
+  // loop: INC B; LD (HL),B; INC HL; LD A,H; AND 0x1F; OR 0xA0; LD H,A; LD A,B
+  //       LD (0x2000),A; LD (0x8000),A; JR loop
+  private static byte[] program() {
+    int[] code = {0x31, 0x00, 0xD0, 0x3E, 0x0A, 0xEA, 0x00, 0x00, 0x21, 0x00, 0xA0, 0x04, 0x70,
+        0x23, 0x7C, 0xE6, 0x1F, 0xF6, 0xA0, 0x67, 0x78, 0xEA, 0x00, 0x20, 0xEA, 0x00, 0x80, 0x18,
+        0xEE};
+    byte[] rom = new byte[0x10000];
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    rom[0x0147] = 0x03; // MBC1 with RAM
+    rom[0x0148] = 0x01; // 64k ROM
+    rom[0x0149] = 0x02; // 8k RAM
+    return rom;
+  }
+
+  private static GameBoy gameBoy(boolean recompile) {
+    Memory memory = new Memory();
+    memory.loadRom(program());
+    return new GameBoy(memory, null, recompile);
+  }
+
+  private static void runFrames(GameBoy gameBoy, int frames) {
+    for (int i = 0; i < frames; i++) {
+      gameBoy.runFrame();
+    }
+  }
+
+  private static void checkRoundTrip(boolean recompile) {
+    GameBoy gameBoy = gameBoy(recompile);
+    runFrames(gameBoy, 3);
+    byte[] saved = gameBoy.saveState();
+    assertEquals("A state should fill its size exactly", gameBoy.getStateSize(), saved.length);
+    runFrames(gameBoy, 2);
+    byte[] expected = gameBoy.saveState();
+
+    gameBoy.loadState(saved);
+    assertArrayEquals("Loading should restore the saved state", saved, gameBoy.saveState());
+    runFrames(gameBoy, 2);
+    assertArrayEquals("A loaded state should run the same way again", expected,
+        gameBoy.saveState());
+
+    GameBoy other = gameBoy(recompile);
+    other.loadState(saved);
+    runFrames(other, 2);
+    assertArrayEquals("A state should run the same way on another machine", expected,
+        other.saveState());
+  }
+
+  @Test
+  public void saveStateTest() {
+    checkRoundTrip(false);
+  }
+
+  @Test
+  public void recompiledSaveStateTest() {
+    checkRoundTrip(true);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidStateTest() {
+    gameBoy(false).loadState(new byte[64]);
+  }
+}
@@ -0,0 +1,166 @@
+package com.emulator.gameboy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class ProfilerTests {
+  // LD A,2; LD (0x2000),A; LD SP,0xFFFE; loop: CALL 0x4000; JR loop
+  // bank 2, 0x4000: CALL 0x0100; RET
+  // 0x0100: SWAP A; RET
+  private static GameBoy callLoop() {
+    byte[] rom = new byte[0x10000];
+    int[] code = {0x3E, 0x02, 0xEA, 0x00, 0x20, 0x31, 0xFE, 0xFF, 0xCD, 0x00, 0x40, 0x18, 0xFB};
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    int[] function = {0xCD, 0x00, 0x01, 0xC9};
+    for (int i = 0; i < function.length; i++) {
+      rom[2 * 0x4000 + i] = (byte) function[i];
+    }
+    int[] leaf = {0xCB, 0x37, 0xC9};
+    for (int i = 0; i < leaf.length; i++) {
+      rom[0x0100 + i] = (byte) leaf[i];
+    }
+    rom[0x0147] = 0x01; // MBC1
+    rom[0x0148] = 0x01; // 64k ROM
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    return new GameBoy(memory, null, true);
+  }
+
+  // LD SP,0xFFFE; LD A,5; LDH (TAC),A; LD A,4; LDH (IE),A; EI; loop: PUSH BC; POP BC; JR loop
+  // 0x0050: RETI
+  private static GameBoy timerLoop() {
+    byte[] rom = new byte[0x8000];
+    int[] code = {0x31, 0xFE, 0xFF, 0x3E, 0x05, 0xE0, 0x07, 0x3E, 0x04, 0xE0, 0xFF, 0xFB, 0xC5,
+        0xC1, 0x18, 0xFC};
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    rom[0x0050] = (byte) 0xD9;
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    return new GameBoy(memory, null, true);
+  }
+
+  @Test
+  public void countersTest() {
+    GameBoy gameBoy = callLoop();
+    Profiler profiler = new Profiler(gameBoy);
+    profiler.start();
+    gameBoy.runFrame();
+
+    long calls = profiler.getAddressCount(0, 0x0008);
+    assertTrue("The loop should have run", calls > 500);
+    assertEquals("Each call should run the banked function once", calls,
+        profiler.getAddressCount(2, 0x4000), 1);
+    assertEquals("Nothing should run from bank 1", 0, profiler.getAddressCount(1, 0x4000));
+    assertEquals("Both calls should count under CALL", profiler.getOpcodeCount(0xCD),
+        profiler.getAddressCount(0, 0x0008) + profiler.getAddressCount(2, 0x4000));
+    assertEquals("SWAP A should count as a CB opcode", profiler.getAddressCount(0, 0x0100),
+        profiler.getCbOpcodeCount(0x37));
+    assertEquals("SWAP A takes 2 cycles", 2 * profiler.getCbOpcodeCount(0x37),
+        profiler.getCbOpcodeCycles(0x37));
+
+    long total = 0;
+    for (int opcode = 0; opcode < 256; opcode++) {
+      total += profiler.getOpcodeCycles(opcode);
+    }
+    assertEquals("Every cycle of the frame should be counted", gameBoy.getCpu().getCycleCount(),
+        total);
+
+    profiler.stop();
+    gameBoy.runFrame();
+    assertEquals("A stopped profiler should not count", calls, profiler.getAddressCount(0, 0x0008));
+  }
+
+  @Test
+  public void collapsedStacksTest() throws IOException {
+    GameBoy gameBoy = callLoop();
+    Profiler profiler = new Profiler(gameBoy);
+    profiler.start();
+    gameBoy.runFrame();
+
+    StringWriter out = new StringWriter();
+    profiler.writeCollapsedStacks(out);
+    String[] lines = out.toString().split("\n");
+    assertEquals("There should be three stacks: " + out, 3, lines.length);
+    assertTrue(lines[0], lines[0].startsWith("top "));
+    assertTrue(lines[1], lines[1].startsWith("top;02:4000 "));
+    assertTrue(lines[2], lines[2].startsWith("top;02:4000;00:0100 "));
+
+    StringWriter report = new StringWriter();
+    profiler.writeReport(report, 5);
+    assertTrue(report.toString(), report.toString().contains("02:4000"));
+  }
+
+  @Test
+  public void sharedCoreTest() {
+    GameBoy gameBoy = callLoop();
+    Profiler profiler = new Profiler(gameBoy);
+    Debugger debugger = new Debugger(gameBoy);
+    profiler.start();
+    debugger.removeBreakpoint(0x0008);
+    gameBoy.runFrame();
+    assertTrue("A debugger with nothing armed should not stop the profiler",
+        profiler.getAddressCount(0, 0x0008) > 0);
+
+    try {
+      debugger.addBreakpoint(0x0008);
+      fail("The debugger should not arm while the profiler runs");
+    } catch (IllegalStateException expected) {
+      // the profiler keeps the machine
+    }
+    profiler.stop();
+    debugger.addBreakpoint(0x0008);
+    try {
+      profiler.start();
+      fail("The profiler should not start while the debugger is armed");
+    } catch (IllegalStateException expected) {
+      // the debugger keeps the machine
+    }
+    gameBoy.runFrame();
+    assertTrue("The debugger should still break", gameBoy.isPaused());
+  }
+
+  @Test
+  public void interruptTest() throws IOException {
+    GameBoy gameBoy = timerLoop();
+    Profiler profiler = new Profiler(gameBoy);
+    profiler.start();
+    gameBoy.runFrame();
+
+    long dispatches = profiler.getInterruptCount(InterruptController.TIMER);
+    assertTrue("The timer should interrupt the loop", dispatches > 10);
+    assertEquals("Each dispatch takes 5 cycles", 5 * dispatches,
+        profiler.getInterruptCycles(InterruptController.TIMER));
+    assertEquals("Each dispatch should run the handler once", dispatches,
+        profiler.getAddressCount(0, 0x0050), 1);
+
+    long instructions = 0;
+    long cycles = 0;
+    for (int opcode = 0; opcode < 256; opcode++) {
+      instructions += profiler.getOpcodeCount(opcode);
+      cycles += profiler.getOpcodeCycles(opcode);
+    }
+    assertEquals("Dispatches should not count as instructions",
+        gameBoy.getCpu().getInstructionCount(), instructions);
+    assertEquals("Every cycle should be counted once", gameBoy.getCpu().getCycleCount(),
+        cycles + profiler.getInterruptCycles(InterruptController.TIMER));
+
+    StringWriter out = new StringWriter();
+    profiler.writeCollapsedStacks(out);
+    String[] lines = out.toString().split("\n");
+    assertEquals("The handler should be a call from the loop: " + out, 2, lines.length);
+    assertTrue(lines[1], lines[1].startsWith("top;00:0050 "));
+  }
+}
@@ -0,0 +1,38 @@
+package com.emulator.gameboy;
+
+import com.emulator.gameboy.memory.Memory;
+
+/**
+ * Small hand-assembled ROMs shared by the tests.
+ */
+public final class TestRoms {
+  private TestRoms() {
+  }
+
+  /**
+   * A 32k ROM which counts through work RAM: LD HL,0xC000; loop: INC (HL); INC L; JR loop. The
+   * INC (HL) is at 0x0003, INC L at 0x0004 and JR at 0x0005.
+   *
+   * @return the ROM image
+   */
+  public static byte[] counterLoop() {
+    byte[] rom = new byte[0x8000];
+    int[] code = {0x21, 0x00, 0xC0, 0x34, 0x2C, 0x18, 0xFC};
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    return rom;
+  }
+
+  /**
+   * A machine without a screen running {@link #counterLoop()}.
+   *
+   * @param recompile whether to run on the recompiling core
+   * @return the machine
+   */
+  public static GameBoy counterLoopMachine(boolean recompile) {
+    Memory memory = new Memory();
+    memory.loadRom(counterLoop());
+    return new GameBoy(memory, null, recompile);
+  }
+}
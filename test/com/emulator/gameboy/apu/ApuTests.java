@@ -0,0 +1,111 @@
+package com.emulator.gameboy.apu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import org.junit.Test;
+
+public class ApuTests {
+  Memory memory = new Memory();
+  Scheduler scheduler = new Scheduler();
+  long[] time = new long[1];
+  Apu apu = new Apu(memory, scheduler, () -> time[0]);
+  short[] samples = new short[Apu.SAMPLE_RATE * 2];
+  int count;
+  int calls;
+
+  {
+    apu.setSink((batch, offset, length) -> {
+      int copied = Math.min(length, samples.length - count);
+      System.arraycopy(batch, offset, samples, count, copied);
+      count += copied;
+      calls++;
+    });
+  }
+
+  // run the scheduler's events up to a machine cycle
+  private void runTo(long cycle) {
+    while (scheduler.getNextEventTime() <= cycle) {
+      time[0] = scheduler.getNextEventTime();
+      scheduler.dispatch(time[0]);
+    }
+    time[0] = cycle;
+  }
+
+  private void write(int address, int value) {
+    memory.setByte(address, (byte) value);
+  }
+
+  private int read(int address) {
+    return memory.getByteAt(address) & 0xFF;
+  }
+
+  @Test
+  public void squareTest() {
+    // channel 2 at 131072 / (2048 - 1917) = 1000.5 Hz, 50% duty, full volume, left only
+    write(0xFF25, 0x20);
+    write(0xFF16, 0x80);
+    write(0xFF17, 0xF0);
+    write(0xFF18, 1917 & 0xFF);
+    write(0xFF19, 0x80 | 1917 >> 8);
+    assertEquals("Channel 2 should be on", 0xF2, read(0xFF26));
+
+    runTo(1048576 / 4); // a quarter of a second
+    assertEquals(Apu.SAMPLE_RATE / 4, count / 2, 1);
+    assertTrue("Samples should arrive in batches", calls < count / 100);
+
+    int crossings = 0;
+    for (int i = 2; i < count; i += 2) {
+      if ((samples[i - 2] < 0) != (samples[i] < 0)) {
+        crossings++;
+      }
+    }
+    assertEquals("A 1000 Hz square crosses zero 500 times in a quarter second", 500, crossings,
+        10);
+    for (int i = 1; i < count; i += 2) {
+      assertEquals("The right side should be silent", 0, samples[i]);
+    }
+  }
+
+  @Test
+  public void lengthTest() {
+    write(0xFF12, 0xF0);
+    write(0xFF11, 64 - 10); // 10 steps of 1/256 s
+    write(0xFF14, 0xC0); // trigger with the length enabled
+    assertEquals(0x01, read(0xFF26) & 0x0F);
+    runTo(9 * Apu.SEQUENCER_CYCLES * 2 - 1);
+    assertEquals("The channel should still play", 0x01, read(0xFF26) & 0x0F);
+    runTo(11 * Apu.SEQUENCER_CYCLES * 2);
+    assertEquals("The length should have run out", 0x00, read(0xFF26) & 0x0F);
+  }
+
+  @Test
+  public void powerTest() {
+    write(0xFF12, 0xF0);
+    write(0xFF14, 0x80);
+    write(0xFF26, 0x00);
+    assertEquals("Powering off should stop every channel", 0x70, read(0xFF26));
+    assertEquals("Powering off should clear the registers", 0x00, read(0xFF12));
+    write(0xFF12, 0xF0);
+    assertEquals("Registers should ignore writes while off", 0x00, read(0xFF12));
+    write(0xFF30, 0x12);
+    assertEquals("Wave RAM should stay writable", 0x12, read(0xFF30));
+    write(0xFF26, 0x80);
+    assertEquals(0xF0, read(0xFF26));
+    assertEquals("Unused bits should read as 1", 0xBF, read(0xFF14));
+  }
+
+  @Test
+  public void nullSinkTest() {
+    apu.setSink(SampleSink.NULL);
+    count = 0;
+    write(0xFF21, 0xF0);
+    write(0xFF23, 0x80);
+    runTo(1048576);
+    assertEquals("Nothing should be rendered", 0, count);
+    assertEquals("The frame sequencer should still run", 0x08, read(0xFF26) & 0x0F);
+  }
+}
@@ -0,0 +1,77 @@
+package com.emulator.gameboy.apu;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class SampleRingTests {
+  @Test
+  public void wrapTest() {
+    SampleRing ring = new SampleRing(8);
+    short[] samples = {1, 2, 3, 4, 5, 6};
+    short[] out = new short[8];
+    ring.write(samples, 0, 6);
+    assertEquals(4, ring.read(out, 0, 4));
+    ring.write(samples, 0, 6); // wraps around the end
+    assertEquals(8, ring.size());
+    assertEquals(8, ring.read(out, 0, 8));
+    assertEquals(5, out[0]);
+    assertEquals(6, out[1]);
+    assertEquals(1, out[2]);
+    assertEquals(6, out[7]);
+  }
+
+  @Test
+  public void fullTest() {
+    SampleRing ring = new SampleRing(8);
+    short[] samples = new short[6];
+    ring.write(samples, 0, 6);
+    ring.write(samples, 0, 6);
+    assertEquals("The ring should hold what fits", 8, ring.size());
+    assertEquals("The rest should be dropped", 4, ring.getDropped());
+  }
+
+  @Test(timeout = 10_000)
+  public void concurrentTest() throws InterruptedException {
+    SampleRing ring = new SampleRing(256);
+    int total = 1 << 16;
+    AtomicReference<AssertionError> failure = new AtomicReference<>();
+    Thread consumer = new Thread(() -> {
+      short[] out = new short[100];
+      int expected = 0;
+      try {
+        while (expected < total) {
+          int count = ring.read(out, 0, out.length);
+          if (count == 0) {
+            Thread.yield();
+          }
+          for (int i = 0; i < count; i++) {
+            assertEquals((short) expected++, out[i]);
+          }
+        }
+      } catch (AssertionError ex) {
+        failure.set(ex);
+      }
+    });
+    consumer.start();
+    short[] batch = new short[64];
+    for (int next = 0; next < total && consumer.isAlive(); ) {
+      if (ring.capacity() - ring.size() < batch.length) {
+        Thread.yield();
+        continue;
+      }
+      for (int i = 0; i < batch.length; i++) {
+        batch[i] = (short) (next + i);
+      }
+      ring.write(batch, 0, batch.length);
+      next += batch.length;
+    }
+    consumer.join();
+    if (failure.get() != null) {
+      throw failure.get();
+    }
+    assertEquals("Nothing should be dropped when the producer waits", 0, ring.getDropped());
+  }
+}
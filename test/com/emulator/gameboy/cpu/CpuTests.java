@@ -36,4 +36,182 @@ public class CpuTests {
     }
   }
 
+  private void load(int... program) {
+    byte[] rom = new byte[0x8000];
+    for (int i = 0; i < program.length; i++) {
+      rom[i] = (byte) program[i];
+    }
+    memory.loadRom(rom);
+  }
+
+  private void step(int instructions) {
+    for (int i = 0; i < instructions; i++) {
+      tester.step();
+    }
+  }
+
+  @Test
+  public void addFlagsTest() {
+    // LD SP,0xD000; LD A,0x3A; ADD A,0xC6; PUSH AF
+    load(0x31, 0x00, 0xD0, 0x3E, 0x3A, 0xC6, 0xC6, 0xF5);
+    step(4);
+    assertEquals("A should wrap to 0x00", 0x00, memory.getByteAt(0xCFFF));
+    assertEquals("Z, H and C should be set", (byte) 0xB0, memory.getByteAt(0xCFFE));
+    assertEquals("PUSH AF should take 4 machine cycles", 4, tester.getLastInstructionTime());
+  }
+
+  @Test
+  public void callAndReturnTest() {
+    // LD SP,0xD000; CALL 0x0010; LD (0xC000),A
+    // 0x0010: LD A,0x42; RET
+    load(0x31, 0x00, 0xD0, 0xCD, 0x10, 0x00, 0xEA, 0x00, 0xC0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+        0x00, 0x3E, 0x42, 0xC9);
+    step(5);
+    assertEquals("Return address should be pushed", (short) 0x0006, memory.getWordAt(0xCFFE));
+    assertEquals("A should be stored after returning", (byte) 0x42, memory.getByteAt(0xC000));
+  }
+
+  @Test
+  public void conditionalJumpTimingTest() {
+    // XOR A; JR NZ,+2 (not taken); JR Z,+0 (taken)
+    load(0xAF, 0x20, 0x02, 0x28, 0x00);
+    step(2);
+    assertEquals("Untaken JR should take 2 machine cycles", 2, tester.getLastInstructionTime());
+    step(1);
+    assertEquals("Taken JR should take 3 machine cycles", 3, tester.getLastInstructionTime());
+  }
+
+  @Test
+  public void cbInstructionTest() {
+    // LD HL,0xC000; LD (HL),0x01; SET 7,(HL); SWAP (HL)
+    load(0x21, 0x00, 0xC0, 0x36, 0x01, 0xCB, 0xFE, 0xCB, 0x36);
+    step(3);
+    assertEquals("SET 7,(HL) should set the top bit", (byte) 0x81, memory.getByteAt(0xC000));
+    assertEquals("SET b,(HL) should take 4 machine cycles", 4, tester.getLastInstructionTime());
+    step(1);
+    assertEquals("SWAP (HL) should swap nibbles", (byte) 0x18, memory.getByteAt(0xC000));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void illegalInstructionTest() {
+    load(0xD3);
+    step(1);
+  }
+
+  // the flags an 8-bit ALU operation should produce, computed the long way
+  private static int expectedFlags(int opcode, int a, int value, int carryIn) {
+    int result;
+    boolean halfCarry;
+    boolean carry;
+    boolean subtract = false;
+    switch (opcode) {
+      case 0x80: // ADD
+      case 0x88: // ADC
+        int addCarry = opcode == 0x88 ? carryIn : 0;
+        result = a + value + addCarry;
+        halfCarry = (a & 0x0F) + (value & 0x0F) + addCarry > 0x0F;
+        carry = result > 0xFF;
+        break;
+      case 0x90: // SUB
+      case 0x98: // SBC
+      case 0xB8: // CP
+        int borrow = opcode == 0x98 ? carryIn : 0;
+        result = a - value - borrow;
+        halfCarry = (a & 0x0F) - (value & 0x0F) - borrow < 0;
+        carry = result < 0;
+        subtract = true;
+        break;
+      case 0xA0: // AND
+        result = a & value;
+        halfCarry = true;
+        carry = false;
+        break;
+      case 0xA8: // XOR
+        result = a ^ value;
+        halfCarry = false;
+        carry = false;
+        break;
+      case 0xB0: // OR
+        result = a | value;
+        halfCarry = false;
+        carry = false;
+        break;
+      case 0x3C: // INC A
+        result = a + 1;
+        halfCarry = (a & 0x0F) == 0x0F;
+        carry = carryIn != 0;
+        break;
+      default: // DEC A
+        result = a - 1;
+        halfCarry = (a & 0x0F) == 0x00;
+        carry = carryIn != 0;
+        subtract = true;
+        break;
+    }
+    return ((result & 0xFF) == 0 ? 0x80 : 0) | (subtract ? 0x40 : 0) | (halfCarry ? 0x20 : 0)
+        | (carry ? 0x10 : 0);
+  }
+
+  @Test
+  public void aluFlagsTest() {
+    int[] opcodes = {0x80, 0x88, 0x90, 0x98, 0xA0, 0xA8, 0xB0, 0xB8, 0x3C, 0x3D};
+    for (int opcode : opcodes) {
+      // LD SP,0xC000; POP AF; POP BC; <op> A,B; PUSH AF; JP 0x0000
+      load(0x31, 0x00, 0xC0, 0xF1, 0xC1, opcode, 0xF5, 0xC3, 0x00, 0x00);
+      for (int a = 0; a < 256; a++) {
+        for (int value = 0; value < 256; value++) {
+          for (int carryIn = 0; carryIn < 2; carryIn++) {
+            memory.setWord(0xC000, (short) ((a << 8) | (carryIn << 4)));
+            memory.setWord(0xC002, (short) (value << 8));
+            step(6);
+            int expected = expectedFlags(opcode, a, value, carryIn);
+            int actual = memory.getByteAt(0xC002) & 0xFF;
+            if (actual != expected) {
+              assertEquals(String.format("Flags for opcode 0x%02X with A=0x%02X, B=0x%02X, C=%d",
+                  opcode, a, value, carryIn), expected, actual);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void interruptTest() {
+    // LD SP,0xD000; LD A,0x01; LDH (0xFF),A; EI; NOP; JR -2
+    load(0x31, 0x00, 0xD0, 0x3E, 0x01, 0xE0, 0xFF, 0xFB, 0x00, 0x18, 0xFE);
+    step(3);
+    tester.getInterrupts().request(InterruptController.VBLANK);
+    step(2);
+    assertEquals("EI should take effect after the next instruction", 0x0009,
+        tester.getProgramCounter());
+    step(1);
+    assertEquals("Vblank should jump to its vector", 0x0040, tester.getProgramCounter());
+    assertEquals("Dispatch should take 5 machine cycles", 5, tester.getLastInstructionTime());
+    assertEquals("Dispatch should push the return address", 0x0009,
+        memory.getWordAt(0xCFFE) & 0xFFFF);
+    assertEquals("Dispatch should acknowledge the interrupt", 0xE0,
+        memory.getByteAt(0xFF0F) & 0xFF);
+
+    tester.getInterrupts().request(InterruptController.VBLANK);
+    step(1);
+    assertEquals("Dispatch should clear IME", 0x0041, tester.getProgramCounter());
+  }
+
+  @Test
+  public void haltTest() {
+    // LD A,0x04; LDH (0xFF),A; HALT; NOP
+    load(0x3E, 0x04, 0xE0, 0xFF, 0x76, 0x00);
+    step(4);
+    assertEquals("HALT should wait", true, tester.isHalted());
+    tester.getInterrupts().request(InterruptController.JOYPAD);
+    step(1);
+    assertEquals("A disabled interrupt should not wake", true, tester.isHalted());
+    tester.getInterrupts().request(InterruptController.TIMER);
+    step(1);
+    assertEquals("An enabled interrupt should wake without IME", 0x0006,
+        tester.getProgramCounter());
+    assertEquals("Waking without IME should leave the flag set", 0x14,
+        memory.getByteAt(0xFF0F) & 0x1F);
+  }
 }
@@ -0,0 +1,133 @@
+package com.emulator.gameboy.cpu;
+
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import org.junit.Test;
+
+public class RecompilingCpuTests {
+  Memory memory = new Memory();
+  Cpu cpu = new Cpu(memory);
+  Scheduler scheduler = new Scheduler();
+  int event = scheduler.register(time -> { });
+
+  private static byte[] rom(int size, int... program) {
+    byte[] rom = new byte[size];
+    for (int i = 0; i < program.length; i++) {
+      rom[i] = (byte) program[i];
+    }
+    return rom;
+  }
+
+  // run to a cycle in slices, so that blocks keep meeting event deadlines
+  private static void run(AbstractCpu core, Scheduler scheduler, int event, long cycles) {
+    for (long time = 37; time < cycles; time += 37) {
+      scheduler.schedule(event, time);
+      core.runUntil(scheduler);
+    }
+  }
+
+  @Test
+  public void matchesInterpreterTest() {
+    // LD SP,0xD000; LD HL,0xC000; LD B,0
+    // loop: INC B; LD (HL),B; INC L; CALL 0x0020; JR loop
+    // 0x0020: ADD A,B; PUSH AF; POP DE; RET
+    byte[] program = rom(0x8000, 0x31, 0x00, 0xD0, 0x21, 0x00, 0xC0, 0x06, 0x00, 0x04, 0x70,
+        0x2C, 0xCD, 0x20, 0x00, 0x18, 0xF8);
+    program[0x20] = (byte) 0x80;
+    program[0x21] = (byte) 0xF5;
+    program[0x22] = (byte) 0xD1;
+    program[0x23] = (byte) 0xC9;
+
+    memory.loadRom(program);
+    run(new RecompilingCpu(cpu, memory), scheduler, event, 100000);
+
+    Memory expectedMemory = new Memory();
+    expectedMemory.loadRom(program);
+    Cpu expected = new Cpu(expectedMemory);
+    Scheduler expectedScheduler = new Scheduler();
+    run(expected, expectedScheduler, expectedScheduler.register(time -> { }), 100000);
+
+    assertEquals("The cores should take the same cycles", expected.getCycleCount(),
+        cpu.getCycleCount());
+    assertEquals("The cores should stop at the same instruction", expected.getProgramCounter(),
+        cpu.getProgramCounter());
+    for (int address = 0xC000; address < 0xD000; address++) {
+      assertEquals("The cores should write the same memory", expectedMemory.getByteAt(address),
+          memory.getByteAt(address));
+    }
+  }
+
+  @Test
+  public void selfModifyingCodeTest() {
+    // write INC A; RET to 0xC100, call it 100 times and store A in 0xC000,
+    // then patch it to DEC A, call it 10 times and store A in 0xC001
+    memory.loadRom(rom(0x8000, 0x31, 0x00, 0xD0, 0x3E, 0x3C, 0xEA, 0x00, 0xC1, 0x3E, 0xC9, 0xEA,
+        0x01, 0xC1, 0xAF, 0x06, 0x64, 0xCD, 0x00, 0xC1, 0x05, 0x20, 0xFA, 0xEA, 0x00, 0xC0, 0x3E,
+        0x3D, 0xEA, 0x00, 0xC1, 0xAF, 0x06, 0x0A, 0xCD, 0x00, 0xC1, 0x05, 0x20, 0xFA, 0xEA, 0x01,
+        0xC0, 0x18, 0xFE));
+    run(new RecompilingCpu(cpu, memory), scheduler, event, 20000);
+
+    assertEquals("The routine should run 100 times", (byte) 100, memory.getByteAt(0xC000));
+    assertEquals("The patched routine should decrement", (byte) -10, memory.getByteAt(0xC001));
+  }
+
+  @Test
+  public void bankSwitchTest() {
+    // call 0x4000 64 times in bank 1 (INC A; RET) and store A in 0xC000, then select bank 2
+    // (DEC A; RET), call it 64 times and store A in 0xC001
+    byte[] program = rom(0x10000, 0x31, 0x00, 0xD0, 0xAF, 0x06, 0x40, 0xCD, 0x00, 0x40, 0x05,
+        0x20, 0xFA, 0xEA, 0x00, 0xC0, 0x21, 0x00, 0x20, 0x36, 0x02, 0x06, 0x40, 0xCD, 0x00, 0x40,
+        0x05, 0x20, 0xFA, 0xEA, 0x01, 0xC0, 0x18, 0xFE);
+    program[0x0147] = 0x01; // MBC1
+    program[0x4000] = 0x3C;
+    program[0x4001] = (byte) 0xC9;
+    program[0x8000] = 0x3D;
+    program[0x8001] = (byte) 0xC9;
+    memory.loadRom(program);
+    run(new RecompilingCpu(cpu, memory), scheduler, event, 10000);
+
+    assertEquals("Bank 1 should increment", (byte) 64, memory.getByteAt(0xC000));
+    assertEquals("Bank 2 should decrement", (byte) 0, memory.getByteAt(0xC001));
+  }
+
+  @Test
+  public void mirroredBankTest() {
+    // select bank 0 in the high window, call 0x0100 64 times and then 0x4100 once
+    // 0x0100: CALL 0x0108; 0x0108: POP HL; LD A,H; LD (0xC000),A; RET
+    byte[] program = rom(0x8000, 0x31, 0x00, 0xD0, 0x3E, 0x00, 0xEA, 0x00, 0x20, 0x06, 0x40,
+        0xCD, 0x00, 0x01, 0x05, 0x20, 0xFA, 0xCD, 0x00, 0x41, 0x18, 0xFE);
+    program[0x0147] = 0x19; // MBC5
+    int[] routine = {0xCD, 0x08, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0xE1, 0x7C, 0xEA, 0x00, 0xC0,
+        0xC9};
+    for (int i = 0; i < routine.length; i++) {
+      program[0x0100 + i] = (byte) routine[i];
+    }
+    memory.loadRom(program);
+    run(new RecompilingCpu(cpu, memory), scheduler, event, 10000);
+
+    assertEquals("A block should push addresses in the window it runs in", (byte) 0x41,
+        memory.getByteAt(0xC000));
+  }
+
+  @Test
+  public void interruptTest() {
+    // LD SP,0xD000; LD BC,0; EI
+    // loop: INC BC; LD A,B; LDH (0xFF),A; NOP; JR loop
+    // 0x0040: JR -2
+    byte[] program = rom(0x8000, 0x31, 0x00, 0xD0, 0x01, 0x00, 0x00, 0xFB, 0x03, 0x78, 0xE0, 0xFF,
+        0x00, 0x18, 0xF9);
+    program[0x40] = 0x18;
+    program[0x41] = (byte) 0xFE;
+    memory.loadRom(program);
+    cpu.getInterrupts().request(InterruptController.VBLANK);
+    run(new RecompilingCpu(cpu, memory), scheduler, event, 20000);
+
+    assertEquals("Enabling vblank in a compiled block should dispatch it", 0x0040,
+        cpu.getProgramCounter());
+    assertEquals("The interrupt should be taken right after the write", 0x000B,
+        memory.getWordAt(0xCFFE) & 0xFFFF);
+  }
+}
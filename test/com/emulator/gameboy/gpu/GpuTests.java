@@ -0,0 +1,174 @@
+package com.emulator.gameboy.gpu;
+
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import org.junit.Test;
+
+public class GpuTests {
+  Memory memory = new Memory();
+  Scheduler scheduler = new Scheduler();
+  Gpu gpu = new Gpu(memory, scheduler, new InterruptController(memory), null);
+
+  @Test
+  public void scanlineTimingTest() {
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES - 1);
+    assertEquals("Each line should start in mode 2", 2, gpu.getMode());
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES - 1);
+    assertEquals("Mode 3 should follow mode 2", 3, gpu.getMode());
+    scheduler.dispatch(Gpu.LINE_CYCLES - 1);
+    assertEquals("Hblank should end the line", 0, gpu.getMode());
+    scheduler.dispatch(Gpu.LINE_CYCLES);
+    assertEquals("LY should advance after a line", 1, memory.getByteAt(0xFF44));
+    assertEquals("STAT should show the mode", 2, memory.getByteAt(0xFF41) & 0x03);
+  }
+
+  @Test
+  public void frameTimingTest() {
+    scheduler.dispatch(Gpu.LINE_CYCLES * 144 - 1);
+    assertEquals("Vblank should start at line 144", 0, gpu.getFrameCount());
+    scheduler.dispatch(Gpu.LINE_CYCLES * 144);
+    assertEquals("Vblank should count a frame", 1, gpu.getFrameCount());
+    assertEquals("Vblank should be mode 1", 1, gpu.getMode());
+    assertEquals("Vblank should request its interrupt", 0x01, memory.getByteAt(0xFF0F) & 0x01);
+
+    scheduler.dispatch(Gpu.FRAME_CYCLES);
+    assertEquals("The next frame should start after 154 lines", 0, gpu.getScanline());
+    assertEquals("The next frame should start in mode 2", 2, gpu.getMode());
+    assertEquals("The next frame should start at the frame length",
+        Gpu.FRAME_CYCLES + Gpu.OAM_SEARCH_CYCLES, scheduler.getNextEventTime());
+  }
+
+  @Test
+  public void renderBackgroundTest() {
+    // tile 1, row 0: colour numbers 3 3 1 1 2 2 0 0; the map shows tile 1 then tile 0
+    memory.setByte(0x8010, (byte) 0xF0);
+    memory.setByte(0x8011, (byte) 0xCC);
+    memory.setByte(0x9800, (byte) 0x01);
+    memory.setByte(0xFF40, (byte) 0x91); // LCD and background on, tile data at $8000
+    memory.setByte(0xFF47, (byte) 0xE4); // identity palette
+    memory.setByte(0xFF43, (byte) 0x02); // SCX
+
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    int[] expected = {1, 1, 2, 2, 0, 0, 0, 0};
+    for (int x = 0; x < expected.length; x++) {
+      assertEquals("Pixel " + x + " should be scrolled and palette-mapped",
+          Gpu.SHADES[expected[x]], gpu.getPixels()[x]);
+    }
+
+    memory.setByte(0xFF47, (byte) 0x1B); // inverted palette
+    scheduler.dispatch(Gpu.LINE_CYCLES + Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    assertEquals("Line 1 should use the new palette", Gpu.SHADES[3],
+        gpu.getPixels()[Gpu.SCREEN_WIDTH + 4]);
+  }
+
+  @Test
+  public void tileWriteTest() {
+    memory.setByte(0x9800, (byte) 0x80); // signed tile data: tile 0x80 is at $8800
+    memory.setByte(0xFF40, (byte) 0x81); // LCD and background on, tile data at $8800
+    memory.setByte(0xFF47, (byte) 0xE4);
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    assertEquals("An empty tile should draw colour 0", Gpu.SHADES[0], gpu.getPixels()[0]);
+
+    // rewrite row 1 of the tile after it has been decoded
+    memory.setByte(0x8802, (byte) 0x80);
+    memory.setByte(0x8803, (byte) 0x80);
+    scheduler.dispatch(Gpu.LINE_CYCLES + Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    assertEquals("A written tile should be decoded again", Gpu.SHADES[3],
+        gpu.getPixels()[Gpu.SCREEN_WIDTH]);
+    assertEquals("The rest of the row should be unchanged", Gpu.SHADES[0],
+        gpu.getPixels()[Gpu.SCREEN_WIDTH + 1]);
+  }
+
+  @Test
+  public void frameSkipTest() {
+    gpu.setFrameSkip(2);
+    scheduler.dispatch(Gpu.FRAME_CYCLES + Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    gpu.getPixels()[0] = 0;
+    scheduler.dispatch(Gpu.FRAME_CYCLES * 2 - 1);
+    assertEquals("A skipped frame should not be drawn", 0, gpu.getPixels()[0]);
+    assertEquals("A skipped frame should keep its timing", 1, gpu.getMode());
+    assertEquals("A skipped frame should keep its timing", 153, gpu.getScanline());
+    assertEquals("A skipped frame should still count", 2, gpu.getFrameCount());
+
+    scheduler.dispatch(Gpu.FRAME_CYCLES * 2 + Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    assertEquals("Every second frame should be drawn", Gpu.SHADES[0], gpu.getPixels()[0]);
+  }
+
+  // a sprite in OAM entry n at a screen position
+  private void sprite(int n, int x, int y, int tile, int flags) {
+    memory.setByte(0xFE00 + n * 4, (byte) (y + 16));
+    memory.setByte(0xFE01 + n * 4, (byte) (x + 8));
+    memory.setByte(0xFE02 + n * 4, (byte) tile);
+    memory.setByte(0xFE03 + n * 4, (byte) flags);
+  }
+
+  @Test
+  public void renderSpritesTest() {
+    // tile 1, row 0: colour numbers 3 3 1 1 2 2 0 0; tile 2: all 1
+    memory.setByte(0x8010, (byte) 0xF0);
+    memory.setByte(0x8011, (byte) 0xCC);
+    memory.setByte(0x8020, (byte) 0xFF);
+    memory.setByte(0xFF40, (byte) 0x93); // LCD, background and sprites on, tile data at $8000
+    memory.setByte(0xFF47, (byte) 0xE4);
+    memory.setByte(0xFF48, (byte) 0xE4); // OBP0 identity
+    memory.setByte(0xFF49, (byte) 0x0C); // OBP1 maps colour 1 to 3
+    sprite(0, 10, 0, 1, 0x00);
+    sprite(1, 14, 0, 2, 0x10); // OBP1, under sprite 0 where that is opaque
+    sprite(2, 20, 0, 1, 0x20); // X flip, under sprite 1
+    sprite(3, 40, 1, 1, 0x00); // on the next line
+
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    int[] pixels = gpu.getPixels();
+    int[] expected = {3, 3, 1, 1, 2, 2, 0, 0};
+    for (int x = 0; x < 6; x++) {
+      assertEquals("Sprite pixel " + x, Gpu.SHADES[expected[x]], pixels[10 + x]);
+      assertEquals("Flipped sprite pixel " + x, Gpu.SHADES[expected[5 - x]], pixels[22 + x]);
+    }
+    assertEquals("Colour 0 should show the sprite behind", Gpu.SHADES[3], pixels[16]);
+    assertEquals("OBP1 should map the colour", Gpu.SHADES[3], pixels[21]);
+    assertEquals("A sprite on another line should not be drawn", Gpu.SHADES[0], pixels[40]);
+  }
+
+  @Test
+  public void spriteLimitTest() {
+    memory.setByte(0x8021, (byte) 0xFF); // tile 2: colour 2
+    memory.setByte(0xFF40, (byte) 0x93);
+    memory.setByte(0xFF48, (byte) 0xE4);
+    for (int n = 0; n < 11; n++) {
+      sprite(n, 8 + n * 8, 0, 2, 0x00);
+    }
+
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    assertEquals("The tenth sprite should be drawn", Gpu.SHADES[2], gpu.getPixels()[8 + 9 * 8]);
+    assertEquals("Only 10 sprites should be drawn per line", Gpu.SHADES[0],
+        gpu.getPixels()[8 + 10 * 8]);
+  }
+
+  @Test
+  public void spritePriorityTest() {
+    memory.setByte(0x8010, (byte) 0xFF); // tile 1: colour 1
+    memory.setByte(0x8021, (byte) 0xFF); // tile 2: colour 2
+    memory.setByte(0x8030, (byte) 0xFF); // tile 3: colour 3
+    memory.setByte(0x8031, (byte) 0xFF);
+    memory.setByte(0x9800, (byte) 0x01); // the first 8 pixels of background are colour 1
+    memory.setByte(0xFF40, (byte) 0x93);
+    memory.setByte(0xFF47, (byte) 0xE4);
+    memory.setByte(0xFF48, (byte) 0xE4);
+    sprite(0, 4, 0, 3, 0x00);
+    sprite(1, 0, 0, 2, 0x80); // a lower X, behind the background
+    sprite(2, 40, 0, 2, 0x00);
+    sprite(3, 40, 0, 3, 0x00); // the same X, later in OAM
+
+    scheduler.dispatch(Gpu.OAM_SEARCH_CYCLES + Gpu.TRANSFER_CYCLES);
+    int[] pixels = gpu.getPixels();
+    assertEquals("A sprite behind the background should hide under colours 1-3", Gpu.SHADES[1],
+        pixels[2]);
+    assertEquals("The lower X should win even when it is hidden", Gpu.SHADES[1], pixels[6]);
+    assertEquals("The other sprite should show past it", Gpu.SHADES[3], pixels[9]);
+    assertEquals("At the same X the earlier sprite should win", Gpu.SHADES[2], pixels[40]);
+  }
+}
@@ -0,0 +1,53 @@
+package com.emulator.gameboy.gpu;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class TripleBufferTests {
+  int[][] buffers = {new int[160 * 144], new int[160 * 144], new int[160 * 144]};
+  TripleBuffer frames = new TripleBuffer(buffers);
+
+  @Test
+  public void latestFrameTest() {
+    int[] first = frames.getBack();
+    Arrays.fill(first, 1);
+    int[] second = frames.publish();
+    assertNotSame("Drawing should move to another buffer", first, second);
+    Arrays.fill(second, 2);
+    frames.publish();
+
+    int front = frames.acquire();
+    assertEquals("The painter should see the latest frame", 2, buffers[front][0]);
+    assertEquals("Without a new frame the painter should keep it", front, frames.acquire());
+  }
+
+  @Test
+  public void noTearingTest() throws InterruptedException {
+    int frameCount = 20000;
+    Thread emulation = new Thread(() -> {
+      int[] back = frames.getBack();
+      for (int frame = 1; frame <= frameCount; frame++) {
+        Arrays.fill(back, frame);
+        back = frames.publish();
+      }
+    });
+    emulation.start();
+
+    int last = 0;
+    while (emulation.isAlive() || last < frameCount) {
+      int[] shown = buffers[frames.acquire()];
+      int frame = shown[0];
+      for (int pixel : shown) {
+        assertEquals("A shown frame should be complete", frame, pixel);
+      }
+      assertTrue("Frames should never go backwards", frame >= last);
+      last = frame;
+    }
+    emulation.join();
+  }
+}
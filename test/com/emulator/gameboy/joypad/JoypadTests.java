@@ -0,0 +1,39 @@
+package com.emulator.gameboy.joypad;
+
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+
+import org.junit.Test;
+
+public class JoypadTests {
+  Memory memory = new Memory();
+  Joypad joypad = new Joypad(memory, new InterruptController(memory));
+
+  @Test
+  public void registerTest() {
+    joypad.setButtons(Joypad.RIGHT | Joypad.UP | Joypad.START);
+
+    memory.setByte(0xFF00, (byte) 0x20); // directions
+    assertEquals(0xEA, memory.getByteAt(0xFF00) & 0xFF);
+    memory.setByte(0xFF00, (byte) 0x10); // actions
+    assertEquals(0xD7, memory.getByteAt(0xFF00) & 0xFF);
+    memory.setByte(0xFF00, (byte) 0x30); // neither
+    assertEquals(0xFF, memory.getByteAt(0xFF00) & 0xFF);
+    memory.setByte(0xFF00, (byte) 0xFF);
+    assertEquals("Only the select bits should be writable", 0xFF,
+        memory.getByteAt(0xFF00) & 0xFF);
+  }
+
+  @Test
+  public void interruptTest() {
+    memory.setByte(0xFF00, (byte) 0x20); // directions
+    joypad.setButtons(Joypad.A);
+    assertEquals("An unselected button should not interrupt", 0,
+        memory.getIoRegister(0xFF0F) & 0x10);
+    joypad.setButtons(Joypad.A | Joypad.DOWN);
+    assertEquals("A selected button going down should interrupt", 0x10,
+        memory.getIoRegister(0xFF0F) & 0x10);
+  }
+}
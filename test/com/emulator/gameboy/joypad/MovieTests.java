@@ -0,0 +1,87 @@
+package com.emulator.gameboy.joypad;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.emulator.gameboy.GameBoy;
+import com.emulator.gameboy.HeadlessRunner;
+import com.emulator.gameboy.memory.Memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MovieTests {
+  // LD HL,0xC000; loop: LD A,0x20; LDH (0x00),A; LDH A,(0x00); LD (HL),A; INC L; JR loop
+  private static GameBoy joypadReader() {
+    byte[] rom = new byte[0x8000];
+    int[] code = {0x21, 0x00, 0xC0, 0x3E, 0x20, 0xE0, 0x00, 0xF0, 0x00, 0x77, 0x2C, 0x18, 0xF6};
+    for (int i = 0; i < code.length; i++) {
+      rom[i] = (byte) code[i];
+    }
+    rom[0x014E] = 0x12;
+    rom[0x014F] = 0x34;
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    return new GameBoy(memory, null, false);
+  }
+
+  @Test
+  public void recordTest() throws IOException {
+    MovieRecorder recorder = new MovieRecorder(0x1234);
+    for (long frame = 0; frame < 100; frame++) {
+      recorder.record(frame, frame >= 10 && frame < 20 ? Joypad.A : frame >= 50 ? Joypad.LEFT : 0);
+    }
+    ByteArrayOutputStream file = new ByteArrayOutputStream();
+    recorder.toMovie().write(file);
+    assertEquals("Only the changes should be kept", 4 + 2 + 2 + 8 + 3 * 2, file.size());
+
+    Movie movie = Movie.read(new ByteArrayInputStream(file.toByteArray()));
+    assertEquals(0x1234, movie.getRomChecksum());
+    assertEquals(100, movie.getLength());
+    assertEquals(0, movie.getButtons(9));
+    assertEquals(Joypad.A, movie.getButtons(10));
+    assertEquals(Joypad.A, movie.getButtons(19));
+    assertEquals(0, movie.getButtons(20));
+    assertEquals(Joypad.LEFT, movie.getButtons(500));
+  }
+
+  @Test(expected = IOException.class)
+  public void invalidMovieTest() throws IOException {
+    Movie.read(new ByteArrayInputStream(new byte[16]));
+  }
+
+  @Test
+  public void replayTest() {
+    // play live, recording the input
+    GameBoy live = joypadReader();
+    MovieRecorder recorder = new MovieRecorder(Movie.romChecksum(live.getMemory()));
+    for (long frame = 0; frame < 30; frame++) {
+      int buttons = (frame / 7 % 2 == 0 ? Joypad.RIGHT : 0) | (frame % 5 == 0 ? Joypad.DOWN : 0);
+      live.getJoypad().setButtons(buttons);
+      recorder.record(frame, buttons);
+      live.runFrame();
+    }
+    Movie movie = recorder.toMovie();
+    assertEquals(0x1234, movie.getRomChecksum());
+
+    // replay headless, twice
+    byte[] first = replay(movie);
+    assertArrayEquals("A replay should repeat the recorded run", live.saveState(), first);
+    assertArrayEquals("Replays should be identical", first, replay(movie));
+    assertFalse("Different input should give a different run",
+        Arrays.equals(first, replay(new MovieRecorder(0x1234).toMovie())));
+  }
+
+  private static byte[] replay(Movie movie) {
+    GameBoy gameBoy = joypadReader();
+    HeadlessRunner runner = new HeadlessRunner(gameBoy);
+    runner.setInput(movie.player());
+    runner.run(30, 0);
+    return gameBoy.saveState();
+  }
+}
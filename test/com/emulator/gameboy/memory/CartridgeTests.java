@@ -0,0 +1,109 @@
+package com.emulator.gameboy.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+public class CartridgeTests {
+
+  // a ROM whose banks each start with their own bank number
+  private static byte[] bankedRom(int type, int banks, int ramSizeCode) {
+    byte[] rom = new byte[banks * 0x4000];
+    for (int bank = 0; bank < banks; bank++) {
+      rom[bank * 0x4000] = (byte) bank;
+      rom[bank * 0x4000 + 1] = (byte) (bank >> 8);
+    }
+    rom[0x0147] = (byte) type;
+    rom[0x0149] = (byte) ramSizeCode;
+    return rom;
+  }
+
+  private static int bankAt(Cartridge cartridge, int address) {
+    return (cartridge.readRom(address) & 0xFF) | ((cartridge.readRom(address + 1) & 0xFF) << 8);
+  }
+
+  @Test
+  public void sharedImageTest() {
+    byte[] rom = bankedRom(0x01, 4, 0);
+    RomImage image = RomImage.of(rom);
+    rom[0x4000] = 9;
+    Cartridge first = new Cartridge(image);
+    Cartridge second = new Cartridge(image);
+    assertEquals("An image should not see later changes to its source", 1, bankAt(first, 0x4000));
+    first.writeRom(0x2000, (byte) 0x03);
+    assertEquals("Each cartridge should switch banks on its own", 3, bankAt(first, 0x4000));
+    assertEquals("Each cartridge should switch banks on its own", 1, bankAt(second, 0x4000));
+    assertSame("Cartridges should share the image's bytes", first.getRomArray(),
+        second.getRomArray());
+  }
+
+  @Test
+  public void romRamWithoutControllerTest() {
+    Cartridge cartridge = new Cartridge(bankedRom(0x09, 2, 0x02)); // ROM+RAM+BATTERY, 8k
+    cartridge.writeRam(0xA123, (byte) 0x5A);
+    assertEquals("RAM without a controller should need no enabling", 0x5A,
+        cartridge.readRam(0xA123));
+    cartridge.writeRom(0x0000, (byte) 0x00);
+    assertEquals("Writes to ROM should not disable it", 0x5A, cartridge.readRam(0xA123));
+  }
+
+  @Test
+  public void mbc1BankSwitchTest() {
+    Cartridge cartridge = new Cartridge(ByteBuffer.wrap(bankedRom(0x01, 64, 0)));
+    assertEquals("Bank 1 should be mapped at reset", 1, bankAt(cartridge, 0x4000));
+    cartridge.writeRom(0x2000, (byte) 0x05);
+    assertEquals("Bank 5 should be mapped", 5, bankAt(cartridge, 0x4000));
+    cartridge.writeRom(0x2000, (byte) 0x00);
+    assertEquals("Bank 0 should map as bank 1", 1, bankAt(cartridge, 0x4000));
+    cartridge.writeRom(0x4000, (byte) 0x01);
+    assertEquals("Upper bits should select bank 0x21", 0x21, bankAt(cartridge, 0x4000));
+    cartridge.writeRom(0x6000, (byte) 0x01);
+    assertEquals("Mode 1 should remap the low window", 0x20, bankAt(cartridge, 0x0000));
+  }
+
+  @Test
+  public void mbc5BankSwitchTest() {
+    Cartridge cartridge = new Cartridge(ByteBuffer.wrap(bankedRom(0x19, 512, 0)));
+    cartridge.writeRom(0x2000, (byte) 0x00);
+    assertEquals("MBC5 can map bank 0 high", 0, bankAt(cartridge, 0x4000));
+    cartridge.writeRom(0x2000, (byte) 0x34);
+    cartridge.writeRom(0x3000, (byte) 0x01);
+    assertEquals("The ninth bank bit should apply", 0x134, bankAt(cartridge, 0x4000));
+    assertEquals("The current bank should be reported", 0x134, cartridge.getRomBank());
+  }
+
+  @Test
+  public void mbc3RamBankTest() {
+    Cartridge cartridge = new Cartridge(ByteBuffer.wrap(bankedRom(0x13, 8, 0x03)));
+    cartridge.writeRam(0xA000, (byte) 0x11);
+    assertEquals("RAM should read 0xFF while disabled", (byte) 0xFF, cartridge.readRam(0xA000));
+    cartridge.writeRom(0x0000, (byte) 0x0A);
+    cartridge.writeRam(0xA000, (byte) 0x11);
+    cartridge.writeRom(0x4000, (byte) 0x02);
+    cartridge.writeRam(0xA000, (byte) 0x22);
+    assertEquals("Bank 2 should hold its own value", (byte) 0x22, cartridge.readRam(0xA000));
+    cartridge.writeRom(0x4000, (byte) 0x00);
+    assertEquals("Bank 0 should keep its value", (byte) 0x11, cartridge.readRam(0xA000));
+  }
+
+  @Test
+  public void mappedFileTest() throws IOException {
+    Path path = Files.createTempFile("cartridge", ".gb");
+    try {
+      Files.write(path, bankedRom(0x01, 128, 0));
+      Cartridge cartridge = Cartridge.open(path);
+      assertEquals("The whole file should be mapped", 128, cartridge.getRomBankCount());
+      cartridge.writeRom(0x2000, (byte) 0x1F);
+      cartridge.writeRom(0x4000, (byte) 0x03);
+      assertEquals("The last bank should be reachable", 0x7F, bankAt(cartridge, 0x4000));
+    } finally {
+      Files.delete(path);
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package com.emulator.gameboy.memory;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MemoryTests {
+  Memory memory = new Memory();
+
+  @Test
+  public void echoRamTest() {
+    memory.setByte(0xC123, (byte) 0x42);
+    assertEquals("Echo RAM should mirror work RAM", (byte) 0x42, memory.getByteAt(0xE123));
+    memory.setByte(0xFDFF, (byte) 0x24);
+    assertEquals("Work RAM should see echo writes", (byte) 0x24, memory.getByteAt(0xDDFF));
+  }
+
+  @Test
+  public void unusableRegionTest() {
+    memory.setByte(0xFE9F, (byte) 0x11);
+    memory.setByte(0xFEA0, (byte) 0x22);
+    assertEquals("OAM should be writable", (byte) 0x11, memory.getByteAt(0xFE9F));
+    assertEquals("The unusable region should read 0", (byte) 0x00, memory.getByteAt(0xFEA0));
+  }
+
+  @Test
+  public void ioHandlerTest() {
+    int[] writes = new int[1];
+    memory.mapIo(0xFF47, new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        return (byte) 0x5A;
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        writes[0]++;
+        memory.setIoRegister(address, value);
+      }
+    });
+    memory.setByte(0xFF47, (byte) 0xE4);
+    assertEquals("The handler should see the write", 1, writes[0]);
+    assertEquals("Reads should go through the handler", (byte) 0x5A, memory.getByteAt(0xFF47));
+    assertEquals("The handler should store the value", (byte) 0xE4, memory.getIoRegister(0xFF47));
+    memory.setByte(0xFF80, (byte) 0x33);
+    assertEquals("Zero page should be plain memory", (byte) 0x33, memory.getByteAt(0xFF80));
+  }
+
+  @Test
+  public void peekTest() {
+    int[] reads = new int[2];
+    memory.mapIo(0xFF47, new MemoryHandler() {
+      @Override
+      public byte read(int address) {
+        reads[0]++;
+        return (byte) 0x5A;
+      }
+
+      @Override
+      public void write(int address, byte value) {
+        memory.setIoRegister(address, value);
+      }
+    });
+    memory.setByte(0xFF47, (byte) 0xE4);
+    memory.setByte(0xC010, (byte) 0x77);
+    memory.addReadListener(0xC0, (address, value) -> reads[1]++);
+    assertEquals("A peek should see the stored register", (byte) 0xE4, memory.peekByte(0xFF47));
+    assertEquals("A peek should see watched RAM", (byte) 0x77, memory.peekByte(0xC010));
+    assertEquals("A peek should not run the handler", 0, reads[0]);
+    assertEquals("A peek should not tell listeners", 0, reads[1]);
+  }
+
+  @Test
+  public void wordAcrossPagesTest() {
+    memory.setWord(0xC0FF, (short) 0x1234);
+    assertEquals("Low byte should end the first page", (byte) 0x34, memory.getByteAt(0xC0FF));
+    assertEquals("Word should be read back", (short) 0x1234, memory.getWordAt(0xC0FF));
+  }
+
+  @Test
+  public void romBankPagesTest() {
+    byte[] rom = new byte[8 * 0x4000];
+    rom[0x0147] = 0x01; // MBC1
+    for (int bank = 0; bank < 8; bank++) {
+      rom[bank * 0x4000 + 0x1234] = (byte) bank;
+    }
+    memory.loadRom(rom);
+    assertEquals("Bank 1 should be mapped", (byte) 1, memory.getByteAt(0x5234));
+    memory.setByte(0x2000, (byte) 6);
+    assertEquals("Bank 6 should be remapped", (byte) 6, memory.getByteAt(0x5234));
+    assertEquals("Bank 0 should stay mapped", (byte) 0, memory.getByteAt(0x1234));
+  }
+
+  @Test
+  public void lowRomWindowTest() {
+    byte[] rom = new byte[64 * 0x4000];
+    rom[0x0147] = 0x01; // MBC1
+    for (int bank = 0; bank < 64; bank++) {
+      rom[bank * 0x4000 + 0x1234] = (byte) bank;
+    }
+    memory.loadRom(rom);
+    memory.setByte(0x0000, (byte) 0x0A); // enable RAM, which maps no bank
+    memory.setByte(0x4000, (byte) 0x01); // upper bank bits
+    assertEquals("The upper bits should switch the high window", (byte) 0x21,
+        memory.getByteAt(0x5234));
+    assertEquals("Mode 0 should leave the low window", (byte) 0, memory.getByteAt(0x1234));
+    memory.setByte(0x6000, (byte) 0x01); // mode 1
+    assertEquals("Mode 1 should switch the low window", (byte) 0x20, memory.getByteAt(0x1234));
+    assertEquals("Mode 1 should leave the high window", (byte) 0x21, memory.getByteAt(0x5234));
+  }
+}
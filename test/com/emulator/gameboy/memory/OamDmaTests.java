@@ -0,0 +1,46 @@
+package com.emulator.gameboy.memory;
+
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import org.junit.Test;
+
+public class OamDmaTests {
+  Memory memory = new Memory();
+  Scheduler scheduler = new Scheduler();
+  long[] time = new long[1];
+  OamDma dma = new OamDma(memory, scheduler, () -> time[0]);
+
+  @Test
+  public void transferTest() {
+    for (int i = 0; i < 0xA0; i++) {
+      memory.setByte(0xC100 + i, (byte) i);
+    }
+    time[0] = 1000;
+    memory.setByte(0xFF46, (byte) 0xC1);
+    assertEquals("The source page should be copied", (byte) 0x9F, memory.getOam()[0x9F]);
+    assertEquals("OAM should read 0xFF during the transfer", (byte) 0xFF,
+        memory.getByteAt(0xFE10));
+    memory.setByte(0xFE10, (byte) 0x55);
+    assertEquals("OAM should ignore writes during the transfer", 0x10, memory.getOam()[0x10]);
+    assertEquals("The transfer should end after 160 cycles", 1000 + OamDma.CYCLES,
+        scheduler.getNextEventTime());
+
+    scheduler.dispatch(1000 + OamDma.CYCLES);
+    assertEquals("OAM should be readable after the transfer", (byte) 0x10,
+        memory.getByteAt(0xFE10));
+    assertEquals((byte) 0xC1, memory.getByteAt(0xFF46));
+  }
+
+  @Test
+  public void romTransferTest() {
+    byte[] rom = new byte[0x8000];
+    rom[0x4A00] = 0x12;
+    rom[0x4A9F] = 0x34;
+    memory.loadRom(rom);
+    memory.setByte(0xFF46, (byte) 0x4A);
+    assertEquals(0x12, memory.getOam()[0]);
+    assertEquals(0x34, memory.getOam()[0x9F]);
+  }
+}
@@ -0,0 +1,44 @@
+package com.emulator.gameboy.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FrameTimeHistogramTests {
+  @Test
+  public void percentileTest() {
+    FrameTimeHistogram histogram = new FrameTimeHistogram();
+    for (long value = 1; value <= 1000; value++) {
+      histogram.record(value * 16_000); // 16us to 16ms
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals("The mean should be exact", 500.5 * 16_000, histogram.getMean(), 1e-6);
+    assertEquals(8_000_000, histogram.getValueAtPercentile(50), 8_000_000 / 32);
+    assertEquals(15_840_000, histogram.getValueAtPercentile(99), 15_840_000 / 32);
+    assertEquals(16_000_000, histogram.getMax(), 16_000_000 / 32);
+    assertEquals("Small values should be exact", 0, new FrameTimeHistogram().getMax());
+  }
+
+  @Test
+  public void precisionTest() {
+    for (long value = 1; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+      FrameTimeHistogram histogram = new FrameTimeHistogram();
+      histogram.record(value);
+      long recorded = histogram.getMax();
+      assertEquals("Value " + value, value, recorded, value / 32.0);
+      assertEquals("Buckets should round up", true, recorded >= value);
+    }
+  }
+
+  @Test
+  public void sinceTest() {
+    FrameTimeHistogram earlier = new FrameTimeHistogram();
+    earlier.record(1_000_000);
+    FrameTimeHistogram later = new FrameTimeHistogram();
+    later.record(1_000_000);
+    later.record(5_000_000);
+    FrameTimeHistogram interval = later.since(earlier);
+    assertEquals(1, interval.getCount());
+    assertEquals(5_000_000, interval.getValueAtPercentile(50), 5_000_000 / 32);
+  }
+}
@@ -0,0 +1,88 @@
+package com.emulator.gameboy.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.emulator.gameboy.GameBoy;
+import com.emulator.gameboy.memory.Memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsPublisherTests {
+  // loop: INC A; JR loop
+  private static GameBoy loop() {
+    byte[] rom = new byte[0x8000];
+    rom[0] = 0x3C;
+    rom[1] = 0x18;
+    rom[2] = (byte) 0xFD;
+    Memory memory = new Memory();
+    memory.loadRom(rom);
+    return new GameBoy(memory, null, false);
+  }
+
+  @Test
+  public void publishTest() throws Exception {
+    GameBoy gameBoy = loop();
+    EmulatorMetrics metrics = new EmulatorMetrics();
+    gameBoy.setMetrics(metrics);
+    List<MetricsSnapshot> published = new ArrayList<>();
+    try (MetricsPublisher publisher = new MetricsPublisher(metrics)) {
+      publisher.addSink(published::add);
+      ObjectName name = publisher.register("test");
+
+      for (int i = 0; i < 32; i++) {
+        gameBoy.runFrame();
+      }
+      MetricsSnapshot interval = publisher.publish();
+      assertEquals(1, published.size());
+      assertEquals(32, interval.getFrames());
+      assertEquals("Every cycle should be counted", gameBoy.getCpu().getCycleCount(),
+          interval.getCycles());
+      assertEquals("The loop takes 4 cycles per 2 instructions", interval.getCycles() / 2,
+          interval.getInstructions(), 2);
+      assertEquals(32, interval.getFrameTimes().getCount());
+      assertEquals("Without a screen nothing is presented", 0, interval.getPresentNanos());
+      assertEquals("The shares should cover the frame time", 100,
+          interval.share(interval.getCpuNanos()) + interval.share(interval.getRenderNanos()),
+          1e-9);
+
+      gameBoy.runFrame();
+      assertEquals("The next period should hold only the new frame", 1,
+          publisher.publish().getFrames());
+
+      Object frames = ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TotalFrames");
+      assertEquals(33L, frames);
+      double fps = (Double) ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+          "FramesPerSecond");
+      assertTrue(fps > 0);
+    }
+  }
+
+  @Test
+  public void sharedTest() throws InterruptedException {
+    EmulatorMetrics metrics = new EmulatorMetrics();
+    Thread[] threads = new Thread[2];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        GameBoy gameBoy = loop();
+        gameBoy.setMetrics(metrics);
+        for (int frame = 0; frame < 10; frame++) {
+          gameBoy.runFrame();
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals("Machines on different threads should add up", 20, snapshot.getFrames());
+    assertEquals(20, snapshot.getFrameTimes().getCount());
+  }
+}
@@ -0,0 +1,83 @@
+package com.emulator.gameboy.rewind;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.emulator.gameboy.GameBoy;
+import com.emulator.gameboy.TestRoms;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RewindBufferTests {
+  GameBoy gameBoy = TestRoms.counterLoopMachine(false);
+  RewindBuffer rewind;
+
+  // run frames, capturing each without letting the compressor fall behind
+  private void runFrames(int frames) throws InterruptedException {
+    for (int i = 0; i < frames; i++) {
+      gameBoy.runFrame();
+      assertTrue("A frame should be captured", rewind.capture());
+      rewind.flush();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    if (rewind != null) {
+      rewind.close();
+    }
+  }
+
+  @Test
+  public void rewindTest() throws InterruptedException {
+    rewind = new RewindBuffer(gameBoy, 120);
+    assertFalse("There should be nothing to rewind to", rewind.rewind(1));
+    runFrames(70);
+    byte[] expected = gameBoy.saveState();
+    runFrames(30);
+
+    assertTrue("Rewinding should restore a frame", rewind.rewind(30));
+    assertEquals("Rewinding should go back the requested frames", 70,
+        gameBoy.getGpu().getFrameCount());
+    assertArrayEquals("A rewound frame should match its state", expected, gameBoy.saveState());
+    assertEquals("Later frames should be discarded", 70, rewind.getFrameCount());
+
+    runFrames(1);
+    assertTrue("Rewinding again should step back", rewind.rewind(1));
+    assertArrayEquals("Frames captured after a rewind should follow it", expected,
+        gameBoy.saveState());
+  }
+
+  @Test
+  public void boundedTest() throws InterruptedException {
+    rewind = new RewindBuffer(gameBoy, 20);
+    runFrames(100);
+    assertEquals("The ring should keep its capacity", 20, rewind.getFrameCount());
+    assertTrue("Deltas should be much smaller than states",
+        rewind.getSize() < 2L * gameBoy.getStateSize());
+    assertTrue("The keyframe the kept deltas refer to should still count",
+        rewind.getSize() > gameBoy.getStateSize());
+
+    rewind.rewind(1000);
+    assertEquals("Rewinding past the history should stop at the oldest frame", 81,
+        gameBoy.getGpu().getFrameCount());
+  }
+
+  @Test
+  public void deltaCodecTest() {
+    byte[] keyframe = new byte[1000];
+    byte[] state = new byte[1000];
+    state[0] = 1;
+    state[500] = 2;
+    state[501] = 3;
+    state[999] = 4;
+    byte[] delta = DeltaCodec.encode(keyframe, state,
+        new byte[DeltaCodec.maxEncodedLength(state.length)]);
+    assertTrue("A sparse delta should be small", delta.length < 20);
+    assertArrayEquals("A delta should decode to its state", state,
+        DeltaCodec.decode(keyframe, delta));
+  }
+}
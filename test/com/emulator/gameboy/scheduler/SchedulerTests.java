@@ -0,0 +1,62 @@
+package com.emulator.gameboy.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SchedulerTests {
+  Scheduler scheduler = new Scheduler();
+  List<String> handled = new ArrayList<>();
+
+  private int register(String name) {
+    return scheduler.register(time -> handled.add(name + "@" + time));
+  }
+
+  @Test
+  public void orderTest() {
+    int a = register("a");
+    int b = register("b");
+    int c = register("c");
+    scheduler.schedule(a, 30);
+    scheduler.schedule(b, 10);
+    scheduler.schedule(c, 20);
+    assertEquals("The earliest event should be next", 10, scheduler.getNextEventTime());
+
+    scheduler.dispatch(25);
+    assertEquals("Due events should run in time order", List.of("b@10", "c@20"), handled);
+    assertEquals("The remaining event should be next", 30, scheduler.getNextEventTime());
+  }
+
+  @Test
+  public void rescheduleAndCancelTest() {
+    int a = register("a");
+    int b = register("b");
+    scheduler.schedule(a, 10);
+    scheduler.schedule(b, 20);
+    scheduler.schedule(a, 40);
+    assertEquals("Rescheduling should move the event", 20, scheduler.getNextEventTime());
+
+    scheduler.cancel(b);
+    assertFalse("A cancelled event should not be pending", scheduler.isScheduled(b));
+    scheduler.dispatch(100);
+    assertEquals("Only the moved event should run", List.of("a@40"), handled);
+    assertEquals("Nothing should be pending", Scheduler.NEVER, scheduler.getNextEventTime());
+  }
+
+  @Test
+  public void handlerRescheduleTest() {
+    int[] tick = new int[1];
+    tick[0] = scheduler.register(time -> {
+      handled.add("tick@" + time);
+      scheduler.schedule(tick[0], time + 4);
+    });
+    scheduler.schedule(tick[0], 0);
+    scheduler.dispatch(10);
+    assertEquals("A periodic event should catch up to the current time",
+        List.of("tick@0", "tick@4", "tick@8"), handled);
+  }
+}
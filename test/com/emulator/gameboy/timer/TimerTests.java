@@ -0,0 +1,78 @@
+package com.emulator.gameboy.timer;
+
+import static org.junit.Assert.assertEquals;
+
+import com.emulator.gameboy.cpu.InterruptController;
+import com.emulator.gameboy.memory.Memory;
+import com.emulator.gameboy.scheduler.Scheduler;
+
+import org.junit.Test;
+
+public class TimerTests {
+  Memory memory = new Memory();
+  Scheduler scheduler = new Scheduler();
+  long[] time = new long[1];
+  Timer timer = new Timer(memory, scheduler, new InterruptController(memory), () -> time[0]);
+
+  // run the scheduler's events up to a machine cycle
+  private void runTo(long cycle) {
+    while (scheduler.getNextEventTime() <= cycle) {
+      time[0] = scheduler.getNextEventTime();
+      scheduler.dispatch(time[0]);
+    }
+    time[0] = cycle;
+  }
+
+  private void write(int address, int value) {
+    memory.setByte(address, (byte) value);
+  }
+
+  private int read(int address) {
+    return memory.getByteAt(address) & 0xFF;
+  }
+
+  @Test
+  public void dividerTest() {
+    runTo(64 * 5 + 10);
+    assertEquals("DIV should count every 64 machine cycles", 5, read(0xFF04));
+    write(0xFF04, 0x42);
+    assertEquals("Writing DIV should reset it", 0, read(0xFF04));
+    runTo(time[0] + 64 * 300);
+    assertEquals("DIV should wrap", 300 & 0xFF, read(0xFF04));
+  }
+
+  @Test
+  public void overflowTest() {
+    write(0xFF06, 0xF0); // TMA
+    write(0xFF05, 0xFE); // TIMA
+    write(0xFF07, 0x05); // enabled, every 4 machine cycles
+    runTo(7);
+    assertEquals(0xFF, read(0xFF05));
+    assertEquals("Nothing should be requested yet", 0, memory.getIoRegister(0xFF0F) & 0x04);
+    runTo(8);
+    assertEquals("TIMA should reload TMA on overflow", 0xF0, read(0xFF05));
+    assertEquals("Overflow should request the interrupt", 0x04,
+        memory.getIoRegister(0xFF0F) & 0x04);
+    runTo(8 + 4 * 16 * 3);
+    assertEquals("TIMA should keep reloading", 0xF0, read(0xFF05));
+    assertEquals("TAC's unused bits should read as 1", 0xFD, read(0xFF07));
+
+    write(0xFF07, 0x01); // stopped
+    runTo(time[0] + 1000);
+    assertEquals("A stopped timer should hold", 0xF0, read(0xFF05));
+    assertEquals("A stopped timer should not overflow", Scheduler.NEVER,
+        scheduler.getNextEventTime());
+  }
+
+  @Test
+  public void dividerResetTest() {
+    write(0xFF07, 0x05);
+    runTo(2); // the selected counter bit is set
+    write(0xFF04, 0);
+    assertEquals("Resetting the counter should clock TIMA on the falling edge", 1, read(0xFF05));
+    runTo(5);
+    assertEquals("TIMA should count from the reset", 1, read(0xFF05));
+    runTo(6);
+    assertEquals(2, read(0xFF05));
+  }
+}
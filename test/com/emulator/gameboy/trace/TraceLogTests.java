@@ -0,0 +1,36 @@
+package com.emulator.gameboy.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+
+import org.junit.Test;
+
+public class TraceLogTests {
+
+  @Test
+  public void roundTripTest() throws IOException {
+    ByteArrayOutputStream trace = new ByteArrayOutputStream();
+    // a ring smaller than the record count exercises wrap-around and back-pressure
+    TraceLog log = new TraceLog(trace, 4);
+    for (int i = 0; i < 100; i++) {
+      log.record(0x0100 + i, 0x3E, 0x01B0, 0x0013, 0x00D8, 0x014D, 0xFFFE, i * 2L);
+    }
+    log.close();
+
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    long count = TraceDecoder.decode(new ByteArrayInputStream(trace.toByteArray()),
+        new PrintStream(text, true, "UTF-8"));
+    assertEquals("Every record should be decoded", 100, count);
+
+    String[] lines = text.toString("UTF-8").split("\\R");
+    assertTrue("First record should decode its registers", lines[0].contains(
+        "PC=0100  OP=3E  AF=01B0 BC=0013 DE=00D8 HL=014D SP=FFFE  Z-HC"));
+    assertTrue("Cycle counts should be restored from deltas",
+        lines[99].startsWith("000000000198  PC=0163"));
+  }
+}